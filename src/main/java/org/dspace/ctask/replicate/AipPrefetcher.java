@@ -0,0 +1,247 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * AipPrefetcher fetches the AIPs a restore will need next from the ObjectStore while the current one is being
+ * ingested, so that downloading and ingesting overlap rather than alternate.
+ * <p>
+ * The AIPs to restore are given as a {@link Sequence}, and up to 'replicate.restore.prefetch' AIPs after the one
+ * being restored are fetched at once in the background. The space used by prefetched AIPs is limited by
+ * 'replicate.restore.prefetch.staging.size' (in bytes), using the size of each AIP in the ObjectStore. An AIP which
+ * does not fit is not prefetched, but fetched when it is needed, as is every AIP if prefetching is turned off - so
+ * nested sequences (e.g. the members of each Community restored) never wait on each other for space.
+ *
+ * @author agent
+ * @see StagingBudget
+ */
+public class AipPrefetcher implements Closeable {
+    public static final String PREFETCH_KEY = "replicate.restore.prefetch";
+    public static final String STAGING_SIZE_KEY = "replicate.restore.prefetch.staging.size";
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final ReplicaManager repMan;
+    private final String group;
+    private final int depth;
+    private final StagingBudget budget;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor
+     *
+     * @param repMan ReplicaManager (used to access ObjectStore)
+     * @param group the group the AIPs are stored in
+     * @param depth how many AIPs to fetch ahead, 0 to fetch each AIP only when it is needed
+     * @param stagingSize the space prefetched AIPs may use at once, in bytes
+     */
+    public AipPrefetcher(ReplicaManager repMan, String group, int depth, long stagingSize) {
+        this.repMan = repMan;
+        this.group = group;
+        this.depth = Math.max(0, depth);
+        this.budget = new StagingBudget(stagingSize);
+        this.executor = this.depth > 0 ? Executors.newFixedThreadPool(this.depth, runnable -> {
+            Thread thread = new Thread(runnable, "replicate-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Start a sequence of AIPs to restore
+     *
+     * @param ids the ids of the objects, in the order they will be restored
+     * @param storageId maps an id to the ID its AIP is stored under. This is only called on the calling thread.
+     * @return the sequence
+     */
+    public Sequence fetch(List<String> ids, UnaryOperator<String> storageId) {
+        return new Sequence(ids, storageId);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A sequence of AIPs to restore. Each AIP is returned by {@link #next()} in turn. The caller removes each staged
+     * AIP once it is restored, and the space it took is given back when the next one is asked for.
+     */
+    public class Sequence implements Closeable {
+        private final List<String> ids;
+        private final UnaryOperator<String> storageId;
+        private final Map<Integer, Prefetch> prefetches = new HashMap<>();
+        // index of the next AIP to return
+        private int position = 0;
+        // index of the next AIP to prefetch
+        private int scheduled = 0;
+        // space reserved by the AIP last returned
+        private long reserved = 0L;
+
+        private Sequence(List<String> ids, UnaryOperator<String> storageId) {
+            this.ids = ids;
+            this.storageId = storageId;
+        }
+
+        public boolean hasNext() {
+            return position < ids.size();
+        }
+
+        /**
+         * Get the next AIP, waiting for it to be fetched if it is not already
+         *
+         * @return the staged AIP, or null if it is not in the ObjectStore
+         * @throws IOException if the AIP cannot be fetched
+         */
+        public File next() throws IOException {
+            releaseCurrent();
+            int index = position++;
+            Prefetch prefetch = prefetches.remove(index);
+            if (prefetch == null) {
+                prefetch = new Prefetch(storageId.apply(ids.get(index)));
+            }
+            schedule();
+
+            File file = prefetch.await();
+            if (file != null) {
+                reserved = prefetch.reserved;
+                return file;
+            }
+            // not prefetched, so fetch it now
+            return repMan.fetchStoredObject(group, prefetch.storageId);
+        }
+
+        /**
+         * Stop prefetching, and discard AIPs which were prefetched but not asked for
+         */
+        @Override
+        public void close() {
+            releaseCurrent();
+            for (Prefetch prefetch : prefetches.values()) {
+                prefetch.discard();
+            }
+            prefetches.clear();
+        }
+
+        private void releaseCurrent() {
+            if (reserved > 0L) {
+                budget.release(reserved);
+                reserved = 0L;
+            }
+        }
+
+        private void schedule() {
+            if (executor == null) {
+                return;
+            }
+            scheduled = Math.max(scheduled, position);
+            while (scheduled < ids.size() && scheduled < position + depth) {
+                Prefetch prefetch = new Prefetch(storageId.apply(ids.get(scheduled)));
+                prefetch.future = executor.submit(prefetch::fetch);
+                prefetches.put(scheduled++, prefetch);
+            }
+        }
+    }
+
+    /**
+     * An AIP fetched ahead of time
+     */
+    private class Prefetch {
+        private final String storageId;
+        private Future<File> future = null;
+        private volatile boolean discarded = false;
+        private volatile long reserved = 0L;
+
+        Prefetch(String storageId) {
+            this.storageId = storageId;
+        }
+
+        /**
+         * Fetch the AIP, if there is space for it
+         *
+         * @return the staged AIP, or null if it was not fetched
+         */
+        private File fetch() throws IOException {
+            if (discarded) {
+                return null;
+            }
+            String size = repMan.objectAttribute(group, storageId, "sizebytes");
+            if (size == null) {
+                return null;
+            }
+            reserved = budget.tryAcquire(Long.parseLong(size));
+            if (reserved == 0L) {
+                return null;
+            }
+            File file = repMan.fetchStoredObject(group, storageId);
+            if (file == null) {
+                budget.release(reserved);
+                reserved = 0L;
+            }
+            return file;
+        }
+
+        /**
+         * Wait for the AIP to be prefetched
+         *
+         * @return the staged AIP, or null if it was not prefetched
+         */
+        private File await() {
+            if (future == null) {
+                return null;
+            }
+            try {
+                return future.get();
+            } catch (ExecutionException execE) {
+                // fetched again when needed, which reports the failure
+                log.debug("Unable to prefetch {}", storageId, execE.getCause());
+                releaseReserved();
+                return null;
+            } catch (InterruptedException intE) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                releaseReserved();
+                return null;
+            }
+        }
+
+        private void discard() {
+            // a fetch already under way is left to finish, so that its file can be removed
+            discarded = true;
+            File file = await();
+            if (file != null && file.exists() && !file.delete()) {
+                log.warn("Unable to delete prefetched AIP {}", file);
+            }
+            releaseReserved();
+        }
+
+        private void releaseReserved() {
+            if (reserved > 0L) {
+                budget.release(reserved);
+                reserved = 0L;
+            }
+        }
+    }
+}
@@ -50,6 +50,9 @@ import org.dspace.pack.bagit.SitePacker;
  * BagItRestoreFromAIP task performs essentially an 'undelete' on an object that
  * has been deleted from the repository, using the replica copy.
  * If the object is a container, it recovers all its children/members.
+ * <p>
+ * When 'replicate.restore.parallel.workers' is set, the Items are recovered by a ParallelIngester, and each
+ * container is committed once recovered so the workers can add Items to it.
  *
  * @author richardrodgers
  * @see TransmitAIP
@@ -73,12 +76,20 @@ public class BagItRestoreFromAIP extends AbstractCurationTask {
     // Group where object deletion catalog/records are stored
     private String deleteGroupName;
 
+    // Number of workers recovering Items in parallel, 0 to recover them in turn
+    private int restoreWorkers;
+
+    // Most Items a worker recovers between commits
+    private int commitBatch;
+
     @Override
     public void init(Curator curator, String taskId) throws IOException {
         super.init(curator, taskId);
         deleteGroupName = configurationService.getProperty("replicate.group.delete.name");
         storeGroupName = configurationService.getProperty("replicate.group.aip.name");
         archFmt = configurationService.getProperty("replicate.packer.archfmt");
+        restoreWorkers = configurationService.getIntProperty(ParallelIngester.WORKERS_KEY, 0);
+        commitBatch = configurationService.getIntProperty(ParallelIngester.COMMIT_BATCH_KEY, 100);
     }
 
     /**
@@ -105,9 +116,7 @@ public class BagItRestoreFromAIP extends AbstractCurationTask {
                     final SitePacker sitePacker = new SitePacker(context, (Site) dso, archFmt);
                     sitePacker.unpack(file);
                     final List<String> members = sitePacker.getMembers().or(new ArrayList<>());
-                    for (final String member : members) {
-                        recover(context, repMan, member);
-                    }
+                    recoverAll(context, repMan, members);
                     result = "Successfully restored Site and children from AIP(s)";
                 } else {
                     result = "Failed to restore Site. AIP could not be found in Replica Store.";
@@ -139,21 +148,21 @@ public class BagItRestoreFromAIP extends AbstractCurationTask {
         ReplicaManager repMan = ReplicaManager.instance();
 
         // first we locate the deletion catalog for this object
-        String catId = repMan.deletionCatalogId(id, archFmt);
-        File catArchive = repMan.fetchObject(ctx, deleteGroupName, catId);
+        File catArchive = repMan.fetchDeletionCatalog(ctx, deleteGroupName, id, archFmt);
         int status = Curator.CURATE_FAIL;
         String result;
         // CANNOT continue if the deletion catalog cannot be located
         if (catArchive != null) {
+            String catId = catArchive.getName();
             CatalogPacker cpack = new CatalogPacker(ctx, id);
             cpack.unpack(catArchive);
             // RLR TODO - remove filename collision next delete requires
             catArchive.delete();
             // recover root object itself, then any members
-            recover(ctx, repMan, id);
-            for (String mem : cpack.getMembers()) {
-                recover(ctx, repMan, mem);
-            }
+            List<String> ids = new ArrayList<>();
+            ids.add(id);
+            ids.addAll(cpack.getMembers());
+            recoverAll(ctx, repMan, ids);
             // remove the deletion catalog (as the object is now restored)
             repMan.removeObject(deleteGroupName, catId);
             result = "Successfully restored Object '" + id + "' (and any child objects) from AIP.";
@@ -169,41 +178,89 @@ public class BagItRestoreFromAIP extends AbstractCurationTask {
     }
 
     /**
-     * Recover an object from an ObjectStore based on its identifier. If an object already exists, log a warning and
-     * skip it.
+     * Recover objects from an ObjectStore in order, fetching the AIPs of the next objects while each one is
+     * recovered. The containers are recovered one at a time, as each may be the parent of those after it.
      *
      * @param ctx current DSpace Context
      * @param repMan ReplicaManager (used to access ObjectStore)
-     * @param id Identifier of object in ObjectStore
+     * @param ids Identifiers of objects in ObjectStore
      * @throws IOException if IO error
      */
-    private void recover(Context ctx, ReplicaManager repMan, String id) throws IOException {
-        final String objId = repMan.storageId(ctx, id, archFmt);
-        final File archive = repMan.fetchObject(ctx, storeGroupName, objId);
-        DSpaceObject dso;
-        try {
-            dso = dspaceObjectUtils.findDSpaceObject(ctx,id);
-        }  catch (SQLException sqlE) {
-            throw new IOException(sqlE.getMessage(), sqlE);
+    private void recoverAll(Context ctx, ReplicaManager repMan, List<String> ids) throws IOException {
+        try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, storeGroupName,
+                 configurationService.getIntProperty(AipPrefetcher.PREFETCH_KEY, 2),
+                 configurationService.getLongProperty(AipPrefetcher.STAGING_SIZE_KEY, 1073741824L));
+             AipPrefetcher.Sequence archives = prefetcher.fetch(ids, id -> repMan.storageId(ctx, id, archFmt));
+             ParallelIngester ingester = restoreWorkers > 0 ?
+                 new ParallelIngester(ctx, restoreWorkers, commitBatch) : null) {
+            for (String id : ids) {
+                recover(ctx, repMan, id, archives.next(), ingester);
+            }
+            if (ingester != null) {
+                ingester.finish();
+            }
         }
-        if (archive != null && dso == null) {
-            final BagItAipReader reader = new BagItAipReader(archive.toPath());
-            final Properties props = reader.readProperties();
+    }
 
-            final String type = props.getProperty(OBJECT_TYPE);
-            final String ownerId = props.getProperty(OWNER_ID);
-            if ("item".equals(type)) {
-                recoverItem(ctx, archive, id, props);
-            } else if ("collection".equals(type)) {
-                recoverCollection(ctx, archive, id, ownerId);
-            } else if ("community".equals(type)) {
-                recoverCommunity(ctx, archive, id, ownerId);
+    /**
+     * Recover an object from its AIP. If an object already exists, log a warning and skip it.
+     *
+     * @param ctx current DSpace Context
+     * @param repMan ReplicaManager (used to fetch the AIP again, should an Item be recovered again)
+     * @param id Identifier of object in ObjectStore
+     * @param archive the AIP fetched from the ObjectStore, or null if it was not found
+     * @param ingester recovers Items in parallel, or null to recover them in turn
+     * @throws IOException if IO error
+     */
+    private void recover(Context ctx, ReplicaManager repMan, String id, File archive, ParallelIngester ingester)
+        throws IOException {
+        // the ingester deletes the AIPs handed to it, the others are deleted here once recovered or skipped, as the
+        // prefetcher counts on each AIP being removed before the next is fetched
+        boolean handedOff = false;
+        try {
+            DSpaceObject dso;
+            try {
+                dso = dspaceObjectUtils.findDSpaceObject(ctx,id);
+            }  catch (SQLException sqlE) {
+                throw new IOException(sqlE.getMessage(), sqlE);
             }
+            if (archive != null && dso == null) {
+                final BagItAipReader reader = new BagItAipReader(archive.toPath());
+                final Properties props = reader.readProperties();
+                // discard bag, the objects are recovered from the archive itself
+                reader.clean();
 
-            // discard bag when done
-            reader.clean();
-        } else if (dso != null) {
-            log.warn("Unable to restore object for {}. Object already exists!", id);
+                final String type = props.getProperty(OBJECT_TYPE);
+                final String ownerId = props.getProperty(OWNER_ID);
+                if ("item".equals(type) && ingester != null) {
+                    // the staged AIP is named by its storage id
+                    final String storageId = archive.getName();
+                    handedOff = true;
+                    ingester.submit(id, archive, () -> repMan.fetchStoredObject(storeGroupName, storageId),
+                                    (workerContext, aip) -> recoverItem(workerContext, aip, id, props));
+                } else if ("item".equals(type)) {
+                    recoverItem(ctx, archive, id, props);
+                } else if ("collection".equals(type)) {
+                    recoverCollection(ctx, archive, id, ownerId);
+                } else if ("community".equals(type)) {
+                    recoverCommunity(ctx, archive, id, ownerId);
+                }
+
+                if (ingester != null && !"item".equals(type)) {
+                    // the workers have their own Contexts, so a container must be committed before its members
+                    try {
+                        ctx.commit();
+                    } catch (SQLException sqlE) {
+                        throw new IOException(sqlE.getMessage(), sqlE);
+                    }
+                }
+            } else if (dso != null) {
+                log.warn("Unable to restore object for {}. Object already exists!", id);
+            }
+        } finally {
+            if (archive != null && !handedOff && archive.exists() && !archive.delete()) {
+                log.warn("Unable to delete archived file: {}", archive);
+            }
         }
     }
 
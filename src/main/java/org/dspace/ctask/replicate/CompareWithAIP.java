@@ -48,6 +48,9 @@ import org.dspace.pack.PackerFactory;
  * once a single object fails the audit. However, when run from the Command-Line
  * this task will run to completion (i.e. even if an object fails it will continue
  * processing to completion).
+ * <P>
+ * When 'replicate.run.journal' is enabled, a run over a container is recorded
+ * in a RunJournal, so an interrupted run resumes where it stopped.
  * 
  * @author richardrodgers
  */
@@ -62,6 +65,9 @@ public class CompareWithAIP extends AbstractCurationTask {
     // Group where all AIPs are stored
     private String storeGroupName;
 
+    // Journal of the current run over a container, if run journals are enabled
+    private RunJournal runJournal = null;
+
     @Override
     public void init(Curator curator, String taskId) throws IOException {
         super.init(curator, taskId);
@@ -83,6 +89,13 @@ public class CompareWithAIP extends AbstractCurationTask {
         result = "Checksums of local and remote agree";
         try {
             Context context = Curator.curationContext();
+            runJournal = RunJournal.track(runJournal, context, taskId, dso);
+            if (runJournal != null && runJournal.isCompleted(id)) {
+                runJournal.record(id, true);
+                setResult("AIP for '" + id + "' was audited by an earlier run, skipping");
+                return Curator.CURATE_SKIP;
+            }
+
             String objId = repMan.storageId(context, id, archFmt);
             Packer packer = PackerFactory.instance(context, dso);
             // First, make sure this object has an AIP in remote storage
@@ -116,6 +129,9 @@ public class CompareWithAIP extends AbstractCurationTask {
                 }
             }
 
+            if (runJournal != null) {
+                runJournal.record(id, status == Curator.CURATE_SUCCESS);
+            }
             setResult(result);
             return status;
         } catch (AuthorizeException | SQLException authE) {
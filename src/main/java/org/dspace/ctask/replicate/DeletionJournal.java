@@ -0,0 +1,189 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.pack.bagit.DeletionCatalog;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * DeletionJournal records deletions on local disk when they happen, so that the deletion catalogs can be packaged
+ * and transferred to the ObjectStore later by the {@link TransmitDeletions} task, rather than while the object is
+ * being deleted.
+ * <p>
+ * Each deletion is a {@link DeletionCatalog} file in the 'deletions' directory of the replicate.base.dir. A file is
+ * written under a temporary name, forced to disk and then renamed, so a partly written deletion is never seen. To
+ * process a deletion it is first claimed by renaming it with a '.processing' suffix, so two runs of the task never
+ * transfer the same catalog. A claimed deletion is removed once its catalog is transferred, or renamed back if the
+ * transfer fails. Deletions left claimed by a run which did not finish are claimed again after an hour.
+ *
+ * @author agent
+ * @see TransmitDeletions
+ */
+public class DeletionJournal {
+    // name of the journal directory
+    private static final String JOURNAL_NAME = "deletions";
+    private static final String PENDING_SUFFIX = "." + DeletionCatalog.EXTENSION;
+    private static final String PROCESSING_SUFFIX = ".processing";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // a claim older than this was left by a run which did not finish
+    private static final long STALE_CLAIM_MS = 3600000L;
+
+    private static final Logger log = LogManager.getLogger();
+    // singleton instance
+    private static DeletionJournal instance = null;
+    // orders deletions recorded within the same millisecond
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private final Path journalDir;
+
+    /**
+     * Constructor
+     *
+     * @param journalDir the directory holding the journal
+     * @throws IOException if the directory cannot be created
+     */
+    public DeletionJournal(Path journalDir) throws IOException {
+        this.journalDir = journalDir;
+        Files.createDirectories(journalDir);
+    }
+
+    public static synchronized DeletionJournal instance() throws IOException {
+        if (instance == null) {
+            ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+            instance = new DeletionJournal(Path.of(configurationService.getProperty("replicate.base.dir"),
+                                                   JOURNAL_NAME));
+        }
+        return instance;
+    }
+
+    /**
+     * Record a deletion
+     *
+     * @param objectId the id of the deleted object
+     * @param ownerId the id of the owner of the deleted object, may be null
+     * @param members the ids of the deleted members of the object
+     * @throws IOException if the deletion cannot be written
+     */
+    public void record(String objectId, String ownerId, List<String> members) throws IOException {
+        // the name starts with the time, so deletions are processed in the order they happened
+        String prefix = String.format("%013d-%06d-", System.currentTimeMillis(),
+                                      sequence.getAndIncrement() % 1000000);
+        Path temp = Files.createTempFile(journalDir, prefix, TEMP_SUFFIX);
+        try {
+            new DeletionCatalog(objectId, ownerId, System.currentTimeMillis(), new ArrayList<>(members)).write(temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            move(temp, pendingName(temp, TEMP_SUFFIX));
+        } catch (IOException ioE) {
+            Files.deleteIfExists(temp);
+            throw ioE;
+        }
+    }
+
+    /**
+     * List the deletions waiting to be processed, oldest first. Claims which have gone stale are given up first, so
+     * their deletions are listed again.
+     *
+     * @return the deletions
+     * @throws IOException if the journal cannot be read
+     */
+    public List<Path> pending() throws IOException {
+        long staleBefore = System.currentTimeMillis() - STALE_CLAIM_MS;
+        for (Path claimed : list(PROCESSING_SUFFIX)) {
+            try {
+                if (Files.getLastModifiedTime(claimed).toMillis() < staleBefore) {
+                    log.warn("Claim on deletion {} has gone stale, it will be processed again", claimed);
+                    move(claimed, pendingName(claimed, PROCESSING_SUFFIX));
+                }
+            } catch (NoSuchFileException e) {
+                // finished, or given up by another run
+            }
+        }
+        return list(PENDING_SUFFIX);
+    }
+
+    /**
+     * Claim a deletion for processing
+     *
+     * @param deletion a deletion listed by {@link #pending()}
+     * @return the claimed deletion, or null if it has already been claimed
+     * @throws IOException if the deletion cannot be claimed
+     */
+    public Path claim(Path deletion) throws IOException {
+        Path claimed = deletion.resolveSibling(deletion.getFileName() + PROCESSING_SUFFIX);
+        try {
+            move(deletion, claimed);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // the modified time of the claim is the time it was made
+        Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis()));
+        return claimed;
+    }
+
+    /**
+     * Remove a claimed deletion which has been processed
+     *
+     * @param claimed the claimed deletion
+     * @throws IOException if the deletion cannot be removed
+     */
+    public void complete(Path claimed) throws IOException {
+        Files.deleteIfExists(claimed);
+    }
+
+    /**
+     * Give up a claimed deletion, so it will be processed again
+     *
+     * @param claimed the claimed deletion
+     * @throws IOException if the deletion cannot be renamed
+     */
+    public void abandon(Path claimed) throws IOException {
+        move(claimed, pendingName(claimed, PROCESSING_SUFFIX));
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private Path pendingName(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - suffix.length()) +
+                                   (PROCESSING_SUFFIX.equals(suffix) ? "" : PENDING_SUFFIX));
+    }
+
+    private void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target);
+        }
+    }
+}
@@ -15,8 +15,7 @@ import org.dspace.content.DSpaceObject;
 import org.dspace.curate.AbstractCurationTask;
 import org.dspace.curate.Curator;
 import org.dspace.curate.Distributive;
-import org.dspace.pack.Packer;
-import org.dspace.pack.PackerFactory;
+import org.dspace.pack.SizeEstimator;
 
 /**
  * EstimateAIPSize task computes the total number of bytes in all the content
@@ -25,7 +24,8 @@ import org.dspace.pack.PackerFactory;
  * is quite inexact (and always too small), since real AIPs will include
  * metadata, etc, but should be adequate for a gross approximation. Also note
  * that the size estimates exclude files in bundles that are filtered, as
- * defined by <code>setContentFilter</code> on the AIP Packer.
+ * defined by 'replicate.packer.cfilter'. The number of items and bitstreams
+ * counted is reported along with the size.
  * 
  * @author richardrodgers
  * @see TransmitAIP
@@ -35,11 +35,14 @@ public class EstimateAIPSize extends AbstractCurationTask {
     @Override
     public int perform(DSpaceObject dso) throws IOException {
         try {
-            Packer packer = PackerFactory.instance(Curator.curationContext(), dso);
-            // just report the size
-            long size = packer.size("");
+            // totals are computed with aggregate queries where possible, so no Items need to be loaded
+            SizeEstimator estimator = new SizeEstimator(Curator.curationContext(),
+                                                        configurationService.getProperty("replicate.packer.cfilter"));
+            SizeEstimator.Estimate estimate = estimator.estimate(dso);
+            long size = estimate.getSize();
             String msg = "ID: " + dso.getHandle() + " (" + dso.getName() +
-                         ") estimated AIP size: " + scaledSize(size, 0);
+                         ") estimated AIP size: " + scaledSize(size, 0) + " in " + estimate.getItems() +
+                         " items and " + estimate.getBitstreams() + " bitstreams";
             report(msg);
             setResult(scaledSize(size, 0));
         } catch (SQLException sqlE) {
@@ -7,14 +7,31 @@
  */
 package org.dspace.ctask.replicate;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.dspace.curate.FileTaskQueue;
 import org.dspace.curate.TaskQueueEntry;
+import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
  * An extension of the default FileTaskQueue which ensures that duplicate entries
@@ -35,10 +52,67 @@ import org.dspace.curate.TaskQueueEntry;
  * ensures that AIPs are not (re-)generated multiple times when the queue
  * is actually processed. (NOTE however that some of the Replication store plugins
  * avoid duplicate transfers by ensuring Checksums differ before transferring)
+ * <P>
+ * Duplicates are also dropped by "enqueue()", so the queue files do not grow
+ * with repeated entries. Beside each queue file ('queueN') a key index file
+ * ('keysN') lists the task listing and object of every entry in it, and an
+ * entry whose key is already in the index of the queue file it would be
+ * appended to is not written. Queue files which are being processed are
+ * locked, so an entry for an object which is being processed is still queued.
+ * Each key index starts with a random generation line, so an index which
+ * another process removed and created again is read again in full.
  *
  * @author Tim Donohue
  */
 public class FilteredFileTaskQueue extends FileTaskQueue {
+    private static final Logger log = LogManager.getLogger();
+
+    // names of the files in each queue directory - 'queue' and 'lock' are those of the FileTaskQueue
+    private static final String QUEUE = "queue";
+    private static final String LOCK = "lock";
+    private static final String KEYS = "keys";
+    // starts the first line of each key index
+    private static final String GENERATION = "#";
+
+    // base directory for curation task queues
+    private final String queueDir = DSpaceServicesFactory.getInstance().getConfigurationService()
+                                                         .getProperty("curate.taskqueue.dir");
+    // key indexes which have been read, by file
+    private final Map<File, KeyIndex> keyIndexes = new HashMap<>();
+
+    /**
+     * Add a set of task entries to the named queue, dropping any entry which is a
+     * duplicate of one already waiting in the queue file it would be added to.
+     * As with the FileTaskQueue, this does not block: the first queue file which
+     * is not locked is used.
+     *
+     * @param queueName
+     *        the name of the queue to add to
+     * @param entrySet
+     *        the task entries to add
+     * @throws IOException if I/O error
+     */
+    @Override
+    public synchronized void enqueue(String queueName, Set<TaskQueueEntry> entrySet)
+           throws IOException {
+        File qDir = ensureQueueDir(queueName);
+        int queueIdx = 0;
+        while (true) {
+            File lock = new File(qDir, LOCK + queueIdx);
+            // createNewFile is atomic, so only one writer (in any process) holds the lock
+            if (lock.createNewFile()) {
+                try {
+                    append(qDir, queueIdx, entrySet);
+                } finally {
+                    if (!lock.delete()) {
+                        log.error("Unable to remove lock: {}", lock.getName());
+                    }
+                }
+                break;
+            }
+            queueIdx++;
+        }
+    }
     /**
      * Returns the set of UNIQUE task entries from the named queue. Any duplicate
      * task entries in the queue are ignored. The operation locks
@@ -66,6 +140,194 @@ public class FilteredFileTaskQueue extends FileTaskQueue {
         return entrySet;
     }
 
+    /**
+     * Release the queue, removing the key indexes of any queue files which
+     * were removed.
+     *
+     * @param queueName
+     *        the name of the queue to release
+     * @param ticket
+     *        a token which was presented to dequeue
+     * @param remove
+     *        if true, remove the entries which were dequeued
+     */
+    @Override
+    public synchronized void release(String queueName, long ticket, boolean remove) {
+        super.release(queueName, ticket, remove);
+        if (remove) {
+            removeStaleIndexes(ensureQueueDir(queueName));
+        }
+    }
+
+    /**
+     * Append entries to a queue file and its key index. The caller must hold
+     * the lock of the queue file.
+     *
+     * @param qDir the queue directory
+     * @param queueIdx the index of the queue file
+     * @param entrySet the entries to append
+     * @throws IOException if I/O error
+     */
+    private void append(File qDir, int queueIdx, Set<TaskQueueEntry> entrySet) throws IOException {
+        File queue = new File(qDir, QUEUE + queueIdx);
+        File keys = new File(qDir, KEYS + queueIdx);
+        if (!queue.exists()) {
+            // the queue file was processed and removed, so any index left is stale
+            Files.deleteIfExists(keys.toPath());
+        }
+        KeyIndex index = readIndex(keys, queue);
+
+        List<String> entries = new ArrayList<>();
+        List<String> newKeys = new ArrayList<>();
+        for (TaskQueueEntry entry : entrySet) {
+            String key = key(entry);
+            if (index.keys.add(key)) {
+                entries.add(entry.toString());
+                newKeys.add(key);
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (!keys.exists()) {
+            // marks this index apart from any earlier one at the same path
+            newKeys.add(0, GENERATION + UUID.randomUUID());
+        }
+
+        // queue file first - if the index is not written, a later duplicate is only not dropped
+        appendLines(queue, entries);
+        appendLines(keys, newKeys);
+        index.update(keys, queue);
+    }
+
+    private void appendLines(File file, List<String> lines) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.APPEND)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Get the key index for a queue file, reading only what has been appended
+     * to the index since it was last read. Other processes may append to the
+     * files too, or remove them and create them again, in which case the whole
+     * index is read again.
+     *
+     * @param keys the key index file
+     * @param queue the queue file the index is of
+     * @return the KeyIndex
+     * @throws IOException if I/O error
+     */
+    private KeyIndex readIndex(File keys, File queue) throws IOException {
+        KeyIndex index = keyIndexes.get(keys);
+        if (!keys.exists()) {
+            index = new KeyIndex();
+            keyIndexes.put(keys, index);
+            return index;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(keys.toPath(), BasicFileAttributes.class);
+        if (index == null || !index.isCurrent(attributes, attributes(queue), firstLine(keys))) {
+            // the files have been replaced, read it all again
+            index = new KeyIndex();
+            keyIndexes.put(keys, index);
+        }
+
+        if (attributes.size() > index.length) {
+            try (RandomAccessFile file = new RandomAccessFile(keys, "r")) {
+                file.seek(index.length);
+                byte[] appended = new byte[(int) (attributes.size() - index.length)];
+                file.readFully(appended);
+                for (String key : new String(appended, StandardCharsets.UTF_8).split("\\R")) {
+                    if (!key.isEmpty() && !key.startsWith(GENERATION)) {
+                        index.keys.add(key);
+                    }
+                }
+            }
+        }
+        index.update(keys, queue);
+        return index;
+    }
+
+    private static BasicFileAttributes attributes(File file) throws IOException {
+        return file.exists() ? Files.readAttributes(file.toPath(), BasicFileAttributes.class) : null;
+    }
+
+    /**
+     * Identify a file, so a file which has been removed and created again is not mistaken for the one read before
+     */
+    private static Object identity(BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return null;
+        }
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    /**
+     * Read the first line of a key index, which is its generation unless the
+     * index was written before generations were
+     */
+    private static String firstLine(File keys) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(keys.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            return line != null ? line : "";
+        }
+    }
+
+    /**
+     * Remove the key index of every queue file which no longer exists
+     *
+     * @param qDir the queue directory
+     */
+    private void removeStaleIndexes(File qDir) {
+        File[] indexes = qDir.listFiles((dir, name) -> name.startsWith(KEYS));
+        if (indexes == null) {
+            return;
+        }
+        for (File keys : indexes) {
+            String queueIdx = keys.getName().substring(KEYS.length());
+            File lock = new File(qDir, LOCK + queueIdx);
+            try {
+                // hold the lock, so a writer is not adding to the index at the same time
+                if (lock.createNewFile()) {
+                    try {
+                        if (!new File(qDir, QUEUE + queueIdx).exists()) {
+                            Files.deleteIfExists(keys.toPath());
+                            keyIndexes.remove(keys);
+                        }
+                    } finally {
+                        lock.delete();
+                    }
+                }
+            } catch (IOException ioE) {
+                log.warn("Unable to remove key index {}", keys, ioE);
+            }
+        }
+    }
+
+    private File ensureQueueDir(String queueName) {
+        File qDir = new File(queueDir, queueName);
+        if (!qDir.exists()) {
+            qDir.mkdirs();
+        }
+        return qDir;
+    }
+
+    /**
+     * The key of an entry - two entries are duplicates if they refer to the
+     * same object and same list of tasks (see UniqueTaskQueueEntry.equals())
+     *
+     * @param entry the TaskQueueEntry
+     * @return the key
+     */
+    private String key(TaskQueueEntry entry) {
+        return new UniqueTaskQueueEntry(entry).key();
+    }
+
     /**
      * Filter out any duplicate entries in a set of TaskQueueEntry objects.
      * A duplicate entry is one that references the same object and the same task(s)
@@ -122,6 +384,14 @@ public class FilteredFileTaskQueue extends FileTaskQueue {
             return entry;
         }
 
+        /**
+         * Get the key of the entry, which is the same for any two entries which are equal
+         * @return the lower case task listing and object
+         */
+        public String key() {
+            return tasks.toLowerCase() + "|" + objId.toLowerCase();
+        }
+
         /**
         * Return true if this object equals obj, false otherwise.
         *
@@ -157,4 +427,38 @@ public class FilteredFileTaskQueue extends FileTaskQueue {
             return hash;
         }
     }
+
+    /**
+     * The keys read from a key index file, and how much of the file has been read
+     */
+    private static class KeyIndex {
+        private final Set<String> keys = new HashSet<>();
+        // what the index and queue files were when last read. A file's identity
+        // alone is not enough, as a new file may reuse the inode of one removed.
+        private String generation = null;
+        private Object identity = null;
+        private long length = 0L;
+        private Object queueIdentity = null;
+        private long queueLength = 0L;
+
+        /**
+         * Whether the files are the ones last read, rather than new files at the same paths
+         */
+        boolean isCurrent(BasicFileAttributes attributes, BasicFileAttributes queueAttributes, String first) {
+            return first.equals(generation) &&
+                   Objects.equals(identity(attributes), identity) && attributes.size() >= length &&
+                   Objects.equals(identity(queueAttributes), queueIdentity) &&
+                   (queueAttributes != null ? queueAttributes.size() : 0L) >= queueLength;
+        }
+
+        void update(File keys, File queue) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(keys.toPath(), BasicFileAttributes.class);
+            BasicFileAttributes queueAttributes = attributes(queue);
+            generation = firstLine(keys);
+            identity = identity(attributes);
+            length = attributes.size();
+            queueIdentity = identity(queueAttributes);
+            queueLength = queueAttributes != null ? queueAttributes.size() : 0L;
+        }
+    }
 }
@@ -0,0 +1,226 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Event;
+
+/**
+ * IdFilter decides which objects the replicate consumers should process. Objects may be filtered by a textual file
+ * in the replicate.base.dir, named either 'exclude' or 'include', with one handle per line. If both files exist, the
+ * 'exclude' file is used. If neither exists, every object is accepted.
+ * <p>
+ * A line ending in '*' is a prefix: '123456789/1*' matches every handle which starts with '123456789/1'. Any other
+ * line must match a handle exactly. Only container (Community and Collection) handles are checked - an Item is
+ * filtered by the handle of its owning collection.
+ * <p>
+ * The handles are held in hash sets, so checking an object does not depend on the size of the file. The files are
+ * checked for changes at most once every few seconds, and are read again if they have been changed, added or removed,
+ * so the filter can be changed without restarting DSpace.
+ *
+ * @author agent
+ */
+public class IdFilter {
+    private static final Logger log = LogManager.getLogger();
+
+    // names of the filter files
+    private static final String EXCLUDE = "exclude";
+    private static final String INCLUDE = "include";
+    // wildcard marking a prefix
+    private static final String WILDCARD = "*";
+    // how often to look for changes to the filter files
+    private static final long CHECK_INTERVAL_MS = 5000L;
+
+    private final Path excludeFile;
+    private final Path includeFile;
+
+    // the filter in use, replaced as a whole when a file is read so it can be checked without locking
+    private volatile Filter filter = null;
+    private volatile long lastCheck = 0L;
+    private Path loadedFile = null;
+    private long loadedModified = 0L;
+
+    /**
+     * Constructor
+     *
+     * @param baseDir the directory holding the 'exclude' or 'include' file
+     */
+    public IdFilter(Path baseDir) {
+        this.excludeFile = baseDir.resolve(EXCLUDE);
+        this.includeFile = baseDir.resolve(INCLUDE);
+        refresh(true);
+    }
+
+    /**
+     * Check if the consumers should process an object
+     *
+     * @param context the current DSpace Context
+     * @param event the event performed on the object
+     * @param id the handle of the object
+     * @param subject the subject of the event if already known, otherwise null
+     * @return true if the object should be processed, false if it should not
+     * @throws SQLException if a database error occurs
+     */
+    public boolean accept(Context context, Event event, String id, DSpaceObject subject) throws SQLException {
+        refresh(false);
+        final Filter current = filter;
+        // always accept if not filtering
+        if (current == null) {
+            return true;
+        }
+
+        // filter supports only container ids - so if id is for an item,
+        // find its owning collection
+        String id2check = id;
+        if (event.getSubjectType() == Constants.ITEM) {
+            // reuse the subject if the consumer has already resolved it
+            final DSpaceObject dso = subject != null ? subject : event.getSubject(context);
+            if (dso instanceof Item) {
+                final Collection coll = ((Item) dso).getOwningCollection();
+                if (coll != null) {
+                    id2check = coll.getHandle();
+                }
+            }
+        }
+
+        return current.accept(id2check);
+    }
+
+    /**
+     * Check if a handle is accepted by the filter, with no lookup of an owning collection
+     *
+     * @param id the handle to check
+     * @return true if the handle is accepted, false if it is not
+     */
+    public boolean accept(String id) {
+        refresh(false);
+        final Filter current = filter;
+        return current == null || current.accept(id);
+    }
+
+    /**
+     * Read the filter file again if it has changed since it was last read. Unless forced, the files are only checked
+     * once every {@link #CHECK_INTERVAL_MS}.
+     *
+     * @param force true to check the files regardless of when they were last checked
+     */
+    private void refresh(boolean force) {
+        final long now = System.currentTimeMillis();
+        if (!force && now - lastCheck < CHECK_INTERVAL_MS) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!force && now - lastCheck < CHECK_INTERVAL_MS) {
+                return;
+            }
+            lastCheck = now;
+
+            // excludes trump includes
+            final Path file = Files.exists(excludeFile) ? excludeFile :
+                              Files.exists(includeFile) ? includeFile : null;
+            if (file == null) {
+                if (loadedFile != null) {
+                    log.info("Filter file {} removed, no longer filtering", loadedFile);
+                }
+                filter = null;
+                loadedFile = null;
+                return;
+            }
+
+            try {
+                final long modified = Files.getLastModifiedTime(file).toMillis();
+                if (Objects.equals(file, loadedFile) && modified == loadedModified) {
+                    return;
+                }
+                filter = Filter.read(file, excludeFile.equals(file));
+                loadedFile = file;
+                loadedModified = modified;
+                log.info("Loaded filter file {}", file);
+            } catch (IOException ioE) {
+                // keep any filter we already have
+                log.error("Unable to read filter file '{}'", file, ioE);
+            }
+        }
+    }
+
+    /**
+     * The handles read from one filter file
+     */
+    private static class Filter {
+        private final boolean exclude;
+        private final Set<String> ids;
+        private final Set<String> prefixes;
+        // lengths of the prefixes, so a handle is checked against each length rather than each prefix
+        private final Set<Integer> prefixLengths;
+
+        private Filter(boolean exclude, Set<String> ids, Set<String> prefixes) {
+            this.exclude = exclude;
+            this.ids = ids;
+            this.prefixes = prefixes;
+            this.prefixLengths = new TreeSet<>();
+            for (String prefix : prefixes) {
+                prefixLengths.add(prefix.length());
+            }
+        }
+
+        static Filter read(Path file, boolean exclude) throws IOException {
+            final Set<String> ids = new HashSet<>();
+            final Set<String> prefixes = new HashSet<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String id;
+                while ((id = reader.readLine()) != null) {
+                    id = id.trim();
+                    if (id.isEmpty()) {
+                        continue;
+                    }
+                    if (id.endsWith(WILDCARD)) {
+                        prefixes.add(id.substring(0, id.length() - WILDCARD.length()));
+                    } else {
+                        ids.add(id);
+                    }
+                }
+            }
+            return new Filter(exclude, ids, prefixes);
+        }
+
+        boolean accept(String id) {
+            boolean onList = id != null && (ids.contains(id) || hasPrefix(id));
+            return exclude ? !onList : onList;
+        }
+
+        private boolean hasPrefix(String id) {
+            for (int length : prefixLengths) {
+                if (length > id.length()) {
+                    break;
+                }
+                if (prefixes.contains(id.substring(0, length))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -15,10 +15,9 @@ import static org.dspace.event.Event.MODIFY;
 import static org.dspace.event.Event.MODIFY_METADATA;
 import static org.dspace.event.Event.REMOVE;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -94,10 +93,15 @@ public class METSReplicateConsumer implements Consumer {
 
     private ReplicaManager repMan = null;
     private TaskQueue taskQueue = null;
+    // holds entries across transactions, if a coalescing window is configured
+    private TaskQueueCoalescer coalescer = null;
+    // assigns queued objects to priority lanes, if lanes are in use
+    private ReplicationPriority priority = null;
+    // map of ids to the priority lane they are queued in
+    private Map<String, String> idLanes = null;
     private String queueName = null;
-    // list and sense for id filtering
-    private List<String> idFilter = null;
-    private boolean idExclude = true;
+    // filter of ids to process
+    private IdFilter idFilter = null;
     // map of task names to id sets
     private Map<String, Set<String>> taskQMap = null;
     private Map<String, Set<String>> taskPMap = null;
@@ -116,6 +120,10 @@ public class METSReplicateConsumer implements Consumer {
     private List<String> delTasks = null;
     // create deletion catalogs?
     private boolean catalogDeletes = false;
+    // transmit deletion catalogs later, via the deletion journal?
+    private boolean deferCatalogs = false;
+    // journal of deletions, if deletion catalogs are transmitted later rather than immediately
+    private DeletionJournal deletionJournal = null;
     // Group where all AIPs are stored
     private final String storeGroupName = configurationService.getProperty("replicate.group.aip.name");
     // Group where object deletion catalog/records are stored
@@ -132,15 +140,20 @@ public class METSReplicateConsumer implements Consumer {
 
         taskQueue = (TaskQueue) pluginService.getSinglePlugin(TaskQueue.class);
         queueName = configurationService.getProperty("replicate.consumer.queue");
+        coalescer = TaskQueueCoalescer.instance();
+        ReplicationPriority replicationPriority = new ReplicationPriority();
+        if (replicationPriority.isEnabled()) {
+            if (taskQueue instanceof SegmentedTaskQueue) {
+                priority = replicationPriority;
+            } else {
+                log.warn("Priority lanes need the SegmentedTaskQueue, queueing to {} without lanes", queueName);
+            }
+        }
+        idLanes = new HashMap<String, String>();
 
-        // look for and load any idFilter files - excludes trump includes
         // An "idFilter" is an actual textual file named "exclude" or "include"
         // which contains a list of handles to filter from the Consumer
-        if (! loadIdFilter("exclude")) {
-            if (loadIdFilter("include")) {
-                idExclude = false;
-            }
-        }
+        idFilter = new IdFilter(Paths.get(configurationService.getProperty("replicate.base.dir")));
 
         taskQMap = new HashMap<String, Set<String>>();
         taskPMap = new HashMap<String, Set<String>>();
@@ -148,6 +161,9 @@ public class METSReplicateConsumer implements Consumer {
         parseTasks("mod");
         delMemIds = new ArrayList<String>();
         parseTasks("del");
+        if (deferCatalogs) {
+            deletionJournal = DeletionJournal.instance();
+        }
     }
 
     /**
@@ -183,6 +199,7 @@ public class METSReplicateConsumer implements Consumer {
 
             // make sure we are supposed to process this object
             if (acceptId(id, event, ctx)) {
+                prioritize(ctx, id, site, Constants.SITE, evType);
                 // add it to the master lists of modified objects
                 // for which we need to perform tasks
                 mapId(taskQMap, modQTasks, id);
@@ -210,6 +227,7 @@ public class METSReplicateConsumer implements Consumer {
                             }
                             // add Collection to the master lists of modified objects
                             // for which we need to perform tasks
+                            prioritize(ctx, id, null, Constants.COLLECTION, evType);
                             mapId(taskQMap, modQTasks, id);
                             mapId(taskPMap, modPTasks, id);
 
@@ -218,6 +236,7 @@ public class METSReplicateConsumer implements Consumer {
 
                             // add Item to the master lists of modified objects
                             // for which we need to perform tasks
+                            prioritize(ctx, id, addedItem, Constants.ITEM, evType);
                             mapId(taskQMap, modQTasks, id);
                             mapId(taskPMap, modPTasks, id);
                         }
@@ -234,7 +253,9 @@ public class METSReplicateConsumer implements Consumer {
                     // if NOT (Create & Item)
                     // (i.e. We don't want to replicate items UNTIL they are Installed)
                     if (!(subjType == Constants.ITEM && evType == CREATE)) {
-                        if (acceptId(id, event, ctx)) {
+                        DSpaceObject subject = event.getSubject(ctx);
+                        if (acceptId(id, event, ctx, subject)) {
+                            prioritize(ctx, id, subject, subjType, evType);
                             // add it to the master lists of added/new objects
                             // for which we need to perform tasks
                             mapId(taskQMap, addQTasks, id);
@@ -242,7 +263,6 @@ public class METSReplicateConsumer implements Consumer {
                         }
 
                         // get parent of this newly created object & mark it as modified
-                        DSpaceObject subject = event.getSubject(ctx);
                         DSpaceObject parent = ContentServiceFactory.getInstance()
                             .getDSpaceObjectService(subject).getParentObject(ctx, subject);
 
@@ -250,6 +270,7 @@ public class METSReplicateConsumer implements Consumer {
                             id = parent.getHandle();
                             if (id != null) {
                                 if (acceptId(id, event, ctx)) {
+                                    prioritize(ctx, id, parent, parent.getType(), evType);
                                     // add it to the master lists of modified objects
                                     // for which we need to perform tasks
                                     mapId(taskQMap, modQTasks, id);
@@ -283,7 +304,8 @@ public class METSReplicateConsumer implements Consumer {
                     // for a newly created item that hasn't been assigned a handle
                     if (id != null) {
                         // make sure we are supposed to process this object
-                        if (acceptId(id, event, ctx)) {
+                        if (acceptId(id, event, ctx, subjectObj)) {
+                            prioritize(ctx, id, subjectObj, subjType, evType);
                             // add it to the master lists of modified objects
                             // for which we need to perform tasks
                             mapId(taskQMap, modQTasks, id);
@@ -316,14 +338,14 @@ public class METSReplicateConsumer implements Consumer {
         String name = (ep != null) ? ep.getName() : "unknown";
         long stamp = System.currentTimeMillis();
 
-        // first the queueables
-        Set<TaskQueueEntry> entrySet = new HashSet<TaskQueueEntry>();
+        // first the queueables, grouped by the queue (or lane) they go to
+        Map<String, Set<TaskQueueEntry>> entrySets = new HashMap<String, Set<TaskQueueEntry>>();
         if (!taskQMap.isEmpty()) {
             List<String> taskList = new ArrayList<String>();
             for (String task : taskQMap.keySet()) {
                 taskList.add(task);
                 for (String id : taskQMap.get(task)) {
-                    entrySet.add(new TaskQueueEntry(name, stamp, taskList, id));
+                    entriesFor(entrySets, id).add(new TaskQueueEntry(name, stamp, taskList, id));
                 }
                 taskList.clear();
             }
@@ -346,14 +368,19 @@ public class METSReplicateConsumer implements Consumer {
         // if there are any uncommitted deletions, record them now
         if (delObjId != null) {
             if (delTasks != null) {
-                entrySet.add(new TaskQueueEntry(name, stamp, delTasks, delObjId));
+                entriesFor(entrySets, delObjId).add(new TaskQueueEntry(name, stamp, delTasks, delObjId));
             }
             processDelete(ctx);
         }
 
-        if (!entrySet.isEmpty()) {
-            taskQueue.enqueue(queueName, entrySet);
+        for (Map.Entry<String, Set<TaskQueueEntry>> entrySet : entrySets.entrySet()) {
+            if (coalescer != null) {
+                coalescer.enqueue(entrySet.getKey(), entrySet.getValue());
+            } else {
+                taskQueue.enqueue(entrySet.getKey(), entrySet.getValue());
+            }
         }
+        idLanes.clear();
     }
 
     @Override
@@ -361,6 +388,39 @@ public class METSReplicateConsumer implements Consumer {
         // no-op
     }
 
+    /**
+     * Assign an object to a priority lane of the queue, if lanes are in use.
+     * An object is queued to the highest lane assigned to it in a transaction,
+     * so all its entries are in the same lane.
+     *
+     * @param ctx Current DSpace Context
+     * @param id Object ID (Handle)
+     * @param dso the object, or null if not available
+     * @param type the type of the object
+     * @param evType the type of the event
+     */
+    private void prioritize(Context ctx, String id, DSpaceObject dso, int type, int evType) {
+        if (priority != null && id != null) {
+            String lane = idLanes.get(id);
+            if (!priority.isHighest(lane)) {
+                idLanes.put(id, priority.higher(lane, priority.lane(ctx, dso, type, evType)));
+            }
+        }
+    }
+
+    /**
+     * Get the set of entries for the queue (or lane) an object is queued in
+     *
+     * @param entrySets the sets of entries by queue name
+     * @param id Object ID (Handle)
+     * @return the set of entries
+     */
+    private Set<TaskQueueEntry> entriesFor(Map<String, Set<TaskQueueEntry>> entrySets, String id) {
+        String lane = idLanes.get(id);
+        return entrySets.computeIfAbsent(ReplicationPriority.queueName(queueName, lane),
+                                         q -> new HashSet<TaskQueueEntry>());
+    }
+
     /**
      * Check to see if an object ID (Handle) is allowed to be processed by
      * this consumer. Individual Objects may be filtered out of consumer
@@ -374,26 +434,23 @@ public class METSReplicateConsumer implements Consumer {
      * @throws SQLException if database error occurs
      */
     private boolean acceptId(String id, Event event, Context ctx) throws SQLException {
-        // always accept if not filtering
-        if (idFilter == null) {
-            return true;
-        }
-
-        // filter supports only container ids - so if id is for an item,
-        // find its owning collection
-        String id2check = id;
-        if (event.getSubjectType() == Constants.ITEM) {
-            // NB: Item should be available form context cache - should
-            // not incur a performance hit here
-            Item item = itemService.find(ctx, event.getSubjectID());
-            Collection coll = item.getOwningCollection();
-            if (coll != null) {
-                id2check = coll.getHandle();
-            }
-        }
+        return acceptId(id, event, ctx, null);
+    }
 
-        boolean onList = idFilter.contains(id2check);
-        return idExclude ? ! onList : onList;
+    /**
+     * Check to see if an object ID (Handle) is allowed to be processed by
+     * this consumer, reusing the subject of the event if it has already been
+     * found.
+     *
+     * @param id Object ID to check
+     * @param event Event that was performed on the Object
+     * @param ctx Current DSpace Context
+     * @param subject the subject of the event, or null if not yet found
+     * @return true if this consumer should process this object event, false if it should not
+     * @throws SQLException if database error occurs
+     */
+    private boolean acceptId(String id, Event event, Context ctx, DSpaceObject subject) throws SQLException {
+        return idFilter.accept(ctx, event, id, subject);
     }
 
     /**
@@ -412,6 +469,7 @@ public class METSReplicateConsumer implements Consumer {
             if (delObjId == null) {
                 // Start of a new deletion
                 delObjId = id;
+                prioritize(ctx, id, null, event.getSubjectType(), type);
             } else {
                 // just add to list of deleted members
                 delMemIds.add(id);
@@ -435,6 +493,7 @@ public class METSReplicateConsumer implements Consumer {
                 // (This ensures that a fresh AIP will be generated for the parent object)
                 if (delOwnerId != null) {
                     if (acceptId(delOwnerId, event, ctx)) {
+                        prioritize(ctx, delOwnerId, null, event.getSubjectType(), MODIFY);
                         // add parent to the master lists of modified objects
                         // for which we need to perform tasks
                         mapId(taskQMap, modQTasks, delOwnerId);
@@ -452,13 +511,14 @@ public class METSReplicateConsumer implements Consumer {
      * Process a deletion event by recording a deletion catalog if configured
      */
     private void processDelete(Context ctx) throws IOException {
-        if (repMan == null) {
+        if (catalogDeletes && deletionJournal != null) {
+            // record the deletion, its catalog is transmitted later by the 'transmitdeletions' task
+            deletionJournal.record(delObjId, delOwnerId, delMemIds);
+        } else if (repMan == null) {
             log.error("The ReplicaManager failed to initialize earlier. Check the logs above.");
             return;
-        }
-
-        // write out deletion catalog if defined
-        if (catalogDeletes) {
+        } else if (catalogDeletes) {
+            // write out deletion catalog if defined
             // First, check if this object has an AIP in storage
             boolean found = repMan.objectExists(storeGroupName, delObjId);
 
@@ -487,42 +547,6 @@ public class METSReplicateConsumer implements Consumer {
         delMemIds.clear();
     }
 
-    /**
-     * Load the ID filter file of the given name.  This is a textual file in
-     * the base directory which contains a list of handles to include/exclude
-     * from this consumer
-     * @param filterName the name of the textual filter file
-     * @return true if filter file was loaded successfully, false otherwise
-     */
-    private boolean loadIdFilter(String filterName) {
-        File filterFile = new File(configurationService.getProperty("replicate.base.dir"), filterName);
-        if (filterFile.exists()) {
-            idFilter = new ArrayList<String>();
-            BufferedReader reader = null;
-            try {
-                reader = new BufferedReader(new FileReader(filterFile));
-                String id = null;
-                while ((id = reader.readLine()) != null) {
-                    idFilter.add(id);
-                }
-                return true;
-            } catch (IOException ioE) {
-                // log.error("Unable to read filter file '" + filterName + "'");
-                idFilter = null;
-            } finally {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException ioE) {
-                        // ignore exception
-                    }
-                }
-            }
-        }
-
-        return false;
-    }
-
     /**
      * Record the given object tasklist in the given "map".  This is essentially
      * providing a master list (map) of tasks to perform for particular objects.
@@ -573,6 +597,12 @@ public class METSReplicateConsumer implements Consumer {
                     }
                     modQTasks.add(task);
                 } else if ("del".equals(propName)) {
+                    // a queued deletion catalog is journaled, for the 'transmitdeletions' task
+                    if ("catalog".equals(task)) {
+                        catalogDeletes = true;
+                        deferCatalogs = true;
+                        continue;
+                    }
                     if (delTasks == null) {
                         delTasks = new ArrayList<String>();
                     }
@@ -17,6 +17,7 @@ import org.apache.logging.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.packager.PackageParameters;
+import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.curate.Curator;
 import org.dspace.curate.Distributive;
@@ -26,6 +27,9 @@ import org.dspace.pack.mets.METSPacker;
 /**
  * METSRestoreFromAIP task will instate the METS AIP replica representation of the object in
  * place of the current (repository) one.
+ * <P>
+ * When 'replicate.restore.parallel.workers' is set, the Items of each Collection are restored by a
+ * ParallelIngester once the Collection itself is restored and committed.
  * 
  * @author tdonohue
  * @see TransmitAIP
@@ -46,12 +50,20 @@ public class METSRestoreFromAIP extends AbstractPackagerTask {
     // Name of module configuration file specific to METS based AIPs
     private final String metsModuleConfig = "replicate-mets";
 
+    // Number of workers restoring Items in parallel, 0 to restore them in turn
+    private int restoreWorkers;
+
+    // Most Items a worker restores between commits
+    private int commitBatch;
+
     @Override
     public void init(Curator curator, String taskId) throws IOException {
         super.init(curator, taskId);
         archFmt = configurationService.getProperty("replicate.packer.archfmt");
         storeGroupName = configurationService.getProperty("replicate.group.aip.name");
         deleteGroupName = configurationService.getProperty("replicate.group.delete.name");
+        restoreWorkers = configurationService.getIntProperty(ParallelIngester.WORKERS_KEY, 0);
+        commitBatch = configurationService.getIntProperty(ParallelIngester.COMMIT_BATCH_KEY, 100);
     }
 
     /**
@@ -84,14 +96,22 @@ public class METSRestoreFromAIP extends AbstractPackagerTask {
 
             // restore/replace object represented by this archive file
             // (based on packaging params, this may also restore/replace all child objects too)
-            restoreObject(ctx, repMan, archive, pkgParams);
+            try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, storeGroupName,
+                    configurationService.getIntProperty(AipPrefetcher.PREFETCH_KEY, 2),
+                    configurationService.getLongProperty(AipPrefetcher.STAGING_SIZE_KEY, 1073741824L));
+                 ParallelIngester ingester = restoreWorkers > 0 ?
+                     new ParallelIngester(ctx, restoreWorkers, commitBatch) : null) {
+                restoreObject(ctx, repMan, prefetcher, ingester, archive, pkgParams);
+                if (ingester != null) {
+                    ingester.finish();
+                }
+            }
 
             // Check if a deletion catalog exists for this object
-            String catId = repMan.deletionCatalogId(id, archFmt);
-            File catArchive = repMan.fetchObject(ctx, deleteGroupName, catId);
+            File catArchive = repMan.fetchDeletionCatalog(ctx, deleteGroupName, id, archFmt);
             if (catArchive != null) {
                 // remove the deletion catalog (as the object is now restored)
-                repMan.removeObject(deleteGroupName, catId);
+                repMan.removeObject(deleteGroupName, catArchive.getName());
                 // remove from local cache as well
                 boolean successful = catArchive.delete();
                 if (!successful) {
@@ -132,11 +152,14 @@ public class METSRestoreFromAIP extends AbstractPackagerTask {
      *
      * @param context the context to use
      * @param repMan ReplicaManager
+     * @param prefetcher fetches the AIPs of child objects ahead of their restore
+     * @param ingester restores the Items of Collections in parallel, or null to restore them in turn
      * @param archive File in replica archive
      * @param pkgParams PackageParameters (may specify restore/replace mode, recursion, etc.)
      * @throws IOException if I/O error
      */
-    private void restoreObject(Context context, ReplicaManager repMan, File archive, PackageParameters pkgParams)
+    private void restoreObject(Context context, ReplicaManager repMan, AipPrefetcher prefetcher,
+                               ParallelIngester ingester, File archive, PackageParameters pkgParams)
              throws IOException {
         // Initialize a new METS-based packer, without an associated object
         METSPacker packer = new METSPacker(context, archFmt);
@@ -145,13 +168,15 @@ public class METSRestoreFromAIP extends AbstractPackagerTask {
             // unpack archival package & actually run the restore/replace,
             // based on the current PackageParameters
             // This only restores/replaces a single object.
-            packer.unpack(archive, pkgParams);
-
-            // Remove the locally cached archive file - it is no longer needed.
-            if (archive.exists()) {
-                boolean successful = archive.delete();
-                if (!successful) {
-                    log.warn("Unable to delete archived file: {}", archive);
+            try {
+                packer.unpack(archive, pkgParams);
+            } finally {
+                // Remove the locally cached archive file - it is no longer needed, whether or not it was unpacked.
+                if (archive.exists()) {
+                    boolean successful = archive.delete();
+                    if (!successful) {
+                        log.warn("Unable to delete archived file: {}", archive);
+                    }
                 }
             }
 
@@ -161,14 +186,33 @@ public class METSRestoreFromAIP extends AbstractPackagerTask {
                 // if so, we want to also replace those child objects
                 List<String> childPkgRefs = packer.getChildPackageRefs();
                 if (childPkgRefs != null && !childPkgRefs.isEmpty()) {
-                    for (String childRef : childPkgRefs) {
-                        File childArchive = repMan.fetchObject(context, storeGroupName, childRef);
-
-                        if (childArchive != null) {
-                            // recurse to restore/replace this child object (and all its children)
-                            restoreObject(context, repMan, childArchive, pkgParams);
-                        } else {
-                            throw new IOException("Archive " + childRef + " was not found in Replica Store");
+                    // the children of a Collection are Items, which are independent of each other
+                    DSpaceObject unpacked = packer.getUnpackedDSO();
+                    boolean parallel = ingester != null && unpacked != null &&
+                                       unpacked.getType() == Constants.COLLECTION;
+                    if (parallel) {
+                        // the workers have their own Contexts, so the Collection must be committed first
+                        context.commit();
+                    }
+                    // fetch the next children while each one is restored
+                    try (AipPrefetcher.Sequence children =
+                             prefetcher.fetch(childPkgRefs, ref -> repMan.storageId(context, ref, null))) {
+                        for (String childRef : childPkgRefs) {
+                            File childArchive = children.next();
+
+                            if (childArchive != null && parallel) {
+                                // the staged AIP is named by its storage id
+                                final String storageId = childArchive.getName();
+                                ingester.submit(childRef, childArchive,
+                                    () -> repMan.fetchStoredObject(storeGroupName, storageId),
+                                    (workerContext, aip) ->
+                                        new METSPacker(workerContext, archFmt).unpack(aip, pkgParams));
+                            } else if (childArchive != null) {
+                                // recurse to restore/replace this child object (and all its children)
+                                restoreObject(context, repMan, prefetcher, ingester, childArchive, pkgParams);
+                            } else {
+                                throw new IOException("Archive " + childRef + " was not found in Replica Store");
+                            }
                         }
                     }
                 }
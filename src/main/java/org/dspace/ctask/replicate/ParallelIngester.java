@@ -0,0 +1,292 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.core.Context;
+
+/**
+ * ParallelIngester restores Items from their AIPs with a pool of worker threads, for the restore tasks.
+ * <p>
+ * Once a Collection is restored its Items are independent of each other, so they need not be ingested one at a time.
+ * The restore task restores the containers itself and commits each before handing its Items to the workers, so a
+ * parent always exists before its children. Each worker has its own DSpace Context (as the same user as the task),
+ * and commits after every 'replicate.restore.commit.batch' Items, or sooner when it runs out of work.
+ * <p>
+ * Each AIP is deleted as soon as its Item is ingested, not once it is committed, so the AIPs staged beyond the
+ * prefetch staging size are only those waiting for or being ingested by a worker (at most three per worker).
+ * When an Item fails, or a commit does, the worker rolls back and ingests the other Items of the batch again one
+ * at a time, fetching their AIPs again, so only the Items which fail are lost. The first failure, in the order the
+ * Items were handed out, is thrown to the task.
+ *
+ * @author agent
+ * @see ParallelTransmitAIP
+ * @see WorkerPool
+ */
+public class ParallelIngester implements Closeable {
+    public static final String WORKERS_KEY = "replicate.restore.parallel.workers";
+    public static final String COMMIT_BATCH_KEY = "replicate.restore.commit.batch";
+
+    private static final Logger log = LogManager.getLogger();
+
+    /**
+     * Ingests one AIP into the given Context, without committing
+     */
+    @FunctionalInterface
+    public interface Ingest {
+        void ingest(Context context, File archive) throws AuthorizeException, IOException, SQLException;
+    }
+
+    /**
+     * Fetches an AIP again, for an Item whose batch is retried
+     */
+    @FunctionalInterface
+    public interface Fetch {
+        /**
+         * @return the AIP, or null if it is no longer in the store
+         * @throws IOException if IO error
+         */
+        File fetch() throws IOException;
+    }
+
+    private final int commitBatch;
+    private final WorkerPool<Work> pool;
+
+    /**
+     * Constructor. Starts the workers.
+     *
+     * @param context the Context of the task, whose user the workers act as
+     * @param workerCount the number of workers
+     * @param commitBatch the most Items a worker ingests between commits
+     */
+    public ParallelIngester(Context context, int workerCount, int commitBatch) {
+        this(WorkerPool.asUser(context, null), workerCount, commitBatch);
+    }
+
+    /**
+     * Constructor. Starts the workers.
+     *
+     * @param contexts creates the Context of each worker
+     * @param workerCount the number of workers
+     * @param commitBatch the most Items a worker ingests between commits
+     */
+    ParallelIngester(WorkerPool.ContextFactory contexts, int workerCount, int commitBatch) {
+        this.commitBatch = Math.max(1, commitBatch);
+        this.pool = new WorkerPool<>("restore", workerCount, contexts);
+        pool.start(this::work);
+    }
+
+    /**
+     * Hand an Item to the workers. Its parent must already be committed.
+     *
+     * @param id the identifier of the Item
+     * @param archive the AIP of the Item, which is deleted once ingested
+     * @param refetch fetches the AIP again, should the Item be ingested again
+     * @param ingest how to ingest the AIP
+     * @throws IOException if an Item handed out earlier has failed
+     */
+    public void submit(String id, File archive, Fetch refetch, Ingest ingest) throws IOException {
+        pool.submit(new Work(id, archive, refetch, ingest));
+        while (pool.isNextDone() || pool.isFull()) {
+            awaitNext();
+        }
+    }
+
+    /**
+     * Wait for every Item handed out to be committed
+     *
+     * @throws IOException if an Item failed
+     */
+    public void finish() throws IOException {
+        while (pool.hasOutstanding()) {
+            awaitNext();
+        }
+    }
+
+    /**
+     * Stop the workers once they commit their current batch, abandoning any Items not yet started
+     */
+    @Override
+    public void close() {
+        for (Work work : pool.shutdown()) {
+            discard(work.archive);
+        }
+        pool.join();
+    }
+
+    private void awaitNext() throws IOException {
+        Work work = pool.next();
+        try {
+            work.await();
+        } catch (ExecutionException execE) {
+            throw new IOException("Unable to restore " + work.getId() + ": " + execE.getCause().getMessage(),
+                                  execE.getCause());
+        }
+    }
+
+    /**
+     * The body of a worker thread: ingest Items with its own Context until the end of the work
+     */
+    private void work() {
+        Context context = pool.newContext();
+        List<Work> batch = new ArrayList<>();
+        try {
+            while (true) {
+                // commit what has been ingested rather than wait for more
+                Work work = batch.isEmpty() ? pool.take() : pool.poll();
+                if (work == null && batch.isEmpty()) {
+                    break;
+                }
+                if (work == null) {
+                    context = commit(context, batch);
+                    continue;
+                }
+                if (context == null) {
+                    discard(work.archive);
+                    work.fail(new IOException("No Context for this worker"));
+                    continue;
+                }
+                try {
+                    ingest(context, work, work.archive);
+                    batch.add(work);
+                    if (batch.size() >= commitBatch) {
+                        context = commit(context, batch);
+                    }
+                } catch (AuthorizeException | IOException | SQLException | RuntimeException e) {
+                    log.warn("Unable to restore {}", work.getId(), e);
+                    work.fail(e);
+                    context = retry(context, batch);
+                }
+            }
+        } catch (InterruptedException intE) {
+            // the task has ended
+        } finally {
+            if (context != null) {
+                context = commit(context, batch);
+            }
+            for (Work work : batch) {
+                work.fail(new IOException("Restore was interrupted"));
+            }
+            if (context != null) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * Ingest an AIP, then delete it whether or not it was ingested
+     */
+    private void ingest(Context context, Work work, File archive) throws AuthorizeException, IOException, SQLException {
+        try {
+            work.ingest.ingest(context, archive);
+        } finally {
+            discard(archive);
+        }
+    }
+
+    /**
+     * Commit a batch of Items, retrying them one at a time if the commit fails
+     *
+     * @return the Context to carry on with
+     */
+    private Context commit(Context context, List<Work> batch) {
+        if (batch.isEmpty()) {
+            return context;
+        }
+        try {
+            context.commit();
+            context.uncacheEntities();
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Unable to commit a batch of {} restored Items, retrying them singly", batch.size(), e);
+            return retry(context, batch);
+        }
+        for (Work work : batch) {
+            work.succeed(null);
+        }
+        batch.clear();
+        return context;
+    }
+
+    /**
+     * Roll back, then fetch, ingest and commit each Item of the batch on its own
+     *
+     * @return the Context to carry on with
+     */
+    private Context retry(Context context, List<Work> batch) {
+        context = rollback(context);
+        for (Work work : batch) {
+            if (context == null) {
+                work.fail(new IOException("No Context for this worker"));
+                continue;
+            }
+            try {
+                File archive = work.refetch.fetch();
+                if (archive == null) {
+                    throw new IOException("Archive " + work.getId() + " was not found in Replica Store");
+                }
+                ingest(context, work, archive);
+                context.commit();
+                context.uncacheEntities();
+                work.succeed(null);
+            } catch (AuthorizeException | IOException | SQLException | RuntimeException e) {
+                log.warn("Unable to restore {}", work.getId(), e);
+                work.fail(e);
+                context = rollback(context);
+            }
+        }
+        batch.clear();
+        return context;
+    }
+
+    /**
+     * Roll back a Context, replacing it if it cannot be rolled back
+     */
+    private Context rollback(Context context) {
+        try {
+            context.rollback();
+            context.uncacheEntities();
+            return context;
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Unable to roll back a restore worker, starting a new Context", e);
+            context.abort();
+            return pool.newContext();
+        }
+    }
+
+    private void discard(File archive) {
+        if (archive.exists() && !archive.delete()) {
+            log.warn("Unable to delete archived file: {}", archive);
+        }
+    }
+
+    /**
+     * An Item to ingest
+     */
+    private static class Work extends WorkerPool.Work<Void> {
+        private final File archive;
+        private final Fetch refetch;
+        private final Ingest ingest;
+
+        Work(String id, File archive, Fetch refetch, Ingest ingest) {
+            super(id);
+            this.archive = archive;
+            this.refetch = refetch;
+            this.ingest = ingest;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.curate.Curator;
+import org.dspace.curate.Distributive;
+
+/**
+ * ParallelTransmitAIP transmits the AIPs of a container and everything in it, like TransmitAIP, but packs and
+ * transfers the Items with a pool of worker threads rather than one at a time.
+ * <p>
+ * The containers (the Site, Communities and Collections) are transmitted first, in the order the Curator would
+ * visit them, on the calling thread. The Items of each Collection are handed to the workers, each of which has its
+ * own DSpace Context (as the same user as the task), so packing and uploading proceed in parallel. Results are
+ * reported in the order the Items were handed out, whichever worker finishes first.
+ * <p>
+ * The number of workers is set by 'replicate.transmit.parallel.workers' (by default, one per processor). The space
+ * used by AIPs staged at once is limited by 'replicate.transmit.parallel.staging.size' (in bytes), using each Item's
+ * estimated AIP size. Items unchanged according to the TransmitLedger are skipped, as by TransmitAIP. When
+ * 'replicate.run.journal' is enabled the run is recorded in a RunJournal, so an interrupted run resumes where it
+ * stopped.
+ *
+ * @author agent
+ * @see TransmitAIP
+ * @see StagingBudget
+ * @see WorkerPool
+ */
+@Distributive
+public class ParallelTransmitAIP extends TransmitAIP {
+    private static final Logger log = LogManager.getLogger();
+
+    private int workerCount;
+    private long stagingSize;
+
+    // counts of the Items transmitted by the current run
+    private int transmitted;
+    private int skipped;
+    private int failed;
+    // journal of the current run, if run journals are enabled
+    private RunJournal journal;
+
+    @Override
+    public void init(Curator curator, String taskId) throws IOException {
+        super.init(curator, taskId);
+        workerCount = configurationService.getIntProperty("replicate.transmit.parallel.workers",
+                                                          Runtime.getRuntime().availableProcessors());
+        stagingSize = configurationService.getLongProperty("replicate.transmit.parallel.staging.size",
+                                                           1073741824L);
+    }
+
+    /**
+     * Perform 'Parallel Transmit AIP' task
+     * <p>
+     * Transmits the AIP of the object, and of every object it contains
+     * @param dso DSpace Object to perform on
+     * @return integer which represents Curator return status
+     * @throws IOException if I/O error
+     */
+    @Override
+    public int perform(DSpaceObject dso) throws IOException {
+        if (dso.getType() == Constants.ITEM) {
+            return super.perform(dso);
+        }
+
+        transmitted = skipped = failed = 0;
+        try {
+            Context context = Curator.curationContext();
+            journal = configurationService.getBooleanProperty(RunJournal.ENABLED_KEY, false) ?
+                      RunJournal.open(context, taskId, dso, false) : null;
+            WorkerPool<Work> workers = new WorkerPool<>("transmit", workerCount,
+                                                        WorkerPool.asUser(context, Context.Mode.READ_ONLY));
+            StagingBudget budget = new StagingBudget(stagingSize);
+            workers.start(() -> work(workers, budget));
+            try {
+                distribute(context, dso, workers);
+                while (workers.hasOutstanding()) {
+                    reportNext(workers);
+                }
+            } finally {
+                workers.shutdown();
+            }
+            if (journal != null) {
+                journal.finish();
+            }
+        } catch (SQLException sqlE) {
+            throw new IOException(sqlE);
+        }
+
+        String result = "Transmitted " + transmitted + " AIPs, " + skipped + " skipped, " + failed + " failed";
+        setResult(result);
+        return failed > 0 ? Curator.CURATE_FAIL : Curator.CURATE_SUCCESS;
+    }
+
+    /**
+     * Transmit a container, then hand its Items to the workers and recurse into its sub-containers
+     */
+    private void distribute(Context context, DSpaceObject dso, WorkerPool<Work> workers)
+        throws IOException, SQLException {
+        if (journal != null && journal.isCompleted(dso.getHandle())) {
+            tally(dso.getHandle(), resumed());
+        } else {
+            tally(dso.getHandle(), transmitContainer(context, dso));
+        }
+
+        int type = dso.getType();
+        if (Constants.COLLECTION == type) {
+            Iterator<Item> items = itemService.findByCollection(context, (Collection) dso);
+            while (items.hasNext()) {
+                Item item = items.next();
+                if (journal != null && journal.isCompleted(item.getHandle())) {
+                    tally(item.getHandle(), resumed());
+                } else {
+                    // report the oldest outcomes first if too many are outstanding
+                    workers.submit(new Work(item.getID(), item.getHandle()));
+                    while (workers.isFull()) {
+                        reportNext(workers);
+                    }
+                }
+                context.uncacheEntity(item);
+            }
+        } else if (Constants.COMMUNITY == type) {
+            Community community = (Community) dso;
+            for (Community subCommunity : community.getSubcommunities()) {
+                distribute(context, subCommunity, workers);
+            }
+            for (Collection collection : community.getCollections()) {
+                distribute(context, collection, workers);
+            }
+        } else if (Constants.SITE == type) {
+            for (Community topCommunity : communityService.findAllTop(context)) {
+                distribute(context, topCommunity, workers);
+            }
+        }
+    }
+
+    private Transmission transmitContainer(Context context, DSpaceObject dso) {
+        try {
+            return transmit(context, dso, null);
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to transmit AIP for {}", dso.getHandle(), e);
+            return new Transmission(Curator.CURATE_ERROR, "Unable to transmit AIP for " + dso.getHandle() + ": " + e);
+        }
+    }
+
+    private Transmission resumed() {
+        return new Transmission(Curator.CURATE_SKIP, "AIP was transmitted by an earlier run, skipping");
+    }
+
+    /**
+     * Report the outcome of a transmission, and count it
+     */
+    private void tally(String handle, Transmission transmission) throws IOException {
+        report(handle + ": " + transmission.getMessage());
+        if (transmission.getStatus() == Curator.CURATE_SUCCESS) {
+            transmitted++;
+        } else if (transmission.getStatus() == Curator.CURATE_SKIP) {
+            skipped++;
+        } else {
+            failed++;
+        }
+        if (journal != null) {
+            journal.record(handle, transmission.getStatus() == Curator.CURATE_SUCCESS ||
+                                   transmission.getStatus() == Curator.CURATE_SKIP);
+        }
+    }
+
+    /**
+     * Wait for the oldest Item handed out, and report its outcome
+     */
+    private void reportNext(WorkerPool<Work> workers) throws IOException {
+        Work work = workers.next();
+        try {
+            tally(work.getId(), work.await());
+        } catch (ExecutionException execE) {
+            log.error("Unable to transmit AIP for {}", work.getId(), execE.getCause());
+            tally(work.getId(), new Transmission(Curator.CURATE_ERROR, "Unable to transmit AIP: " + execE.getCause()));
+        }
+    }
+
+    /**
+     * The body of a worker thread: transmit Items with its own Context until the end of the work
+     */
+    private void work(WorkerPool<Work> workers, StagingBudget budget) {
+        Context context = workers.newContext();
+        try {
+            Work work;
+            while ((work = workers.take()) != null) {
+                if (context == null) {
+                    work.fail(new IOException("No Context for this worker"));
+                    continue;
+                }
+                try {
+                    Item item = itemService.find(context, work.itemId);
+                    if (item == null) {
+                        work.succeed(new Transmission(Curator.CURATE_SKIP, "Item no longer exists"));
+                        continue;
+                    }
+                    work.succeed(transmit(context, item, budget));
+                    context.uncacheEntity(item);
+                } catch (IOException | SQLException | RuntimeException e) {
+                    work.fail(e);
+                }
+            }
+        } catch (InterruptedException intE) {
+            // the task has ended
+        } finally {
+            if (context != null) {
+                context.abort();
+            }
+        }
+    }
+
+    /**
+     * An Item to transmit, identified by its handle
+     */
+    private static class Work extends WorkerPool.Work<Transmission> {
+        private final UUID itemId;
+
+        Work(UUID itemId, String handle) {
+            super(handle);
+            this.itemId = itemId;
+        }
+    }
+}
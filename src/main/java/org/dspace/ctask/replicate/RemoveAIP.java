@@ -157,11 +157,11 @@ public class RemoveAIP extends AbstractCurationTask {
 
         // Locate the deletion catalog associated with this object
         // (This catalog should exist, as the object was previously deleted)
-        String catId = repMan.deletionCatalogId(id, archFmt);
         int status = Curator.CURATE_FAIL;
         String result;
-        File catFile = repMan.fetchObject(ctx, deleteGroupName, catId);
+        File catFile = repMan.fetchDeletionCatalog(ctx, deleteGroupName, id, archFmt);
         if (catFile != null) {
+            String catId = catFile.getName();
             CatalogPacker cpack = new CatalogPacker(ctx, id);
             cpack.unpack(catFile);
 
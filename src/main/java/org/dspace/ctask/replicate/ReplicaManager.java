@@ -17,6 +17,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,6 +32,8 @@ import org.dspace.core.factory.CoreServiceFactory;
 import org.dspace.core.service.PluginService;
 import org.dspace.handle.factory.HandleServiceFactory;
 import org.dspace.handle.service.HandleService;
+import org.dspace.pack.bagit.CatalogPacker;
+import org.dspace.pack.bagit.DeletionCatalog;
 import org.dspace.services.ConfigurationService;
 import org.dspace.services.factory.DSpaceServicesFactory;
 
@@ -64,7 +69,7 @@ public class ReplicaManager {
     private final String typePrefixSeparator = "@";
     // Special Type prefix for Deletion catalog records
     private final String deletionCatalogPrefix = "DELETION-RECORD";
-    // AIP Package compression format (e.g. zip or tgz)
+    // AIP Package compression format (e.g. zip, tgz or tar.zst)
     private final String archFmt = configurationService.getProperty("replicate.packer.archfmt");
 
 
@@ -105,6 +110,10 @@ public class ReplicaManager {
     }
 
     public File stage(Context context, String group, String id) {
+        return new File(stageDir(group), storageId(context, id, null));
+    }
+
+    private File stageDir(String group) {
         // ensure path exists
         File stageDir = new File(repDir + File.separator + group);
         if (!stageDir.isDirectory()) {
@@ -113,7 +122,7 @@ public class ReplicaManager {
                 log.error("Creating staging directory {} failed!", stageDir);
             }
         }
-        return new File(stageDir, storageId(context, id, null));
+        return stageDir;
     }
 
     /**
@@ -198,7 +207,10 @@ public class ReplicaManager {
         }
 
         // If this 'storageId' includes a file extension suffix, also remove it.
-        if (storageId.contains(".")) {
+        // The archive format may itself contain a dot (e.g. tar.zst), so check for it first
+        if (archFmt != null && storageId.endsWith("." + archFmt)) {
+            storageId = storageId.substring(0, storageId.length() - archFmt.length() - 1);
+        } else if (storageId.contains(".")) {
             storageId = storageId.substring(0, storageId.indexOf("."));
         }
 
@@ -236,6 +248,35 @@ public class ReplicaManager {
         }
     }
 
+    /**
+     * Fetch the deletion catalog of an object from storage. A catalog may be stored either as a line oriented
+     * {@link DeletionCatalog} or as a bag in the given archive format, so both are tried, starting with the
+     * currently configured catalog format.
+     *
+     * @param context the context to use
+     * @param group the group where deletion catalogs are stored
+     * @param objId the original object id (canonical ID)
+     * @param archFmt the archive format for catalogs packaged as bags
+     * @return the local copy of the catalog, named by its storage id, or null if no catalog exists
+     * @throws IOException if an error occurs fetching the catalog
+     */
+    public File fetchDeletionCatalog(Context context, String group, String objId, String archFmt)
+        throws IOException {
+        List<String> extensions = new ArrayList<>(List.of(archFmt, DeletionCatalog.EXTENSION));
+        if (CatalogPacker.LINE_FORMAT.equalsIgnoreCase(
+            configurationService.getProperty(CatalogPacker.CATALOG_FORMAT_KEY))) {
+            Collections.reverse(extensions);
+        }
+
+        for (String extension : extensions) {
+            File catalog = fetchObject(context, group, deletionCatalogId(objId, extension));
+            if (catalog != null) {
+                return catalog;
+            }
+        }
+        return null;
+    }
+
     public Odometer getOdometer() throws IOException {
         // return a new read-only copy
         return new Odometer(repDir, true);
@@ -257,6 +298,28 @@ public class ReplicaManager {
         return file.exists() ? file : null;
     }
 
+    /**
+     * Fetch an object by the ID it is stored under, as returned by 'storageId()'.
+     * Unlike fetchObject() this needs no Context, so it may be called from any thread.
+     *
+     * @param group the group the object is stored in
+     * @param storageId the storage ID of the object
+     * @return the staged file, or null if the object is not in storage
+     * @throws IOException if I/O error
+     */
+    public File fetchStoredObject(String group, String storageId) throws IOException {
+        File file = new File(stageDir(group), storageId);
+        long size = objStore.fetchObject(group, storageId, file);
+        if (size > 0L) {
+            synchronized (odoLock) {
+                odometer.adjustProperty(DOWNLOADED, size);
+                odometer.save();
+            }
+        }
+
+        return file.exists() ? file : null;
+    }
+
     public void transferObject(String group, File file) throws IOException {
         String psStr = objStore.objectAttribute(group, file.getName(), "sizebytes");
         long prevSize = psStr != null ? Long.valueOf(psStr) : 0L;
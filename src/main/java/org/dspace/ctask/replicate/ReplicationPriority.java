@@ -0,0 +1,200 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.dspace.event.Event.DELETE;
+import static org.dspace.event.Event.REMOVE;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.pack.SizeEstimator;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * ReplicationPriority assigns the objects the replicate consumers queue to priority lanes, so that small changes are
+ * not held up behind large ones. The lanes are set by 'replicate.queue.lanes' as a comma separated list of
+ * 'name:weight', from the highest priority to the lowest, e.g. 'high:6,normal:3,low:1'. An entry is queued to the
+ * queue named 'queue#lane', and the {@link SegmentedTaskQueue} serves the lanes of a queue in proportion to their
+ * weights, so a lane with entries is never starved.
+ * <p>
+ * Lanes are assigned by:
+ * <ul>
+ * <li>deletions, and Items whose content is no larger than 'replicate.queue.lane.large.size' bytes (as estimated by
+ * the {@link SizeEstimator}): the highest priority lane</li>
+ * <li>larger Items, and anything else: the middle lane</li>
+ * <li>Sites, Communities and Collections, which are slow to pack and are modified by every change to their members:
+ * the lowest priority lane</li>
+ * </ul>
+ * An object with several events in a transaction is queued to the highest of their lanes. Entries for the same object
+ * may still be in different lanes from different transactions; the SegmentedTaskQueue does not lease an object from
+ * one lane while it is leased from another.
+ *
+ * @author agent
+ */
+public class ReplicationPriority {
+    private static final Logger log = LogManager.getLogger();
+
+    public static final String LANES_KEY = "replicate.queue.lanes";
+    public static final String LARGE_SIZE_KEY = "replicate.queue.lane.large.size";
+    // separates the queue name from the lane name
+    public static final String LANE_SEPARATOR = "#";
+
+    private final List<String> lanes;
+    private final long largeSize;
+    // the bundle content filter of the Packers, so sizes are estimated as they would be packed
+    private final String contentFilter;
+
+    /**
+     * Constructor, configured by 'replicate.queue.lanes' and 'replicate.queue.lane.large.size'
+     */
+    public ReplicationPriority() {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        this.lanes = new ArrayList<>(lanes(configurationService).keySet());
+        this.largeSize = configurationService.getLongProperty(LARGE_SIZE_KEY, 104857600L);
+        this.contentFilter = configurationService.getProperty("replicate.packer.cfilter");
+    }
+
+    /**
+     * Read the configured lanes
+     *
+     * @param configurationService the configuration service
+     * @return the weight of each lane by name, from the highest priority to the lowest; empty if there are no lanes
+     */
+    public static Map<String, Integer> lanes(ConfigurationService configurationService) {
+        String[] configured = configurationService.getArrayProperty(LANES_KEY);
+        if (configured == null || configured.length == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Integer> lanes = new LinkedHashMap<>();
+        for (String lane : configured) {
+            String[] parts = lane.trim().split(":");
+            try {
+                int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                if (weight > 0) {
+                    lanes.put(parts[0].trim(), weight);
+                } else {
+                    log.warn("Ignoring lane {} with no weight", lane);
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring lane {} with an invalid weight", lane);
+            }
+        }
+        return lanes;
+    }
+
+    /**
+     * @return true if any lanes are configured
+     */
+    public boolean isEnabled() {
+        return !lanes.isEmpty();
+    }
+
+    /**
+     * Get the name of the queue for a lane
+     *
+     * @param queueName the name of the queue
+     * @param lane the lane, or null for none
+     * @return the queue name with the lane
+     */
+    public static String queueName(String queueName, String lane) {
+        return lane == null ? queueName : queueName + LANE_SEPARATOR + lane;
+    }
+
+    /**
+     * Assign an object to a lane
+     *
+     * @param context the current DSpace Context
+     * @param dso the object, or null if it is not available (e.g. it has been deleted)
+     * @param subjectType the type of the object
+     * @param eventType the type of the event which caused the object to be queued
+     * @return the name of the lane, or null if no lanes are configured
+     */
+    public String lane(Context context, DSpaceObject dso, int subjectType, int eventType) {
+        if (lanes.isEmpty()) {
+            return null;
+        }
+
+        if (eventType == DELETE || eventType == REMOVE) {
+            return highest();
+        }
+        switch (subjectType) {
+            case Constants.ITEM:
+                return isLarge(context, dso) ? middle() : highest();
+            case Constants.COLLECTION:
+            case Constants.COMMUNITY:
+            case Constants.SITE:
+                return lowest();
+            default:
+                return middle();
+        }
+    }
+
+    /**
+     * Get the higher priority of two lanes. All the entries for an object in a transaction are queued to the highest
+     * lane any of them is assigned, so that a worker never takes them out of order (e.g. a deletion before a
+     * modification which preceded it).
+     *
+     * @param lane a lane, or null for none
+     * @param other another lane, or null for none
+     * @return the lane of higher priority
+     */
+    public String higher(String lane, String other) {
+        if (lane == null) {
+            return other;
+        }
+        if (other == null) {
+            return lane;
+        }
+        return lanes.indexOf(other) < lanes.indexOf(lane) ? other : lane;
+    }
+
+    /**
+     * @param lane a lane
+     * @return true if the lane is the highest priority lane
+     */
+    public boolean isHighest(String lane) {
+        return lane != null && lane.equals(highest());
+    }
+
+    private boolean isLarge(Context context, DSpaceObject dso) {
+        if (dso == null) {
+            return false;
+        }
+        try {
+            // the sizes of the bitstreams the Item has loaded, without packing anything
+            return new SizeEstimator(context, contentFilter).estimate(dso).getSize() > largeSize;
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Unable to estimate the size of {}", dso.getHandle(), e);
+            return false;
+        }
+    }
+
+    private String highest() {
+        return lanes.get(0);
+    }
+
+    private String middle() {
+        return lanes.get(lanes.size() / 2);
+    }
+
+    private String lowest() {
+        return lanes.get(lanes.size() - 1);
+    }
+}
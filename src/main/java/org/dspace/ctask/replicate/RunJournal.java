@@ -0,0 +1,440 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.CommunityService;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * RunJournal records the objects a task has completed while it runs over a Site, Community or Collection, so that a
+ * run which is interrupted can resume where it stopped rather than start over. It also records the progress of the
+ * run - the number of objects done, the expected total, the throughput and an estimated time of completion - in a
+ * properties file which can be read while the task runs.
+ * <p>
+ * Each run has a directory under 'runs' in the replicate.base.dir, named for the task and the object it was run on,
+ * holding:
+ * <ul>
+ * <li>completed - the handles completed, appended as they complete</li>
+ * <li>completed.bits - a checkpoint of the completed handles, one bitmap per handle prefix (handles with a
+ * non-numeric suffix are listed instead). The 'completed' file is folded into it when a run resumes.</li>
+ * <li>progress - the progress of the run</li>
+ * </ul>
+ * Only a run which was interrupted is resumed. The directory is removed when the run finishes without failures; when
+ * it finishes with failures only the progress is kept, for inspection, and the next run starts over - an object which
+ * completed in the finished run may have been modified since, so must not be skipped. A journal which has not been
+ * updated for 'replicate.run.resume.hours' is discarded rather than resumed.
+ * <p>
+ * Handles whose suffix is a number no larger than 2^20 are kept in bitmaps; any others are listed, so that a handle
+ * with a large suffix does not allocate a large bitmap.
+ *
+ * @author agent
+ */
+public class RunJournal {
+    public static final String ENABLED_KEY = "replicate.run.journal";
+    public static final String RESUME_KEY = "replicate.run.resume.hours";
+
+    private static final String RUNS_NAME = "runs";
+    private static final String COMPLETED_NAME = "completed";
+    private static final String CHECKPOINT_NAME = "completed.bits";
+    private static final String PROGRESS_NAME = "progress";
+    private static final String SEPARATOR = "\t";
+    // largest handle suffix kept in a bitmap, so a bitmap is at most 128KB
+    private static final int MAX_BIT = 1 << 20;
+    // checkpoint when resuming if more handles than this were appended
+    private static final int CHECKPOINT_THRESHOLD = 10000;
+    // least time between writes of the progress file
+    private static final long PROGRESS_INTERVAL_MS = 5000L;
+
+    private static final Logger log = LogManager.getLogger();
+
+    private final Path runDir;
+    private final String taskId;
+    private final String rootId;
+    private final long total;
+    private final boolean autoFinish;
+
+    // completed handles with a numeric suffix, by prefix
+    private final Map<String, BitSet> completedBits = new HashMap<>();
+    // completed handles without a numeric suffix
+    private final Set<String> completedOther = new TreeSet<>();
+    private int completedCount = 0;
+
+    private final long started = System.currentTimeMillis();
+    private long lastProgress = 0L;
+    // objects visited and failed by this run
+    private long count = 0L;
+    private long failed = 0L;
+    private boolean finished = false;
+    // when the run finished, rather than stopped to be resumed
+    private Instant ended = null;
+    private BufferedWriter writer;
+
+    /**
+     * Constructor, resuming the journal in the directory if it is recent enough
+     *
+     * @param runDir the directory of the run
+     * @param taskId the task
+     * @param rootId the id of the object the task was run on
+     * @param total the expected number of objects the task will visit
+     * @param autoFinish whether to finish the run once the expected number of objects were visited
+     * @param resumeMillis how long a journal may go without being updated and still be resumed
+     * @throws IOException if the journal cannot be read or created
+     */
+    RunJournal(Path runDir, String taskId, String rootId, long total, boolean autoFinish, long resumeMillis)
+        throws IOException {
+        this.runDir = runDir;
+        this.taskId = taskId;
+        this.rootId = rootId;
+        this.total = total;
+        this.autoFinish = autoFinish;
+
+        Path progress = runDir.resolve(PROGRESS_NAME);
+        if (Files.exists(progress)) {
+            if (Files.getLastModifiedTime(progress).toMillis() < System.currentTimeMillis() - resumeMillis) {
+                log.info("Discarding the journal of an earlier run of {} on {}, it is too old to resume", taskId,
+                         rootId);
+                FileUtils.deleteDirectory(runDir.toFile());
+            } else if (readProgress(progress).getProperty("finished") != null) {
+                // only the progress of a finished run is left, there is nothing to resume
+                FileUtils.deleteDirectory(runDir.toFile());
+            }
+        }
+        Files.createDirectories(runDir);
+
+        int appended = load();
+        if (appended > CHECKPOINT_THRESHOLD) {
+            checkpoint();
+        }
+        if (completedCount > 0) {
+            log.info("Resuming {} on {}, {} objects were completed by earlier runs", taskId, rootId, completedCount);
+        }
+        writer = Files.newBufferedWriter(runDir.resolve(COMPLETED_NAME), StandardCharsets.UTF_8,
+                                         StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        writeProgress();
+    }
+
+    /**
+     * Open the journal of a run of a task on an object, resuming it if an earlier run was interrupted
+     *
+     * @param context the context to use
+     * @param taskId the task
+     * @param root the Site, Community or Collection the task was run on
+     * @param autoFinish whether to finish the run once every object in the root has been visited. Tasks which know
+     * when they are done should leave this false, and call {@link #finish()}.
+     * @return the journal
+     * @throws IOException if the journal cannot be read or created
+     * @throws SQLException if the objects in the root cannot be counted
+     */
+    public static RunJournal open(Context context, String taskId, DSpaceObject root, boolean autoFinish)
+        throws IOException, SQLException {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        Path runDir = Path.of(configurationService.getProperty("replicate.base.dir"), RUNS_NAME,
+                              taskId + "-" + root.getHandle().replaceAll("/", "-"));
+        long resumeMillis = configurationService.getLongProperty(RESUME_KEY, 72L) * 3600000L;
+        return new RunJournal(runDir, taskId, root.getHandle(), count(context, root), autoFinish, resumeMillis);
+    }
+
+    /**
+     * Get the journal for a task, which is visited object by object by the Curator. A run starts when the task is
+     * performed on a Site, Community or Collection with no run in progress, and the Curator then visits everything
+     * in it.
+     *
+     * @param current the journal of the run in progress, may be null
+     * @param context the context to use
+     * @param taskId the task
+     * @param dso the object the task is being performed on
+     * @return the journal of the run, or null if run journals are not enabled or no run is in progress
+     * @throws IOException if the journal cannot be read or created
+     * @throws SQLException if the objects in the root cannot be counted
+     */
+    public static RunJournal track(RunJournal current, Context context, String taskId, DSpaceObject dso)
+        throws IOException, SQLException {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        if (!configurationService.getBooleanProperty(ENABLED_KEY, false)) {
+            return null;
+        }
+        boolean container = dso.getType() == Constants.SITE || dso.getType() == Constants.COMMUNITY ||
+                            dso.getType() == Constants.COLLECTION;
+        if (container && (current == null || current.isFinished() || dso.getHandle().equals(current.rootId))) {
+            if (current != null) {
+                current.close();
+            }
+            return open(context, taskId, dso, true);
+        }
+        return current != null && !current.isFinished() ? current : null;
+    }
+
+    /**
+     * Check if an object was completed by this run or an earlier one
+     *
+     * @param handle the handle of the object
+     * @return true if completed
+     */
+    public synchronized boolean isCompleted(String handle) {
+        int split = suffix(handle);
+        if (split < 0) {
+            return completedOther.contains(handle);
+        }
+        BitSet bits = completedBits.get(handle.substring(0, split));
+        return bits != null && bits.get(Integer.parseInt(handle.substring(split + 1)));
+    }
+
+    /**
+     * Record that the task has visited an object
+     *
+     * @param handle the handle of the object
+     * @param success whether the task succeeded, and the object need not be visited by a resumed run
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void record(String handle, boolean success) throws IOException {
+        if (finished) {
+            return;
+        }
+        count++;
+        if (!success) {
+            failed++;
+        } else if (!isCompleted(handle)) {
+            add(handle);
+            writer.write(handle);
+            writer.newLine();
+            writer.flush();
+        }
+
+        if (autoFinish && count >= total) {
+            finish();
+        } else if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL_MS) {
+            writeProgress();
+        }
+    }
+
+    /**
+     * Finish the run, so that the next run starts over. The journal is removed, except for the progress of a run in
+     * which some objects failed.
+     *
+     * @throws IOException if the journal cannot be removed
+     */
+    public synchronized void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        writer.close();
+        if (failed == 0) {
+            FileUtils.deleteDirectory(runDir.toFile());
+        } else {
+            Files.deleteIfExists(runDir.resolve(COMPLETED_NAME));
+            Files.deleteIfExists(runDir.resolve(CHECKPOINT_NAME));
+            ended = Instant.now();
+            writeProgress();
+            log.info("Run of {} on {} finished with {} failures", taskId, rootId, failed);
+        }
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Stop recording to the journal, leaving it to be resumed
+     */
+    private synchronized void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            writer.close();
+            writeProgress();
+        }
+    }
+
+    /**
+     * Count the objects the Curator visits in an object: the object itself, its sub-containers and their Items
+     */
+    private static long count(Context context, DSpaceObject dso) throws SQLException {
+        CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
+        ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+        long count = 1L;
+        if (dso.getType() == Constants.COLLECTION) {
+            count += itemService.countItems(context, (Collection) dso);
+        } else if (dso.getType() == Constants.COMMUNITY) {
+            Community community = (Community) dso;
+            for (Community subCommunity : community.getSubcommunities()) {
+                count += count(context, subCommunity);
+            }
+            for (Collection collection : community.getCollections()) {
+                count += count(context, collection);
+            }
+        } else if (dso.getType() == Constants.SITE) {
+            for (Community community : communityService.findAllTop(context)) {
+                count += count(context, community);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Load the checkpoint and the handles appended since
+     *
+     * @return the number of handles appended since the checkpoint
+     */
+    private int load() throws IOException {
+        Path checkpoint = runDir.resolve(CHECKPOINT_NAME);
+        if (Files.exists(checkpoint)) {
+            try (BufferedReader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(SEPARATOR);
+                    if (parts.length == 2 && !parts[0].isEmpty()) {
+                        BitSet bits = BitSet.valueOf(Base64.getDecoder().decode(parts[1]));
+                        completedBits.computeIfAbsent(parts[0], prefix -> new BitSet()).or(bits);
+                    } else if (parts.length == 2) {
+                        completedOther.add(parts[1]);
+                    }
+                }
+            }
+        }
+
+        int appended = 0;
+        Path completed = runDir.resolve(COMPLETED_NAME);
+        if (Files.exists(completed)) {
+            try (BufferedReader reader = Files.newBufferedReader(completed, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        add(line);
+                        appended++;
+                    }
+                }
+            }
+        }
+
+        completedCount = completedOther.size();
+        for (BitSet bits : completedBits.values()) {
+            completedCount += bits.cardinality();
+        }
+        return appended;
+    }
+
+    /**
+     * Write every completed handle to the checkpoint, and empty the appended handles
+     */
+    private void checkpoint() throws IOException {
+        Path checkpoint = runDir.resolve(CHECKPOINT_NAME);
+        Path temp = runDir.resolve(CHECKPOINT_NAME + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, BitSet> entry : completedBits.entrySet()) {
+                out.write(entry.getKey() + SEPARATOR +
+                          Base64.getEncoder().encodeToString(entry.getValue().toByteArray()));
+                out.newLine();
+            }
+            for (String handle : completedOther) {
+                out.write(SEPARATOR + handle);
+                out.newLine();
+            }
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.write(runDir.resolve(COMPLETED_NAME), new byte[0]);
+    }
+
+    private void add(String handle) {
+        int split = suffix(handle);
+        if (split < 0) {
+            completedOther.add(handle);
+        } else {
+            completedBits.computeIfAbsent(handle.substring(0, split), prefix -> new BitSet())
+                         .set(Integer.parseInt(handle.substring(split + 1)));
+        }
+        completedCount++;
+    }
+
+    /**
+     * Find where the numeric suffix of a handle starts
+     *
+     * @return the index of the '/' before the suffix, or -1 if the suffix is not a number which fits a bitmap
+     */
+    private int suffix(String handle) {
+        int split = handle.lastIndexOf('/');
+        String suffix = handle.substring(split + 1);
+        // a leading zero would be lost in a bitmap
+        if (split < 0 || suffix.isEmpty() || suffix.length() > 7 || (suffix.length() > 1 && suffix.charAt(0) == '0') ||
+            !suffix.chars().allMatch(Character::isDigit) || Integer.parseInt(suffix) > MAX_BIT) {
+            return -1;
+        }
+        return split;
+    }
+
+    private static Properties readProgress(Path path) throws IOException {
+        Properties progress = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            progress.load(in);
+        }
+        return progress;
+    }
+
+    /**
+     * Write the progress of the run
+     */
+    private void writeProgress() throws IOException {
+        long now = System.currentTimeMillis();
+        lastProgress = now;
+        double seconds = Math.max(1L, now - started) / 1000.0;
+        double rate = count / seconds;
+
+        Properties progress = new Properties();
+        progress.setProperty("task", taskId);
+        progress.setProperty("object", rootId);
+        progress.setProperty("started", Instant.ofEpochMilli(started).toString());
+        progress.setProperty("updated", Instant.ofEpochMilli(now).toString());
+        progress.setProperty("count", String.valueOf(count));
+        progress.setProperty("total", String.valueOf(total));
+        progress.setProperty("completed", String.valueOf(completedCount));
+        progress.setProperty("failed", String.valueOf(failed));
+        progress.setProperty("rate", String.format("%.2f", rate));
+        if (ended != null) {
+            progress.setProperty("finished", ended.toString());
+        } else if (rate > 0 && count < total) {
+            progress.setProperty("eta", Instant.ofEpochMilli(now + (long) ((total - count) / rate * 1000)).toString());
+        }
+
+        Path temp = runDir.resolve(PROGRESS_NAME + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            progress.store(out, "Progress of " + taskId + " on " + rootId + " (rate is objects per second)");
+        }
+        Files.move(temp, runDir.resolve(PROGRESS_NAME), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
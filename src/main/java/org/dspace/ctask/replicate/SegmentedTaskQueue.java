@@ -0,0 +1,646 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.curate.TaskQueue;
+import org.dspace.curate.TaskQueueEntry;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * SegmentedTaskQueue is a TaskQueue which lets several curation workers take entries from the same queue at once.
+ * <p>
+ * The FileTaskQueue locks a whole queue from "dequeue()" until "release()", so only one worker can process the
+ * replication queue at a time. Here, each "dequeue()" instead leases a batch of entries to the ticket presented, and
+ * other workers dequeue from the entries which are not leased. "release()" with remove acknowledges the batch; without
+ * remove, or if the worker never releases it, the lease ends and the entries are given to a later "dequeue()".
+ * <p>
+ * Each queue is a directory under curate.taskqueue.dir holding:
+ * <ul>
+ * <li>segment files ('segment-N'), to which entries are appended in the same format as the FileTaskQueue. An entry
+ * is identified by its segment number and offset, and a new segment is started once the last one is
+ * 'replicate.queue.segment.size' bytes long.</li>
+ * <li>a lease log ('leases'), recording each lease, acknowledgement and release.</li>
+ * </ul>
+ * Every operation holds a file lock on the queue directory, so workers in different processes can share a queue. Both
+ * files are only ever appended to, and the queue state is read back from them, so a crash loses nothing: an entry which
+ * was written is queued, and a lease which was not acknowledged expires after 'replicate.queue.lease.seconds'. The
+ * lease time should be longer than a worker takes to process a batch, or the batch may be processed twice.
+ * <p>
+ * By default a dequeue takes every entry which is not leased, as the FileTaskQueue does, since 'curate -q' dequeues
+ * only once. For several workers to share a queue, 'replicate.queue.batch.size' must be set, and each worker run
+ * repeatedly until the queue is empty.
+ * <p>
+ * Like the {@link FilteredFileTaskQueue}, an entry for the same tasks and object as an earlier entry is a duplicate.
+ * Duplicates are leased and acknowledged with the first entry, but only the first is returned. While an object is
+ * leased, later entries for it are held back so two workers never process the same object at once.
+ * <p>
+ * Segments whose entries have all been acknowledged are removed, and the lease log is rewritten once it holds many
+ * records which are no longer needed.
+ * <p>
+ * If priority lanes are configured (see {@link ReplicationPriority}), each lane of a queue is a queue of its own named
+ * 'queue#lane'. A dequeue from 'queue' takes from every lane, sharing the batch between them by their weights, and
+ * gives any share a lane cannot fill to the others. Entries queued to 'queue' itself are served with the middle lane.
+ * An object leased from one lane is held back in the others too, as its entries may be in more than one lane.
+ *
+ * @author agent
+ */
+public class SegmentedTaskQueue implements TaskQueue {
+    private static final Logger log = LogManager.getLogger();
+
+    public static final String BATCH_SIZE_KEY = "replicate.queue.batch.size";
+    public static final String LEASE_SECONDS_KEY = "replicate.queue.lease.seconds";
+    public static final String SEGMENT_SIZE_KEY = "replicate.queue.segment.size";
+
+    // names of the files in each queue directory
+    private static final String SEGMENT = "segment-";
+    private static final String LEASES = "leases";
+    private static final String LOCK = "lock";
+    // lease log records
+    private static final String LEASE = "L";
+    private static final String ACK = "A";
+    private static final String RELEASE = "R";
+    private static final String SEPARATOR = "\t";
+    // rewrite the lease log when it has this many more records than are needed
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    // file locks are held by the JVM, not the thread, so threads in the same JVM also wait on a monitor
+    private static final Map<String, Object> monitors = new ConcurrentHashMap<>();
+
+    private final Path baseDir;
+    private final int batchSize;
+    private final long leaseMillis;
+    private final long segmentSize;
+    // weight of each priority lane, from the highest priority to the lowest
+    private final Map<String, Integer> lanes;
+
+    /**
+     * Constructor used by the PluginService, configured by curate.taskqueue.dir and the 'replicate.queue.*' properties
+     */
+    public SegmentedTaskQueue() {
+        ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        this.baseDir = Path.of(configurationService.getProperty("curate.taskqueue.dir"));
+        this.batchSize = batchSize(configurationService.getIntProperty(BATCH_SIZE_KEY, 0));
+        this.leaseMillis = configurationService.getLongProperty(LEASE_SECONDS_KEY, 3600L) * 1000L;
+        this.segmentSize = configurationService.getLongProperty(SEGMENT_SIZE_KEY, 1048576L);
+        this.lanes = ReplicationPriority.lanes(configurationService);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param baseDir the directory holding the queue directories
+     * @param batchSize the most entries returned by each dequeue, or 0 for every entry which is not leased
+     * @param leaseSeconds how long a dequeued batch is leased to its ticket
+     * @param segmentSize the size in bytes at which a new segment is started
+     */
+    SegmentedTaskQueue(Path baseDir, int batchSize, long leaseSeconds, long segmentSize) {
+        this(baseDir, batchSize, leaseSeconds, segmentSize, Collections.emptyMap());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param baseDir the directory holding the queue directories
+     * @param batchSize the most entries returned by each dequeue, or 0 for every entry which is not leased
+     * @param leaseSeconds how long a dequeued batch is leased to its ticket
+     * @param segmentSize the size in bytes at which a new segment is started
+     * @param lanes the weight of each priority lane, from the highest priority to the lowest
+     */
+    SegmentedTaskQueue(Path baseDir, int batchSize, long leaseSeconds, long segmentSize, Map<String, Integer> lanes) {
+        this.baseDir = baseDir;
+        this.batchSize = batchSize(batchSize);
+        this.leaseMillis = leaseSeconds * 1000L;
+        this.segmentSize = segmentSize;
+        this.lanes = lanes;
+    }
+
+    private static int batchSize(int configured) {
+        return configured > 0 ? configured : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String[] queueNames() {
+        // lanes are part of their queue, not queues of their own
+        String[] names = baseDir.toFile().list((dir, name) -> new File(dir, name).isDirectory() &&
+                                                              !name.contains(ReplicationPriority.LANE_SEPARATOR));
+        return names != null ? names : new String[0];
+    }
+
+    @Override
+    public void enqueue(String queueName, TaskQueueEntry entry) throws IOException {
+        Set<TaskQueueEntry> entrySet = new HashSet<>();
+        entrySet.add(entry);
+        enqueue(queueName, entrySet);
+    }
+
+    @Override
+    public void enqueue(String queueName, Set<TaskQueueEntry> entrySet) throws IOException {
+        if (entrySet.isEmpty()) {
+            return;
+        }
+        Path qDir = ensureQueueDir(queueName);
+        locked(qDir, () -> {
+            TreeMap<Long, Path> segments = segments(qDir);
+            long segmentNo = segments.isEmpty() ? 0L : segments.lastKey();
+            Path segment = qDir.resolve(SEGMENT + segmentNo);
+            if (Files.exists(segment) && Files.size(segment) >= segmentSize) {
+                segment = qDir.resolve(SEGMENT + (segmentNo + 1));
+            }
+
+            List<String> lines = new ArrayList<>();
+            for (TaskQueueEntry entry : entrySet) {
+                lines.add(entry.toString());
+            }
+            appendLines(segment, lines);
+            return null;
+        });
+    }
+
+    @Override
+    public Set<TaskQueueEntry> dequeue(String queueName, long ticket) throws IOException {
+        if (lanes.isEmpty() || queueName.contains(ReplicationPriority.LANE_SEPARATOR)) {
+            Path qDir = ensureQueueDir(queueName);
+            return locked(qDir, () -> {
+                long now = System.currentTimeMillis();
+                State state = State.read(qDir);
+                return new LinkedHashSet<>(lease(qDir, state, ticket, batchSize, inFlight(state, now), now));
+            });
+        }
+
+        // share the batch between the lanes by weight, every lane getting at least one
+        int totalWeight = 0;
+        for (int weight : lanes.values()) {
+            totalWeight += weight;
+        }
+        Map<String, Integer> shares = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> lane : lanes.entrySet()) {
+            shares.put(lane.getKey(), (int) Math.max(1L, (long) batchSize * lane.getValue() / totalWeight));
+        }
+
+        // an object may be queued to more than one lane, so every lane is locked (always in the same order) and an
+        // object leased from any lane is held back in all of them
+        List<Path> allDirs = new ArrayList<>();
+        for (String lane : lanes.keySet()) {
+            allDirs.addAll(laneDirs(queueName, lane));
+        }
+        return locked(allDirs, () -> {
+            long now = System.currentTimeMillis();
+            Map<Path, State> states = new HashMap<>();
+            Set<String> held = new HashSet<>();
+            for (Path laneDir : allDirs) {
+                State state = State.read(laneDir);
+                states.put(laneDir, state);
+                held.addAll(inFlight(state, now));
+            }
+
+            Set<TaskQueueEntry> batch = new LinkedHashSet<>();
+            for (Map.Entry<String, Integer> share : shares.entrySet()) {
+                int wanted = Math.min(share.getValue(), batchSize - batch.size());
+                for (Path laneDir : laneDirs(queueName, share.getKey())) {
+                    if (wanted > 0) {
+                        List<TaskQueueEntry> taken = lease(laneDir, states.get(laneDir), ticket, wanted, held, now);
+                        batch.addAll(taken);
+                        wanted -= taken.size();
+                    }
+                }
+            }
+            // then fill any share a lane could not use, by priority
+            for (Path laneDir : allDirs) {
+                if (batch.size() < batchSize) {
+                    batch.addAll(lease(laneDir, states.get(laneDir), ticket, batchSize - batch.size(), held, now));
+                }
+            }
+            return batch;
+        });
+    }
+
+    /**
+     * @return the directories holding the entries of a lane of a queue
+     */
+    private List<Path> laneDirs(String queueName, String lane) {
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(ensureQueueDir(ReplicationPriority.queueName(queueName, lane)));
+        // entries queued without a lane are served with the middle lane
+        List<String> names = new ArrayList<>(lanes.keySet());
+        if (lane.equals(names.get(names.size() / 2))) {
+            dirs.add(ensureQueueDir(queueName));
+        }
+        return dirs;
+    }
+
+    /**
+     * Get the keys of the objects leased (to any ticket) which are still being processed
+     *
+     * @param state the state of a queue
+     * @param now the current time
+     * @return the keys of the leased entries
+     */
+    private static Set<String> inFlight(State state, long now) {
+        Set<String> inFlight = new HashSet<>();
+        for (Lease lease : state.leases.values()) {
+            if (lease.expires > now) {
+                for (String id : lease.ids) {
+                    TaskQueueEntry entry = state.entries.get(id);
+                    if (entry != null) {
+                        inFlight.add(key(entry));
+                    }
+                }
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * Lease entries in a queue directory to a ticket. The caller must hold the lock of the queue directory.
+     *
+     * @param qDir the queue directory
+     * @param state the state of the queue, which is updated with the lease
+     * @param ticket the ticket
+     * @param limit the most entries to lease
+     * @param held the keys of objects which are not to be leased, to which the keys of those leased are added
+     * @param now the current time
+     * @return the entries leased, without duplicates
+     * @throws IOException if I/O error
+     */
+    private List<TaskQueueEntry> lease(Path qDir, State state, long ticket, int limit, Set<String> held, long now)
+        throws IOException {
+        Set<String> leasedIds = new HashSet<>();
+        for (Lease lease : state.leases.values()) {
+            if (lease.expires > now) {
+                leasedIds.addAll(lease.ids);
+            }
+        }
+
+        Map<String, TaskQueueEntry> batch = new LinkedHashMap<>();
+        List<String> leased = new ArrayList<>();
+        for (Map.Entry<String, TaskQueueEntry> queued : state.entries.entrySet()) {
+            String id = queued.getKey();
+            if (state.acked.contains(id) || leasedIds.contains(id)) {
+                continue;
+            }
+            String key = key(queued.getValue());
+            if (batch.containsKey(key)) {
+                // a duplicate of an entry in this batch is acknowledged along with it
+                leased.add(id);
+            } else if (!held.contains(key) && batch.size() < limit) {
+                batch.put(key, queued.getValue());
+                leased.add(id);
+            }
+        }
+
+        if (!leased.isEmpty()) {
+            long expires = now + leaseMillis;
+            appendLines(qDir.resolve(LEASES), List.of(String.join(SEPARATOR, LEASE, String.valueOf(ticket),
+                String.valueOf(expires), String.join(",", leased))));
+            state.leases.merge(ticket, new Lease(expires, leased), Lease::merge);
+            state.records++;
+        }
+        held.addAll(batch.keySet());
+        return new ArrayList<>(batch.values());
+    }
+
+    @Override
+    public void release(String queueName, long ticket, boolean removeEntries) {
+        if (lanes.isEmpty() || queueName.contains(ReplicationPriority.LANE_SEPARATOR)) {
+            release(ensureQueueDir(queueName), ticket, removeEntries);
+        } else {
+            for (String lane : lanes.keySet()) {
+                for (Path laneDir : laneDirs(queueName, lane)) {
+                    release(laneDir, ticket, removeEntries);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the entries in a queue directory leased to a ticket
+     *
+     * @param qDir the queue directory
+     * @param ticket the ticket
+     * @param removeEntries if true, acknowledge the entries
+     */
+    private void release(Path qDir, long ticket, boolean removeEntries) {
+        try {
+            locked(qDir, () -> {
+                long now = System.currentTimeMillis();
+                State state = State.read(qDir);
+                Lease lease = state.leases.get(ticket);
+                if (lease == null) {
+                    return null;
+                }
+
+                if (removeEntries) {
+                    appendLines(qDir.resolve(LEASES), List.of(String.join(SEPARATOR, ACK, String.valueOf(ticket),
+                                                                          String.join(",", lease.ids))));
+                    state.acknowledge(lease.ids);
+                } else {
+                    appendLines(qDir.resolve(LEASES), List.of(String.join(SEPARATOR, RELEASE,
+                                                                          String.valueOf(ticket))));
+                }
+                state.leases.remove(ticket);
+                state.records++;
+                compact(qDir, state, now);
+                return null;
+            });
+        } catch (IOException ioE) {
+            log.error("Unable to release ticket {} of queue {}", ticket, qDir.getFileName(), ioE);
+        }
+    }
+
+    /**
+     * Remove segments whose entries have all been acknowledged, and rewrite the lease log if it holds many records
+     * which are no longer needed. The last segment is always kept, so segment numbers are not reused.
+     */
+    private void compact(Path qDir, State state, long now) throws IOException {
+        TreeMap<Long, Path> segments = segments(qDir);
+        Long last = segments.isEmpty() ? null : segments.lastKey();
+        Set<Long> removed = new HashSet<>();
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            if (!segment.getKey().equals(last) && state.isDone(segment.getKey())) {
+                Files.delete(segment.getValue());
+                removed.add(segment.getKey());
+                log.debug("Removed acknowledged segment {}", segment.getValue());
+            }
+        }
+
+        // the records needed: one for the acknowledged entries of the remaining segments, and each current lease
+        List<String> acked = new ArrayList<>();
+        for (String id : state.acked) {
+            if (!removed.contains(segmentOf(id))) {
+                acked.add(id);
+            }
+        }
+        List<String> records = new ArrayList<>();
+        if (!acked.isEmpty()) {
+            records.add(String.join(SEPARATOR, ACK, "0", String.join(",", acked)));
+        }
+        for (Map.Entry<Long, Lease> lease : state.leases.entrySet()) {
+            if (lease.getValue().expires > now) {
+                records.add(String.join(SEPARATOR, LEASE, String.valueOf(lease.getKey()),
+                                        String.valueOf(lease.getValue().expires),
+                                        String.join(",", lease.getValue().ids)));
+            }
+        }
+
+        if (state.records - records.size() > COMPACT_THRESHOLD) {
+            Path leases = qDir.resolve(LEASES);
+            Path compacted = qDir.resolve(LEASES + ".tmp");
+            Files.deleteIfExists(compacted);
+            appendLines(compacted, records);
+            Files.move(compacted, leases, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Compacted {} from {} to {} records", leases, state.records, records.size());
+        }
+    }
+
+    /**
+     * Run an operation holding the locks of several queue directories, taken in the order given
+     */
+    private <T> T locked(List<Path> qDirs, QueueOperation<T> operation) throws IOException {
+        if (qDirs.isEmpty()) {
+            return operation.run();
+        }
+        return locked(qDirs.get(0), () -> locked(qDirs.subList(1, qDirs.size()), operation));
+    }
+
+    /**
+     * Run an operation holding the lock of a queue directory, against other threads and other processes
+     */
+    private <T> T locked(Path qDir, QueueOperation<T> operation) throws IOException {
+        Object monitor = monitors.computeIfAbsent(qDir.toAbsolutePath().toString(), dir -> new Object());
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(qDir.resolve(LOCK), StandardOpenOption.CREATE,
+                                                        StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                return operation.run();
+            }
+        }
+    }
+
+    private Path ensureQueueDir(String queueName) {
+        Path qDir = baseDir.resolve(queueName);
+        try {
+            Files.createDirectories(qDir);
+        } catch (IOException ioE) {
+            log.error("Unable to create queue directory {}", qDir, ioE);
+        }
+        return qDir;
+    }
+
+    /**
+     * Append lines to a file, and force them to the disk. If the file does not end with a line separator (because an
+     * earlier write was interrupted) the partial line is removed first, since the queue lock is held and no other
+     * write can be in progress.
+     */
+    private static void appendLines(Path file, List<String> lines) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            long end = completeLength(channel);
+            if (end < channel.size()) {
+                log.warn("Discarding a partial line at the end of {}", file);
+                channel.truncate(end);
+            }
+            channel.position(end);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return the length of a file up to and including its last line separator
+     */
+    private static long completeLength(FileChannel channel) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        long length = channel.size();
+        while (length > 0) {
+            last.clear();
+            channel.read(last, length - 1);
+            if (last.get(0) == '\n') {
+                break;
+            }
+            length--;
+        }
+        return length;
+    }
+
+    private static TreeMap<Long, Path> segments(Path qDir) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        String[] names = qDir.toFile().list((dir, name) -> name.startsWith(SEGMENT));
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT.length())), qDir.resolve(name));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in {}", name, qDir);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static long segmentOf(String id) {
+        return Long.parseLong(id.substring(0, id.indexOf(':')));
+    }
+
+    /**
+     * The key of an entry - two entries are duplicates if they refer to the same object and the same list of tasks
+     */
+    private static String key(TaskQueueEntry entry) {
+        return String.join(",", entry.getTaskNames()).toLowerCase() + "|" + entry.getObjectId().toLowerCase();
+    }
+
+    @FunctionalInterface
+    private interface QueueOperation<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * A batch of entries leased to a ticket
+     */
+    private static class Lease {
+        private final long expires;
+        private final List<String> ids;
+
+        Lease(long expires, List<String> ids) {
+            this.expires = expires;
+            this.ids = ids;
+        }
+
+        Lease merge(Lease other) {
+            List<String> merged = new ArrayList<>(ids);
+            merged.addAll(other.ids);
+            return new Lease(Math.max(expires, other.expires), merged);
+        }
+    }
+
+    /**
+     * The state of a queue, read from its segments and lease log
+     */
+    private static class State {
+        // entries by id ('segment:offset'), in queue order
+        private final Map<String, TaskQueueEntry> entries = new LinkedHashMap<>();
+        private final Set<String> acked = new HashSet<>();
+        private final Map<Long, Lease> leases = new HashMap<>();
+        // entries not yet acknowledged, by segment
+        private final Map<Long, Integer> remaining = new HashMap<>();
+        // number of records in the lease log
+        private int records = 0;
+
+        static State read(Path qDir) throws IOException {
+            State state = new State();
+            for (Map.Entry<Long, Path> segment : segments(qDir).entrySet()) {
+                state.readSegment(segment.getKey(), segment.getValue());
+            }
+
+            Path leases = qDir.resolve(LEASES);
+            if (Files.exists(leases)) {
+                try (BufferedReader reader = Files.newBufferedReader(leases, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        state.records++;
+                        state.readRecord(line);
+                    }
+                }
+            }
+            for (String id : state.acked) {
+                state.remaining.computeIfPresent(segmentOf(id), (segment, count) -> count - 1);
+            }
+            return state;
+        }
+
+        private void readSegment(long segmentNo, Path segment) throws IOException {
+            byte[] content = Files.readAllBytes(segment);
+            int start = 0;
+            int count = 0;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n') {
+                    String line = new String(content, start, i - start, StandardCharsets.UTF_8).trim();
+                    if (!line.isEmpty()) {
+                        try {
+                            entries.put(segmentNo + ":" + start, new TaskQueueEntry(line));
+                            count++;
+                        } catch (RuntimeException e) {
+                            log.warn("Ignoring malformed entry at {} of {}: {}", start, segment, line);
+                        }
+                    }
+                    start = i + 1;
+                }
+            }
+            // anything after the last line separator is a partial write, and is ignored
+            remaining.put(segmentNo, count);
+        }
+
+        private void readRecord(String line) {
+            String[] parts = line.split(SEPARATOR);
+            try {
+                if (LEASE.equals(parts[0]) && parts.length == 4) {
+                    // a ticket may lease more than once, when a batch is filled from several lanes
+                    leases.merge(Long.parseLong(parts[1]),
+                                 new Lease(Long.parseLong(parts[2]), Arrays.asList(parts[3].split(","))),
+                                 Lease::merge);
+                } else if (ACK.equals(parts[0]) && parts.length == 3) {
+                    leases.remove(Long.parseLong(parts[1]));
+                    acked.addAll(Arrays.asList(parts[2].split(",")));
+                } else if (RELEASE.equals(parts[0]) && parts.length == 2) {
+                    leases.remove(Long.parseLong(parts[1]));
+                } else if (!line.isEmpty()) {
+                    log.warn("Ignoring malformed lease record: {}", line);
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed lease record: {}", line);
+            }
+        }
+
+        void acknowledge(List<String> ids) {
+            for (String id : ids) {
+                if (acked.add(id)) {
+                    remaining.computeIfPresent(segmentOf(id), (segment, count) -> count - 1);
+                }
+            }
+        }
+
+        boolean isDone(long segmentNo) {
+            Integer count = remaining.get(segmentNo);
+            return count != null && count <= 0;
+        }
+    }
+}
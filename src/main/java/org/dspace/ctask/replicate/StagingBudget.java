@@ -0,0 +1,73 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+/**
+ * StagingBudget limits the disk space used by AIPs staged in the replicate.base.dir when several are packed or
+ * fetched at once. Space is reserved for an AIP before it is staged and given back once the staged file is no longer
+ * needed. A single AIP larger than the whole budget reserves the whole budget, so it is staged on its own rather than
+ * never.
+ *
+ * @author agent
+ */
+public class StagingBudget {
+    private final long capacity;
+    private long available;
+
+    /**
+     * Constructor
+     *
+     * @param capacity the space which may be reserved at once, in bytes
+     */
+    public StagingBudget(long capacity) {
+        this.capacity = Math.max(1L, capacity);
+        this.available = this.capacity;
+    }
+
+    /**
+     * Reserve space, waiting until enough is available
+     *
+     * @param bytes the estimated size of the AIP
+     * @return the space reserved, which must be given back with {@link #release(long)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long amount = Math.min(Math.max(1L, bytes), capacity);
+        while (available < amount) {
+            wait();
+        }
+        available -= amount;
+        return amount;
+    }
+
+    /**
+     * Reserve space if enough is available now
+     *
+     * @param bytes the estimated size of the AIP
+     * @return the space reserved, which must be given back with {@link #release(long)}, or 0 if not enough is
+     * available
+     */
+    public synchronized long tryAcquire(long bytes) {
+        long amount = Math.min(Math.max(1L, bytes), capacity);
+        if (available < amount) {
+            return 0L;
+        }
+        available -= amount;
+        return amount;
+    }
+
+    /**
+     * Give back reserved space
+     *
+     * @param amount the space returned by {@link #acquire(long)}
+     */
+    public synchronized void release(long amount) {
+        available = Math.min(capacity, available + amount);
+        notifyAll();
+    }
+}
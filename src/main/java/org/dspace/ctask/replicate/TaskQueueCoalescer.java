@@ -0,0 +1,221 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.core.factory.CoreServiceFactory;
+import org.dspace.curate.TaskQueue;
+import org.dspace.curate.TaskQueueEntry;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * TaskQueueCoalescer holds the entries the replicate consumers would queue, for a configurable window of time, before
+ * writing them to the TaskQueue. Entries for the same object and the same tasks which arrive within the window are
+ * merged, keeping the first, so a bulk import of thousands of items into one Collection queues the Collection once
+ * rather than once for every item installed.
+ * <p>
+ * The window (in seconds) is set by 'replicate.consumer.coalesce.window'. It starts when the first entry is held, so a
+ * steady stream of events is still written to the queue at least once per window. Held entries are written when the
+ * JVM shuts down (without needing the DSpace kernel, which may be gone by then), but entries held when the JVM is
+ * killed are lost - keep the window short.
+ *
+ * @author agent
+ * @see FilteredFileTaskQueue
+ */
+public class TaskQueueCoalescer {
+    public static final String WINDOW_KEY = "replicate.consumer.coalesce.window";
+
+    private static final Logger log = LogManager.getLogger();
+    // singleton instance
+    private static TaskQueueCoalescer instance = null;
+
+    // the TaskQueue the held entries are written to
+    private final TaskQueue taskQueue;
+    private final long windowSeconds;
+    private final ScheduledExecutorService scheduler;
+    // held entries by queue name, then by object and tasks
+    private final Map<String, Map<String, TaskQueueEntry>> pending = new HashMap<>();
+    private boolean scheduled = false;
+    // set once the JVM is shutting down
+    private boolean closed = false;
+
+    private TaskQueueCoalescer(long windowSeconds) {
+        this((TaskQueue) CoreServiceFactory.getInstance().getPluginService().getSinglePlugin(TaskQueue.class),
+             windowSeconds, Executors.newSingleThreadScheduledExecutor(runnable -> {
+                 Thread thread = new Thread(runnable, "replicate-coalescer");
+                 thread.setDaemon(true);
+                 return thread;
+             }));
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "replicate-coalescer-shutdown"));
+    }
+
+    /**
+     * Constructor for testing
+     *
+     * @param taskQueue the TaskQueue to write to
+     * @param windowSeconds the coalescing window
+     * @param scheduler runs the flush at the end of each window
+     */
+    TaskQueueCoalescer(TaskQueue taskQueue, long windowSeconds, ScheduledExecutorService scheduler) {
+        this.taskQueue = taskQueue;
+        this.windowSeconds = windowSeconds;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get the coalescer, if a coalescing window is configured
+     *
+     * @return the TaskQueueCoalescer, or null if 'replicate.consumer.coalesce.window' is not greater than 0
+     */
+    public static synchronized TaskQueueCoalescer instance() {
+        if (instance == null) {
+            ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+            long window = configurationService.getLongProperty(WINDOW_KEY, 0L);
+            if (window <= 0) {
+                return null;
+            }
+            instance = new TaskQueueCoalescer(window);
+        }
+        return instance;
+    }
+
+    /**
+     * Hold a set of entries until the end of the current window
+     *
+     * @param queueName the name of the queue the entries are for
+     * @param entrySet the entries
+     */
+    public void enqueue(String queueName, Set<TaskQueueEntry> entrySet) {
+        synchronized (this) {
+            if (!closed) {
+                merge(pending.computeIfAbsent(queueName, name -> new LinkedHashMap<>()), entrySet);
+                schedule();
+                return;
+            }
+        }
+        // the JVM is shutting down, so there is no window left to hold the entries for
+        Map<String, TaskQueueEntry> entries = new LinkedHashMap<>();
+        merge(entries, entrySet);
+        logLost(write(Collections.singletonMap(queueName, entries)));
+    }
+
+    /**
+     * Add entries to those held, keeping the first of any duplicates
+     */
+    private void merge(Map<String, TaskQueueEntry> held, Set<TaskQueueEntry> entrySet) {
+        for (TaskQueueEntry entry : entrySet) {
+            held.putIfAbsent(key(entry), entry);
+        }
+    }
+
+    /**
+     * Write all held entries to the TaskQueue. If an entry cannot be written, it is held for the next window.
+     */
+    public void flush() {
+        Map<String, Map<String, TaskQueueEntry>> failed = write(drain());
+        if (failed.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                logLost(failed);
+                return;
+            }
+            for (Map.Entry<String, Map<String, TaskQueueEntry>> queue : failed.entrySet()) {
+                // entries which arrived meanwhile are newer than these, so these go first
+                Map<String, TaskQueueEntry> retry = new LinkedHashMap<>(queue.getValue());
+                Map<String, TaskQueueEntry> held = pending.get(queue.getKey());
+                if (held != null) {
+                    held.forEach(retry::putIfAbsent);
+                }
+                pending.put(queue.getKey(), retry);
+            }
+            log.info("Retrying the entries which could not be queued in {}s", windowSeconds);
+            schedule();
+        }
+    }
+
+    /**
+     * Write all held entries as the JVM shuts down. This runs in a shutdown hook, which may be after the DSpace
+     * kernel has been destroyed (the command line launcher destroys it before exiting), so it uses nothing but the
+     * TaskQueue found when the coalescer was created. Entries which cannot be written then are logged, as they are
+     * lost, and entries which arrive afterwards are written straight away.
+     */
+    void shutdown() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        logLost(write(drain()));
+    }
+
+    /**
+     * Take all held entries
+     */
+    private synchronized Map<String, Map<String, TaskQueueEntry>> drain() {
+        scheduled = false;
+        Map<String, Map<String, TaskQueueEntry>> entries = new HashMap<>(pending);
+        pending.clear();
+        return entries;
+    }
+
+    /**
+     * Write entries to the TaskQueue
+     *
+     * @return the entries of each queue which could not be written
+     */
+    private Map<String, Map<String, TaskQueueEntry>> write(Map<String, Map<String, TaskQueueEntry>> entries) {
+        Map<String, Map<String, TaskQueueEntry>> failed = new HashMap<>();
+        for (Map.Entry<String, Map<String, TaskQueueEntry>> queue : entries.entrySet()) {
+            Set<TaskQueueEntry> entrySet = new LinkedHashSet<>(queue.getValue().values());
+            try {
+                taskQueue.enqueue(queue.getKey(), entrySet);
+                log.debug("Queued {} coalesced entries to {}", entrySet.size(), queue.getKey());
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to queue {} entries to {}", entrySet.size(), queue.getKey(), e);
+                failed.put(queue.getKey(), queue.getValue());
+            }
+        }
+        return failed;
+    }
+
+    private void logLost(Map<String, Map<String, TaskQueueEntry>> failed) {
+        for (Map.Entry<String, Map<String, TaskQueueEntry>> queue : failed.entrySet()) {
+            for (TaskQueueEntry entry : queue.getValue().values()) {
+                log.error("Lost entry for queue {}: {}", queue.getKey(), entry);
+            }
+        }
+    }
+
+    private synchronized void schedule() {
+        if (!scheduled && !closed) {
+            scheduled = true;
+            scheduler.schedule(this::flush, windowSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The key of an entry - two entries are duplicates if they refer to the same object and the same list of tasks
+     */
+    private String key(TaskQueueEntry entry) {
+        return String.join(",", entry.getTaskNames()).toLowerCase() + "|" + entry.getObjectId().toLowerCase();
+    }
+}
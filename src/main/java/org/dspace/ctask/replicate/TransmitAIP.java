@@ -16,9 +16,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
 import org.dspace.core.Context;
 import org.dspace.curate.AbstractCurationTask;
 import org.dspace.curate.Curator;
+import org.dspace.curate.Distributive;
 import org.dspace.curate.Suspendable;
 import org.dspace.pack.Packer;
 import org.dspace.pack.PackerFactory;
@@ -37,10 +39,19 @@ import org.dspace.pack.PackerFactory;
  * <P>
  * Note that this task has a companion task called TransmitSingleAIP which
  * ensures that no child/member objects are transmitted.
+ * <P>
+ * When 'replicate.transmit.ledger' is enabled, Items which are unchanged since
+ * their AIP was last transmitted (according to the TransmitLedger) and whose
+ * AIP is still in storage are skipped without being packed.
+ * <P>
+ * When 'replicate.run.journal' is enabled, a run over a container is recorded
+ * in a RunJournal, so an interrupted run resumes where it stopped.
  * 
  * @author richardrodgers
  * @see PackerFactory
  * @see TransmitSingleAIP
+ * @see TransmitLedger
+ * @see RunJournal
  */
 @Suspendable(invoked = Curator.Invoked.INTERACTIVE)
 public class TransmitAIP extends AbstractCurationTask {
@@ -49,11 +60,22 @@ public class TransmitAIP extends AbstractCurationTask {
     // Group where all AIPs will be stored
     private String storeGroupName;
 
+    // AIP Package compression format (e.g. zip, tgz or tar.zst)
+    private String archFmt;
+
+    // Whether to skip unchanged objects using the TransmitLedger
+    private boolean useLedger;
+
+    // Journal of the current run over a container, if run journals are enabled
+    private RunJournal runJournal = null;
+
     @Override
     public void init(Curator curator, String taskId) throws IOException {
         super.init(curator, taskId);
         log.info("Init TransmitAIP");
         storeGroupName = configurationService.getProperty("replicate.group.aip.name");
+        archFmt = configurationService.getProperty("replicate.packer.archfmt");
+        useLedger = configurationService.getBooleanProperty("replicate.transmit.ledger", false);
     }
 
     /**
@@ -66,19 +88,104 @@ public class TransmitAIP extends AbstractCurationTask {
      */
     @Override
     public int perform(DSpaceObject dso) throws IOException {
+        try {
+            Context context = Curator.curationContext();
+            // a distributive task is not visited object by object, so has no run to journal
+            if (!getClass().isAnnotationPresent(Distributive.class)) {
+                runJournal = RunJournal.track(runJournal, context, taskId, dso);
+            }
+            if (runJournal != null && runJournal.isCompleted(dso.getHandle())) {
+                runJournal.record(dso.getHandle(), true);
+                setResult("AIP for '" + dso.getHandle() + "' was transmitted by an earlier run, skipping");
+                return Curator.CURATE_SKIP;
+            }
+
+            Transmission transmission = transmit(context, dso, null);
+            if (runJournal != null) {
+                runJournal.record(dso.getHandle(), transmission.getStatus() == Curator.CURATE_SUCCESS ||
+                                                   transmission.getStatus() == Curator.CURATE_SKIP);
+            }
+            setResult(transmission.getMessage());
+            return transmission.getStatus();
+        } catch (SQLException sqlE) {
+            throw new IOException(sqlE);
+        }
+    }
+
+    /**
+     * Generate the AIP of an object and transmit it to the replica ObjectStore,
+     * unless the ledger shows it is unchanged.
+     *
+     * @param context the context to use
+     * @param dso DSpace Object to transmit
+     * @param budget if not null, space is reserved in it for the AIP while it is staged
+     * @return the outcome
+     * @throws IOException if I/O error
+     */
+    protected Transmission transmit(Context context, DSpaceObject dso, StagingBudget budget) throws IOException {
         ReplicaManager repMan = ReplicaManager.instance();
 
         try {
-            Context context = Curator.curationContext();
+            // only Items are checked against the ledger, containers are cheap to pack
+            // and their AIPs change whenever their members do
+            TransmitLedger ledger = null;
+            String fingerprint = null;
+            if (useLedger && dso instanceof Item) {
+                ledger = TransmitLedger.instance();
+                fingerprint = ledger.fingerprint(context, (Item) dso);
+                String storageId = repMan.storageId(context, dso.getHandle(), archFmt);
+                if (ledger.isUnchanged(dso.getHandle(), ((Item) dso).getLastModified(), fingerprint) &&
+                    repMan.objectExists(storeGroupName, storageId)) {
+                    return new Transmission(Curator.CURATE_SKIP,
+                                            "AIP for '" + dso.getHandle() + "' is unchanged, skipping transmission");
+                }
+            }
+
             Packer packer = PackerFactory.instance(context, dso);
-            File archive = packer.pack(repMan.stage(context, storeGroupName, dso.getHandle()));
-            String msg = "Created AIP: '" + archive.getName() +
-                         "' size: " + archive.length();
-            repMan.transferObject(storeGroupName, archive);
-            setResult(msg);
-            return Curator.CURATE_SUCCESS;
+            long reserved = budget != null ? budget.acquire(packer.size("")) : 0L;
+            try {
+                File archive = packer.pack(repMan.stage(context, storeGroupName, dso.getHandle()));
+                String msg = "Created AIP: '" + archive.getName() +
+                             "' size: " + archive.length();
+                repMan.transferObject(storeGroupName, archive);
+                if (ledger != null) {
+                    ledger.record(dso.getHandle(), ((Item) dso).getLastModified(), fingerprint);
+                }
+                return new Transmission(Curator.CURATE_SUCCESS, msg);
+            } finally {
+                if (budget != null) {
+                    budget.release(reserved);
+                }
+            }
         } catch (AuthorizeException | SQLException e) {
             throw new IOException(e);
+        } catch (InterruptedException intE) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for staging space for " + dso.getHandle(), intE);
+        }
+    }
+
+    /**
+     * The outcome of transmitting a single AIP
+     */
+    protected static class Transmission {
+        private final int status;
+        private final String message;
+
+        public Transmission(int status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+
+        /**
+         * @return the Curator status
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
         }
     }
 }
@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.Context;
+import org.dspace.curate.AbstractCurationTask;
+import org.dspace.curate.Curator;
+import org.dspace.curate.Distributive;
+import org.dspace.pack.Packer;
+import org.dspace.pack.bagit.CatalogPacker;
+import org.dspace.pack.bagit.DeletionCatalog;
+
+/**
+ * TransmitDeletions packages the deletions recorded in the {@link DeletionJournal} as deletion catalogs, and
+ * transfers them to the 'group.delete.name' store. Since the journal is sitewide, the actual data object is ignored.
+ * <p>
+ * The replicate consumers record deletions in the journal when the 'catalog' deletion task is queued rather than
+ * performed immediately (i.e. 'catalog' instead of 'catalog+p'), so that deleting an object does not wait on the
+ * ObjectStore. This task should then be run regularly, e.g. from cron. As with 'catalog+p', a catalog is only written
+ * for an object which has an AIP in storage - either in the 'group.aip.name' store, or in the 'group.delete.name'
+ * store if a queued task has already moved it there.
+ *
+ * @author agent
+ * @see DeletionJournal
+ */
+@Distributive
+public class TransmitDeletions extends AbstractCurationTask {
+    private static final Logger log = LogManager.getLogger();
+
+    private String storeGroupName;
+    private String deleteGroupName;
+    private String archFmt;
+
+    @Override
+    public void init(Curator curator, String taskId) throws IOException {
+        super.init(curator, taskId);
+        storeGroupName = configurationService.getProperty("replicate.group.aip.name");
+        deleteGroupName = configurationService.getProperty("replicate.group.delete.name");
+        archFmt = configurationService.getProperty("replicate.packer.archfmt");
+    }
+
+    /**
+     * Perform the 'Transmit Deletions' task
+     * @param dso this param is ignored, as the deletion journal is sitewide
+     * @return integer which represents Curator return status
+     * @throws IOException if I/O error
+     */
+    @Override
+    public int perform(DSpaceObject dso) throws IOException {
+        ReplicaManager repMan = ReplicaManager.instance();
+        DeletionJournal journal = DeletionJournal.instance();
+        Context context;
+        try {
+            context = Curator.curationContext();
+        } catch (SQLException sqlE) {
+            throw new IOException(sqlE);
+        }
+
+        int transmitted = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (Path deletion : journal.pending()) {
+            Path claimed = journal.claim(deletion);
+            if (claimed == null) {
+                // claimed by another run
+                continue;
+            }
+            try {
+                if (transmit(context, repMan, DeletionCatalog.read(claimed))) {
+                    transmitted++;
+                } else {
+                    skipped++;
+                }
+                journal.complete(claimed);
+            } catch (IOException | SQLException | AuthorizeException e) {
+                log.error("Unable to transmit deletion catalog {}, it will be retried", deletion, e);
+                failed++;
+                journal.abandon(claimed);
+            }
+        }
+
+        String result = "Deletion catalogs transmitted: " + transmitted + ", not in storage: " + skipped +
+                        ", failed: " + failed;
+        report(result);
+        setResult(result);
+        return failed > 0 ? Curator.CURATE_FAIL : Curator.CURATE_SUCCESS;
+    }
+
+    /**
+     * Package and transfer the catalog for a deletion
+     *
+     * @return false if the deleted object has no AIP in storage, so no catalog is needed
+     */
+    private boolean transmit(Context context, ReplicaManager repMan, DeletionCatalog deletion)
+        throws IOException, SQLException, AuthorizeException {
+        String objId = deletion.getObjectId();
+        String storageId = repMan.storageId(context, objId, archFmt);
+        if (!repMan.objectExists(storeGroupName, storageId) && !repMan.objectExists(deleteGroupName, storageId)) {
+            return false;
+        }
+
+        Packer packer = new CatalogPacker(context, objId, deletion.getOwnerId(), deletion.getMembers());
+        // Create a new deletion catalog (with default file extension / format)
+        // and store it in the deletion group store
+        String catID = repMan.deletionCatalogId(objId, null);
+        File packDir = repMan.stage(context, deleteGroupName, catID);
+        File archive = packer.pack(packDir);
+        repMan.transferObject(deleteGroupName, archive);
+        return true;
+    }
+}
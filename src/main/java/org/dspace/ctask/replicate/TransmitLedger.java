@@ -0,0 +1,319 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.authorize.ResourcePolicy;
+import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.content.MetadataValue;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+import org.dspace.eperson.Group;
+import org.dspace.pack.bagit.BagItAipWriter;
+import org.dspace.pack.bagit.serialize.AipSerialization;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+
+/**
+ * TransmitLedger keeps a local record of the AIPs which have been transmitted to the replica ObjectStore, so that
+ * unchanged objects do not need to be packed again on every run of TransmitAIP.
+ * <p>
+ * For each handle the ledger holds the last modified date of the object and a fingerprint of everything which goes
+ * into the AIP which was last sent. The fingerprint is computed from the database only
+ * (metadata, status flags, collections, resource policies and the stored size and checksum of each bitstream), so
+ * checking an object never reads from the assetstore. Settings which change the content of an AIP (package type,
+ * archive format, content filter, storage group, reproducible mode, the formats stored without compression, and the
+ * compression levels and threads) are part of the fingerprint as well, so changing any of them causes every object to
+ * be transmitted again.
+ * <p>
+ * The ledger is an append-only file named 'transmit-ledger' in the replicate.base.dir, with one tab separated line per
+ * transmission. Later lines replace earlier lines for the same handle, and the file is compacted when it is loaded if
+ * it holds too many replaced lines.
+ *
+ * @author agent
+ * @see TransmitAIP
+ */
+public class TransmitLedger {
+    // name of file
+    private static final String LEDGER_NAME = "transmit-ledger";
+    private static final String SEPARATOR = "\t";
+    // compact when the file has this many more lines than entries
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    private static final Logger log = LogManager.getLogger();
+    // singleton instance
+    private static TransmitLedger instance = null;
+
+    private final ConfigurationService configurationService;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Path ledgerFile;
+
+    /**
+     * Constructor
+     *
+     * @param ledgerFile the ledger file, which is created if it does not exist
+     * @param configurationService the settings which are part of the fingerprint
+     * @throws IOException if the ledger cannot be read
+     */
+    TransmitLedger(Path ledgerFile, ConfigurationService configurationService) throws IOException {
+        this.ledgerFile = ledgerFile;
+        this.configurationService = configurationService;
+        Files.createDirectories(ledgerFile.getParent());
+        int lines = load();
+        if (lines - entries.size() > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    public static synchronized TransmitLedger instance() throws IOException {
+        if (instance == null) {
+            ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+            instance = new TransmitLedger(Path.of(configurationService.getProperty("replicate.base.dir"),
+                                                  LEDGER_NAME), configurationService);
+        }
+        return instance;
+    }
+
+    /**
+     * Check whether an object is unchanged since its AIP was last transmitted
+     *
+     * @param handle the handle of the object
+     * @param lastModified the current last modified date of the object
+     * @param fingerprint the current fingerprint of the object
+     * @return true if the ledger has a matching entry for the handle
+     */
+    public boolean isUnchanged(String handle, Instant lastModified, String fingerprint) {
+        Entry entry = entries.get(handle);
+        return entry != null &&
+               Objects.equals(entry.getLastModified(), String.valueOf(lastModified)) &&
+               entry.getFingerprint().equals(fingerprint);
+    }
+
+    /**
+     * Get the ledger entry for a handle
+     *
+     * @param handle the handle of the object
+     * @return the entry, or null if no AIP has been recorded for the handle
+     */
+    public Entry getEntry(String handle) {
+        return entries.get(handle);
+    }
+
+    /**
+     * Record the transmission of an AIP
+     *
+     * @param handle the handle of the object
+     * @param lastModified the last modified date of the object when it was packed
+     * @param fingerprint the fingerprint of the object when it was packed
+     * @throws IOException if the ledger cannot be written
+     */
+    public void record(String handle, Instant lastModified, String fingerprint) throws IOException {
+        Entry entry = new Entry(handle, String.valueOf(lastModified), fingerprint);
+        synchronized (this) {
+            try (BufferedWriter writer = Files.newBufferedWriter(ledgerFile, StandardCharsets.UTF_8,
+                                                                 StandardOpenOption.CREATE,
+                                                                 StandardOpenOption.APPEND)) {
+                writer.write(entry.toLine());
+                writer.newLine();
+            }
+            entries.put(handle, entry);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of an Item, covering everything which is written to its AIP. Only the database is
+     * consulted; bitstreams are represented by their stored size and checksum.
+     *
+     * @param context the context to use
+     * @param item the Item
+     * @return the hex encoded MD5 fingerprint
+     * @throws SQLException if a database error occurs
+     */
+    public String fingerprint(Context context, Item item) throws SQLException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // settings which determine the content of the AIP
+        update(digest, configurationService.getProperty("replicate.packer.pkgtype"));
+        update(digest, configurationService.getProperty("replicate.packer.archfmt"));
+        update(digest, configurationService.getProperty("replicate.packer.cfilter"));
+        update(digest, configurationService.getProperty("replicate.group.aip.name"));
+        update(digest, configurationService.getProperty(BagItAipWriter.REPRODUCIBLE_KEY));
+        update(digest, configurationService.getProperty(BagItAipWriter.STORED_FORMATS_KEY));
+        update(digest, configurationService.getProperty(AipSerialization.COMPRESSION_LEVEL_KEY));
+        update(digest, configurationService.getProperty(AipSerialization.ZSTD_LEVEL_KEY));
+        // a multi-threaded zstd stream is framed differently from a single-threaded one
+        update(digest, configurationService.getProperty(AipSerialization.COMPRESSION_THREADS_KEY));
+
+        update(digest, item.getID());
+        update(digest, item.isArchived(), item.isWithdrawn(), item.isDiscoverable());
+        Collection owner = item.getOwningCollection();
+        update(digest, owner != null ? owner.getHandle() : null);
+        for (Collection collection : item.getCollections()) {
+            update(digest, collection.getHandle());
+        }
+        updateMetadata(digest, item.getMetadata());
+        updatePolicies(digest, item);
+
+        for (Bundle bundle : item.getBundles()) {
+            update(digest, bundle.getName());
+            Bitstream primary = bundle.getPrimaryBitstream();
+            update(digest, primary != null ? primary.getID() : null);
+            updatePolicies(digest, bundle);
+            for (Bitstream bitstream : bundle.getBitstreams()) {
+                BitstreamFormat format = bitstream.getFormat(context);
+                update(digest, bitstream.getID(), bitstream.getName(), bitstream.getSequenceID(),
+                       bitstream.getSizeBytes(), bitstream.getChecksumAlgorithm(), bitstream.getChecksum(),
+                       format != null ? format.getShortDescription() : null);
+                updateMetadata(digest, bitstream.getMetadata());
+                updatePolicies(digest, bitstream);
+            }
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private void updateMetadata(MessageDigest digest, List<MetadataValue> values) {
+        for (MetadataValue value : values) {
+            update(digest, value.getMetadataField().toString('.'), value.getValue(), value.getLanguage(),
+                   value.getAuthority(), value.getConfidence(), value.getPlace());
+        }
+    }
+
+    private void updatePolicies(MessageDigest digest, DSpaceObject dso) {
+        for (ResourcePolicy policy : dso.getResourcePolicies()) {
+            Group group = policy.getGroup();
+            EPerson ePerson = policy.getEPerson();
+            LocalDate startDate = policy.getStartDate();
+            LocalDate endDate = policy.getEndDate();
+            update(digest, policy.getAction(), policy.getRpType(), policy.getRpName(), policy.getRpDescription(),
+                   group != null ? group.getName() : null, ePerson != null ? ePerson.getEmail() : null,
+                   startDate, endDate);
+        }
+    }
+
+    private void update(MessageDigest digest, Object... values) {
+        for (Object value : values) {
+            // a NUL separator keeps adjacent values from running into each other
+            digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+    }
+
+    /**
+     * Load the ledger file
+     *
+     * @return the number of lines read
+     * @throws IOException if the ledger cannot be read
+     */
+    private int load() throws IOException {
+        if (!Files.exists(ledgerFile)) {
+            return 0;
+        }
+
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(ledgerFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                Entry entry = Entry.fromLine(line);
+                if (entry != null) {
+                    entries.put(entry.getHandle(), entry);
+                } else {
+                    log.warn("Ignoring malformed line {} in {}", lines, ledgerFile);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Rewrite the ledger file with only the current entries
+     *
+     * @throws IOException if the ledger cannot be written
+     */
+    private synchronized void compact() throws IOException {
+        Path compacted = ledgerFile.resolveSibling(LEDGER_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                writer.write(entry.toLine());
+                writer.newLine();
+            }
+        }
+        Files.move(compacted, ledgerFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Compacted {} to {} entries", ledgerFile, entries.size());
+    }
+
+    /**
+     * The record of the last AIP transmitted for a handle
+     */
+    public static class Entry {
+        private final String handle;
+        private final String lastModified;
+        private final String fingerprint;
+
+        Entry(String handle, String lastModified, String fingerprint) {
+            this.handle = handle;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+
+        static Entry fromLine(String line) {
+            String[] parts = line.split(SEPARATOR);
+            if (parts.length != 3) {
+                return null;
+            }
+            return new Entry(parts[0], parts[1], parts[2]);
+        }
+
+        String toLine() {
+            return String.join(SEPARATOR, handle, lastModified, fingerprint);
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+    }
+}
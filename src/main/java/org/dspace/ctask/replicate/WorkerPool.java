@@ -0,0 +1,286 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.core.Context;
+import org.dspace.eperson.EPerson;
+import org.dspace.eperson.factory.EPersonServiceFactory;
+
+/**
+ * WorkerPool is the pool of worker threads shared by the parallel replication tasks. Work is handed to the workers
+ * in order and its outcomes are awaited in the same order, so results are reported as they would be without the
+ * workers. At most WINDOW_PER_WORKER pieces of work per worker are outstanding, which is how far the other workers
+ * may get ahead of a slow one. Each worker has its own DSpace Context, usually as the same user as the task.
+ *
+ * @param <T> the work handed to the workers
+ * @author agent
+ * @see ParallelIngester
+ * @see ParallelTransmitAIP
+ */
+class WorkerPool<T extends WorkerPool.Work<?>> {
+    // work handed out but not yet awaited, per worker
+    static final int WINDOW_PER_WORKER = 16;
+
+    private static final Logger log = LogManager.getLogger();
+
+    // marks the end of the work for a worker
+    private static final Work<Void> END = new Work<>(null);
+
+    /**
+     * Creates the Context of a worker
+     */
+    @FunctionalInterface
+    interface ContextFactory {
+        Context create() throws SQLException;
+    }
+
+    private final String name;
+    private final int count;
+    private final ContextFactory contexts;
+    private final BlockingDeque<Work<?>> queue;
+    // in the order handed out, so outcomes are awaited in that order
+    private final Deque<T> outstanding = new ArrayDeque<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Constructor. The workers are not started until start() is called.
+     *
+     * @param name names the worker threads, and the Contexts in log messages
+     * @param workerCount the number of workers
+     * @param contexts creates the Context of each worker
+     */
+    WorkerPool(String name, int workerCount, ContextFactory contexts) {
+        this.name = name;
+        this.count = Math.max(1, workerCount);
+        this.contexts = contexts;
+        this.queue = new LinkedBlockingDeque<>(count * 2);
+    }
+
+    /**
+     * Create Contexts as the same user as the given Context, and with authorization off if it is off there
+     *
+     * @param context the Context of the task
+     * @param mode the mode of the Contexts, or null for the default
+     * @return the factory
+     */
+    static ContextFactory asUser(Context context, Context.Mode mode) {
+        EPerson user = context.getCurrentUser();
+        UUID userId = user != null ? user.getID() : null;
+        boolean ignoreAuthorization = context.ignoreAuthorization();
+        return () -> {
+            Context workerContext = mode != null ? new Context(mode) : new Context();
+            try {
+                if (userId != null) {
+                    workerContext.setCurrentUser(EPersonServiceFactory.getInstance().getEPersonService()
+                                                                      .find(workerContext, userId));
+                }
+                if (ignoreAuthorization) {
+                    workerContext.turnOffAuthorisationSystem();
+                }
+                return workerContext;
+            } catch (SQLException | RuntimeException e) {
+                workerContext.abort();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Start the workers, as daemon threads
+     *
+     * @param body the body of each worker thread
+     */
+    void start(Runnable body) {
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(body, "replicate-" + name + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /**
+     * Create the Context of a worker
+     *
+     * @return the Context, or null if it could not be created
+     */
+    Context newContext() {
+        try {
+            return contexts.create();
+        } catch (SQLException | RuntimeException e) {
+            log.error("Unable to create a Context for a {} worker", name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Hand work to the workers, waiting for room in the queue
+     *
+     * @param work the work
+     * @throws IOException if interrupted
+     */
+    void submit(T work) throws IOException {
+        outstanding.add(work);
+        try {
+            queue.put(work);
+        } catch (InterruptedException intE) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted handing out " + work.getId(), intE);
+        }
+    }
+
+    /**
+     * @return true if any work handed out has not been awaited
+     */
+    boolean hasOutstanding() {
+        return !outstanding.isEmpty();
+    }
+
+    /**
+     * @return true if the oldest work not yet awaited is done, so awaiting it will not block
+     */
+    boolean isNextDone() {
+        return !outstanding.isEmpty() && outstanding.peek().isDone();
+    }
+
+    /**
+     * @return true if more work is outstanding than the window allows, so the oldest should be awaited
+     */
+    boolean isFull() {
+        return outstanding.size() > count * WINDOW_PER_WORKER;
+    }
+
+    /**
+     * @return the oldest work not yet awaited, whose outcome is then the caller's to await
+     */
+    T next() {
+        return outstanding.poll();
+    }
+
+    /**
+     * Take the next work, waiting for some. For the worker threads.
+     *
+     * @return the work, or null once the work has ended
+     * @throws InterruptedException if interrupted
+     */
+    @SuppressWarnings("unchecked")
+    T take() throws InterruptedException {
+        Work<?> work = queue.take();
+        return work != END ? (T) work : null;
+    }
+
+    /**
+     * Take the next work if there is some waiting. For the worker threads.
+     *
+     * @return the work, or null if there is none waiting or the work has ended (which take() then returns)
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        Work<?> work = queue.poll();
+        if (work == END) {
+            // leave it for take(), once the worker has dealt with what it holds
+            queue.offerFirst(END);
+            return null;
+        }
+        return (T) work;
+    }
+
+    /**
+     * Stop the workers once they finish their current work, abandoning any not yet started
+     *
+     * @return the work abandoned, which will not be done
+     */
+    @SuppressWarnings("unchecked")
+    List<T> shutdown() {
+        List<Work<?>> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        List<T> abandoned = new ArrayList<>();
+        for (Work<?> work : drained) {
+            if (work != END) {
+                abandoned.add((T) work);
+            }
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            queue.offer(END);
+        }
+        return abandoned;
+    }
+
+    /**
+     * Wait for the workers to stop, after shutdown()
+     */
+    void join() {
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException intE) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A piece of work, and its outcome
+     *
+     * @param <R> the result of the work
+     */
+    static class Work<R> {
+        private final String id;
+        private final CompletableFuture<R> outcome = new CompletableFuture<>();
+
+        Work(String id) {
+            this.id = id;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        void succeed(R result) {
+            outcome.complete(result);
+        }
+
+        void fail(Throwable e) {
+            outcome.completeExceptionally(e);
+        }
+
+        boolean isDone() {
+            return outcome.isDone();
+        }
+
+        /**
+         * Wait for the work to be done
+         *
+         * @return the result
+         * @throws ExecutionException if the work failed
+         * @throws IOException if interrupted
+         */
+        R await() throws ExecutionException, IOException {
+            try {
+                return outcome.get();
+            } catch (InterruptedException intE) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + id, intE);
+            }
+        }
+    }
+}
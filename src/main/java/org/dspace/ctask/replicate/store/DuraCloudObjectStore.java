@@ -180,6 +180,8 @@ public class DuraCloudObjectStore implements ObjectStore {
                 mimeType = "application/zip";
             } else if (filename.endsWith(".tgz") || filename.endsWith(".gzip")) {
                 mimeType = "application/x-gzip";
+            } else if (filename.endsWith(".tar.zst")) {
+                mimeType = "application/zstd";
             } else if (filename.endsWith(".txt")) {
                 mimeType = "text/plain";
             } else if (filename.endsWith(".tar")) {
@@ -49,14 +49,16 @@ public class PackerFactory {
     // type of package to use - must be either 'mets' or 'bagit'
     private static String packType = DSpaceServicesFactory.getInstance().getConfigurationService()
                                                           .getProperty("replicate.packer.pkgtype");
-    // type of archive format - supported types are 'zip' or 'tgz'
+    // type of archive format - supported types are 'zip', 'tgz' or 'tar.zst'
     private static String archFmt = DSpaceServicesFactory.getInstance().getConfigurationService()
                                                          .getProperty("replicate.packer.archfmt");
     // content filter - comma separated list of bundle names
     private static String cfgFilter = DSpaceServicesFactory.getInstance().getConfigurationService()
                                                            .getProperty("replicate.packer.cfilter");
-    // cached instance of METSPacker - because a little expensive to create
-    private static METSPacker metsPacker = null;
+    // cached instances of METSPacker - because a little expensive to create (the AIP disseminator and ingester
+    // plugins are kept once looked up). A METSPacker holds the context and object it is working on, so each thread
+    // gets its own instance and AIPs can be packed on several threads at once.
+    private static final ThreadLocal<METSPacker> metsPackers = new ThreadLocal<>();
 
     /**
      * Private constructor for this utility class
@@ -68,8 +70,10 @@ public class PackerFactory {
         int type = dso.getType();
         if ("mets".equals(packType)) {
             log.info("Creating Packer for METS package type.");
+            METSPacker metsPacker = metsPackers.get();
             if (metsPacker == null) {
                 metsPacker = new METSPacker(context, dso, archFmt);
+                metsPackers.set(metsPacker);
             } else {
                 metsPacker.setContext(context);
                 metsPacker.setDSO(dso);
@@ -0,0 +1,279 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.CommunityService;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.dspace.storage.rdbms.DatabaseUtils;
+
+/**
+ * SizeEstimator estimates the size of the AIPs for a DSpaceObject and all of its children, along with the number of
+ * Items and Bitstreams they contain. As with the Packers, the estimate is based on the size of content files only,
+ * respecting the bundle content filter (e.g. 'replicate.packer.cfilter').
+ * <p>
+ * The Items of each Collection are totalled with a pair of aggregate queries run directly against the database,
+ * rather than by loading every Item, Bundle and Bitstream through the ORM. Communities and Collections are few enough
+ * to walk as entities. Since the queries use their own connection, changes which are not yet committed in the current
+ * Context are not seen. If the queries cannot be run (or 'replicate.packer.estimate.sql' is false), the Items of a
+ * Collection are walked through the ORM instead, removing each from the session once it is counted.
+ *
+ * @author agent
+ */
+public class SizeEstimator {
+    private static final Logger log = LogManager.getLogger(SizeEstimator.class);
+
+    public static final String ESTIMATE_SQL_KEY = "replicate.packer.estimate.sql";
+
+    private static final String ITEM_COUNT_SQL =
+        "SELECT COUNT(*) FROM collection2item c2i JOIN item i ON i.uuid = c2i.item_id " +
+        "WHERE c2i.collection_id = ? AND i.in_archive = true";
+
+    private static final String BITSTREAM_SIZE_SQL =
+        "SELECT COUNT(*), COALESCE(SUM(bs.size_bytes), 0) FROM collection2item c2i " +
+        "JOIN item i ON i.uuid = c2i.item_id " +
+        "JOIN item2bundle i2b ON i2b.item_id = i.uuid " +
+        "JOIN bundle2bitstream b2b ON b2b.bundle_id = i2b.bundle_id " +
+        "JOIN bitstream bs ON bs.uuid = b2b.bitstream_id " +
+        "WHERE c2i.collection_id = ? AND i.in_archive = true AND bs.deleted = false";
+
+    // bundle names are stored as the dc.title of the bundle
+    private static final String BUNDLE_NAME_SQL =
+        "EXISTS (SELECT 1 FROM metadatavalue mv " +
+        "JOIN metadatafieldregistry mfr ON mfr.metadata_field_id = mv.metadata_field_id " +
+        "JOIN metadataschemaregistry msr ON msr.metadata_schema_id = mfr.metadata_schema_id " +
+        "WHERE mv.dspace_object_id = i2b.bundle_id AND msr.short_id = 'dc' AND mfr.element = 'title' " +
+        "AND mfr.qualifier IS NULL AND mv.text_value IN (%s))";
+
+    private final ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+    private final CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
+
+    private final Context context;
+    private final Supplier<DataSource> dataSource;
+    private final List<String> filterBundles;
+    private final boolean exclude;
+    private boolean useSql;
+
+    /**
+     * Constructor
+     *
+     * @param context the context to use
+     * @param contentFilter the bundle content filter: a comma separated list of bundles to exclude, or to include if
+     *                      the list starts with '+'. May be null to include all bundles.
+     */
+    public SizeEstimator(Context context, String contentFilter) {
+        this(context, contentFilter, DatabaseUtils::getDataSource);
+    }
+
+    /**
+     * Constructor for testing, with the DataSource to run the aggregate queries against
+     *
+     * @param context the context to use
+     * @param contentFilter the bundle content filter
+     * @param dataSource supplies the DataSource, or null if there is none
+     */
+    SizeEstimator(Context context, String contentFilter, Supplier<DataSource> dataSource) {
+        this.context = context;
+        this.dataSource = dataSource;
+        this.useSql = DSpaceServicesFactory.getInstance().getConfigurationService()
+                                           .getBooleanProperty(ESTIMATE_SQL_KEY, true);
+        if (contentFilter == null || contentFilter.isEmpty()) {
+            exclude = true;
+            filterBundles = Collections.emptyList();
+        } else if (contentFilter.startsWith("+")) {
+            exclude = false;
+            filterBundles = Arrays.asList(contentFilter.substring(1).split(","));
+        } else {
+            exclude = true;
+            filterBundles = Arrays.asList(contentFilter.split(","));
+        }
+    }
+
+    /**
+     * Estimate the size of the AIPs of a DSpaceObject and all of its children
+     *
+     * @param dso the Site, Community, Collection or Item
+     * @return the {@link Estimate}
+     * @throws SQLException if database error
+     */
+    public Estimate estimate(DSpaceObject dso) throws SQLException {
+        final Estimate estimate = new Estimate();
+        switch (dso.getType()) {
+            case Constants.SITE:
+                for (Community community : communityService.findAllTop(context)) {
+                    addCommunity(estimate, community);
+                }
+                break;
+            case Constants.COMMUNITY:
+                addCommunity(estimate, (Community) dso);
+                break;
+            case Constants.COLLECTION:
+                addCollection(estimate, (Collection) dso);
+                break;
+            case Constants.ITEM:
+                addItem(estimate, (Item) dso);
+                break;
+            default:
+                break;
+        }
+        return estimate;
+    }
+
+    private void addCommunity(Estimate estimate, Community community) throws SQLException {
+        addLogo(estimate, community.getLogo());
+        for (Community subCommunity : community.getSubcommunities()) {
+            addCommunity(estimate, subCommunity);
+        }
+        for (Collection collection : community.getCollections()) {
+            addCollection(estimate, collection);
+        }
+    }
+
+    private void addCollection(Estimate estimate, Collection collection) throws SQLException {
+        addLogo(estimate, collection.getLogo());
+
+        if (useSql) {
+            try {
+                addItemsBySql(estimate, collection.getID());
+                return;
+            } catch (SQLException | RuntimeException e) {
+                // e.g. no DataSource available; fall back to the ORM for the rest of the estimate
+                log.warn("Unable to estimate sizes with aggregate queries, walking items instead", e);
+                useSql = false;
+            }
+        }
+
+        final Iterator<Item> items = itemService.findByCollection(context, collection);
+        while (items.hasNext()) {
+            final Item item = items.next();
+            addItem(estimate, item);
+            context.uncacheEntity(item);
+        }
+    }
+
+    private void addItemsBySql(Estimate estimate, UUID collectionId) throws SQLException {
+        final DataSource source = dataSource.get();
+        if (source == null) {
+            throw new SQLException("No DataSource available");
+        }
+
+        String bitstreamSql = BITSTREAM_SIZE_SQL;
+        if (!filterBundles.isEmpty()) {
+            final String names = String.join(", ", Collections.nCopies(filterBundles.size(), "?"));
+            bitstreamSql += (exclude ? " AND NOT " : " AND ") + String.format(BUNDLE_NAME_SQL, names);
+        }
+
+        // gather both results before adding them, so a failure does not leave a partial count
+        final long items;
+        final long bitstreams;
+        final long size;
+        try (Connection connection = source.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(ITEM_COUNT_SQL)) {
+                statement.setObject(1, collectionId);
+                try (ResultSet results = statement.executeQuery()) {
+                    results.next();
+                    items = results.getLong(1);
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(bitstreamSql)) {
+                statement.setObject(1, collectionId);
+                int index = 2;
+                for (String bundle : filterBundles) {
+                    statement.setString(index++, bundle);
+                }
+                try (ResultSet results = statement.executeQuery()) {
+                    results.next();
+                    bitstreams = results.getLong(1);
+                    size = results.getLong(2);
+                }
+            }
+        }
+
+        estimate.items += items;
+        estimate.bitstreams += bitstreams;
+        estimate.size += size;
+    }
+
+    private void addItem(Estimate estimate, Item item) throws SQLException {
+        estimate.items++;
+        for (Bundle bundle : item.getBundles()) {
+            if (accept(bundle.getName())) {
+                for (Bitstream bitstream : bundle.getBitstreams()) {
+                    estimate.bitstreams++;
+                    estimate.size += bitstream.getSizeBytes();
+                }
+            }
+        }
+    }
+
+    private void addLogo(Estimate estimate, Bitstream logo) {
+        if (logo != null) {
+            estimate.bitstreams++;
+            estimate.size += logo.getSizeBytes();
+        }
+    }
+
+    private boolean accept(String name) {
+        boolean onList = filterBundles.contains(name);
+        return exclude ? !onList : onList;
+    }
+
+    /**
+     * The estimated size of a set of AIPs, with the number of Items and Bitstreams they contain
+     */
+    public static class Estimate {
+        private long size = 0L;
+        private long items = 0L;
+        private long bitstreams = 0L;
+
+        /**
+         * @return the estimated size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the number of Items
+         */
+        public long getItems() {
+            return items;
+        }
+
+        /**
+         * @return the number of Bitstreams, including logos
+         */
+        public long getBitstreams() {
+            return bitstreams;
+        }
+    }
+}
@@ -7,9 +7,9 @@
  */
 package org.dspace.pack.bagit;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import org.dspace.services.ConfigurationService;
@@ -29,14 +29,15 @@ public class BagInfoHelper {
     private BagInfoHelper() {}
 
     /**
-     * Loads the bag-info.txt and any other fields for tag files found under 'replicate.bag.tag'
+     * Loads the bag-info.txt and any other fields for tag files found under 'replicate.bag.tag'. The maps are sorted
+     * so that tag files are always written in the same order.
      *
      * @return a Map containing the identifier of each tag file to its key-value pairs
      */
     public static Map<String, Map<String, String>> getTagFiles() {
         final String TAG_KEY = "replicate-bagit.tag";
         final String TAG_SUFFIX = ".txt";
-        final Map<String, Map<String, String>> tagFiles = new HashMap<>();
+        final Map<String, Map<String, String>> tagFiles = new TreeMap<>();
         final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
 
         final List<String> keys = configurationService.getPropertyKeys(TAG_KEY);
@@ -72,7 +73,7 @@ public class BagInfoHelper {
 
             Map<String, String> tagFields = tagFiles.get(file);
             if (tagFields == null) {
-                tagFields = new HashMap<>();
+                tagFields = new TreeMap<>();
                 tagFiles.put(file, tagFields);
             }
 
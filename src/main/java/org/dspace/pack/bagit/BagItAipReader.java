@@ -14,9 +14,13 @@ import static org.dspace.pack.bagit.BagItAipWriter.POLICY_XML;
 import static org.dspace.pack.bagit.BagItAipWriter.ROLES_XML;
 import static org.dspace.pack.bagit.BagItAipWriter.TEMPLATE_XML;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -27,6 +31,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Optional;
 import gov.loc.repository.bagit.domain.Bag;
@@ -35,11 +40,13 @@ import gov.loc.repository.bagit.exceptions.MaliciousPathException;
 import gov.loc.repository.bagit.exceptions.UnparsableVersionException;
 import gov.loc.repository.bagit.exceptions.UnsupportedAlgorithmException;
 import gov.loc.repository.bagit.reader.BagReader;
-import gov.loc.repository.bagit.verify.BagVerifier;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
 import org.apache.commons.io.FileUtils;
+import org.dspace.pack.bagit.serialize.AipArchive;
+import org.dspace.pack.bagit.serialize.AipSerialization;
+import org.dspace.pack.bagit.serialize.ExtractionDigests;
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.policy.Policies;
 import org.dspace.pack.bagit.xml.policy.Policy;
@@ -47,12 +54,15 @@ import org.dspace.services.ConfigurationService;
 import org.dspace.services.factory.DSpaceServicesFactory;
 import org.duraspace.bagit.profile.BagProfile;
 import org.duraspace.bagit.serialize.BagDeserializer;
-import org.duraspace.bagit.serialize.SerializationSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Assist in reading aips and retrieving information from the package.
+ * <p>
+ * Archived aips are only extracted when an operation needs the bag on disk (validation, bitstreams, the logo and
+ * roles). Reading the object.properties, metadata, policies and other data files is done directly from the archive
+ * through an {@link AipArchive}, so callers which only need those do not pay for extracting the whole aip.
  *
  * @author mikejritter
  * @since 2020-03-19
@@ -60,18 +70,33 @@ import org.slf4j.LoggerFactory;
 public class BagItAipReader {
     private final Logger logger = LoggerFactory.getLogger(BagItAipReader.class);
 
+    private static final String PAYLOAD_MANIFEST = "manifest-md5.txt";
+
+    // matches data/bundle/bitstream_uuid OR data/bundle/bitstream_uuid.extension with groups for the bundle and
+    // bitstream_uuid
+    private static final Pattern BITSTREAM = Pattern.compile(
+        "data/(?<bundle>[^/]+)/(?<uuid>bitstream_[\\w]{8}-[\\w]{4}-[\\w]{4}-[\\w]{4}-[\\w]{12})(\\.[^/]*)?");
+
     private final String dataDirectory = "data";
 
-    private final Path bag;
+    private final Path archive;
     private final BagProfile profile;
+    private final JAXBContext jaxbContext;
     private final Unmarshaller unmarshaller;
 
+    // the bag on disk, null until an archived aip is extracted
+    private Path bag;
+    // random access to an archived aip, opened when first needed
+    private AipArchive aipArchive;
+    // digests of the files written when the aip was extracted
+    private ExtractionDigests extractionDigests;
+
     /**
      * Constructor for a {@link BagItAipReader}. If the given path to the {@code bag} is a single file, it is assumed
-     * that the path is an archived aip and will be deserialized.
+     * that the path is an archived aip and will be deserialized when the extracted bag is first needed.
      *
      * @param bag the {@link Path} to the bag
-     * @throws IOException if there are any errors while deserializing the aip located at {@link Path}
+     * @throws IOException if the aip located at {@link Path} does not exist
      */
     public BagItAipReader(final Path bag) throws IOException {
         if (bag == null || Files.notExists(bag)) {
@@ -79,7 +104,7 @@ public class BagItAipReader {
         }
 
         try {
-            final JAXBContext jaxbContext = JAXBContext.newInstance(Metadata.class, Policies.class);
+            jaxbContext = JAXBContext.newInstance(Metadata.class, Policies.class);
             unmarshaller = jaxbContext.createUnmarshaller();
         } catch (JAXBException e) {
             throw new IOException("Unable to create JAXBContext!", e);
@@ -90,15 +115,76 @@ public class BagItAipReader {
         final String profileName = configurationService.getProperty(BAG_PROFILE_KEY, DEFAULT_PROFILE);
         this.profile = new BagProfile(BagProfile.BuiltIn.from(profileName));
 
-        // deserialize if necessary
+        // deserialize later if necessary
         if (Files.isRegularFile(bag)) {
-            final BagDeserializer deserializer = SerializationSupport.deserializerFor(bag, profile);
-            this.bag = deserializer.deserialize(bag);
+            this.archive = bag;
         } else {
+            this.archive = null;
             this.bag = bag;
         }
     }
 
+    /**
+     * Get the bag on disk, deserializing the aip if it has not been already
+     *
+     * @return the {@link Path} to the bag
+     * @throws IOException if there are any errors while deserializing the aip
+     */
+    private Path extracted() throws IOException {
+        if (bag == null) {
+            closeArchive();
+            // aips are always written with md5 manifests, so those can be checked against the extracted files
+            final ExtractionDigests digests = new ExtractionDigests("MD5");
+            final BagDeserializer deserializer = AipSerialization.deserializerFor(archive, profile, digests);
+            bag = deserializer.deserialize(archive);
+            extractionDigests = digests;
+        }
+        return bag;
+    }
+
+    /**
+     * Open a file in the data directory of the bag, reading it from the archive when the aip has not been extracted
+     *
+     * @param relativePath the path of the file, relative to the data directory
+     * @return the {@link InputStream} for the file
+     * @throws IOException if the file does not exist or cannot be read
+     */
+    private InputStream openData(final String relativePath) throws IOException {
+        if (bag == null && aipArchive == null) {
+            aipArchive = AipSerialization.archiveFor(archive);
+        }
+
+        if (bag == null && aipArchive != null) {
+            return aipArchive.open(dataDirectory + "/" + relativePath);
+        }
+        return Files.newInputStream(extracted().resolve(dataDirectory).resolve(relativePath));
+    }
+
+    /**
+     * Check if a file exists in the data directory of the bag
+     *
+     * @param relativePath the path of the file, relative to the data directory
+     * @return true if the file exists
+     * @throws IOException if the aip cannot be read
+     */
+    private boolean dataExists(final String relativePath) throws IOException {
+        if (bag == null && aipArchive == null) {
+            aipArchive = AipSerialization.archiveFor(archive);
+        }
+
+        if (bag == null && aipArchive != null) {
+            return aipArchive.exists(dataDirectory + "/" + relativePath);
+        }
+        return Files.exists(extracted().resolve(dataDirectory).resolve(relativePath));
+    }
+
+    private void closeArchive() throws IOException {
+        if (aipArchive != null) {
+            aipArchive.close();
+            aipArchive = null;
+        }
+    }
+
     /**
      * Validate that an AIP is in a BagIt format which passes both bagit-bag validation and bagit-profile validation
      *
@@ -107,9 +193,9 @@ public class BagItAipReader {
     public void validateBag() {
         final Bag locBag;
         final BagReader bagReader = new BagReader();
-        final BagVerifier verifier = new BagVerifier() ;
+        final BagItVerifier verifier = new BagItVerifier();
         try {
-            locBag = bagReader.read(bag);
+            locBag = bagReader.read(extracted());
         } catch (UnparsableVersionException | InvalidBagitFileFormatException | UnsupportedAlgorithmException
             | MaliciousPathException | IOException e) {
             throw new RuntimeException("Unable to read aip as a BagIt bag!", e);
@@ -117,7 +203,7 @@ public class BagItAipReader {
 
         try {
             profile.validateBag(locBag);
-            verifier.isValid(locBag, false);
+            verifier.verify(bag, extractionDigests);
         } catch (Exception e) {
             throw new RuntimeException("Unable to verify BagIt bag!", e);
         }
@@ -131,8 +217,7 @@ public class BagItAipReader {
      */
     public Properties readProperties() throws IOException {
         final Properties properties = new Properties();
-        final Path objectProperties = bag.resolve(dataDirectory).resolve("object.properties");
-        try (InputStream is = Files.newInputStream(objectProperties)) {
+        try (InputStream is = openData("object.properties")) {
             properties.load(is);
         }
         return properties;
@@ -150,10 +235,13 @@ public class BagItAipReader {
      */
     public List<String> readFile(String relativePath) {
         List<String> lines;
-        final Path file = bag.resolve(dataDirectory).resolve(relativePath);
 
-        try {
-            lines = Files.readAllLines(file, Charset.defaultCharset());
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openData(relativePath),
+                                                                              Charset.defaultCharset()))) {
+            lines = reader.lines().collect(Collectors.toList());
+        } catch (UncheckedIOException exception) {
+            logger.warn("Error reading data file {} in BagIt AIP", relativePath, exception);
+            lines = Collections.emptyList();
         } catch (IOException exception) {
             logger.warn("Error reading data file {} in BagIt AIP", relativePath, exception);
             lines = Collections.emptyList();
@@ -182,7 +270,8 @@ public class BagItAipReader {
         };
 
         Optional<Path> logo = Optional.absent();
-        try (DirectoryStream<Path> bitstreams = Files.newDirectoryStream(bag.resolve(dataDirectory), bitstreamFilter)) {
+        final Path data = extracted().resolve(dataDirectory);
+        try (DirectoryStream<Path> bitstreams = Files.newDirectoryStream(data, bitstreamFilter)) {
             final Iterator<Path> iterator = bitstreams.iterator();
             if (iterator.hasNext()) {
                 logo = Optional.of(iterator.next());
@@ -199,9 +288,8 @@ public class BagItAipReader {
      * @throws IOException if there was an error reading the file or parsing the xml
      */
     public Metadata readMetadata() throws IOException {
-        final Path xml = bag.resolve(dataDirectory).resolve(METADATA_XML);
-        try {
-            return (Metadata) unmarshaller.unmarshal(xml.toFile());
+        try (InputStream xml = openData(METADATA_XML)) {
+            return (Metadata) unmarshaller.unmarshal(xml);
         } catch (JAXBException e) {
             throw new IOException("Unable to read metadata.xml!", e);
         }
@@ -213,11 +301,10 @@ public class BagItAipReader {
      * @return the {@link Metadata} with values read from data/template-metadata.xml if it exists
      */
     public Optional<Metadata> findItemTemplate() throws IOException {
-        final Path template = bag.resolve(dataDirectory).resolve(TEMPLATE_XML);
         Metadata metadata = null;
-        if (Files.exists(template)) {
-            try {
-                metadata = (Metadata) unmarshaller.unmarshal(template.toFile());
+        if (dataExists(TEMPLATE_XML)) {
+            try (InputStream template = openData(TEMPLATE_XML)) {
+                metadata = (Metadata) unmarshaller.unmarshal(template);
             } catch (JAXBException e) {
                 throw new IOException("Unable to read template-metadata.xml for Collection!", e);
             }
@@ -234,9 +321,8 @@ public class BagItAipReader {
      * @throws IOException if there was an error reading the file or parsing the xml
      */
     public Policies readPolicy() throws IOException {
-        final Path xml = bag.resolve(dataDirectory).resolve(POLICY_XML);
-        try {
-            return (Policies) unmarshaller.unmarshal(xml.toFile());
+        try (InputStream xml = openData(POLICY_XML)) {
+            return (Policies) unmarshaller.unmarshal(xml);
         } catch (JAXBException e) {
             throw new IOException("Unable to read policy.xml!", e);
         }
@@ -246,89 +332,75 @@ public class BagItAipReader {
      * Attempt to find the data/roles.xml within a Bag. If it does not exist, return an empty {@link Optional}.
      *
      * @return an {@link Optional} containing the {@link Path} for the roles.xml, if it exists
+     * @throws IOException if there are any errors while deserializing the aip
      */
-    public Optional<Path> findRoles() {
-        final Path roles = bag.resolve(dataDirectory).resolve(ROLES_XML);
+    public Optional<Path> findRoles() throws IOException {
+        final Path roles = extracted().resolve(dataDirectory).resolve(ROLES_XML);
         return Files.exists(roles) ? Optional.of(roles) : Optional.<Path>absent();
     }
 
     /**
-     * Find any {@link org.dspace.content.Bitstream}s packaged in an aip and return path, bundle name, and metadata
+     * Find any {@link org.dspace.content.Bitstream}s packaged in an aip and return path, bundle name, and metadata.
+     * The bitstreams are found from the payload manifest of the bag, and the metadata and policies of each
+     * {@link PackagedBitstream} are read when they are first requested.
      *
      * @return a list of {@link PackagedBitstream}s found
      * @throws IOException if there are any errors searching for bitstreams
      */
     public List<PackagedBitstream> findBitstreams() throws IOException {
-        final Path data = bag.resolve(dataDirectory);
-
-        // build our regex
-        // matches bitstream_uuid OR bitstream_uuid.extension with a group for bitstream_uuid
-        final String bitstreamStart = "bitstream_";
-        final String relaxedUuid = "[\\w]{8}-[\\w]{4}-[\\w]{4}-[\\w]{4}-[\\w]{12}";
-        final String extension = "(\\..*)?";
-        final Pattern uuid = Pattern.compile("(?<uuid>" + bitstreamStart + relaxedUuid + ")" + extension);
-
-        // filter to find only directories (for bundle names)
-        final DirectoryStream.Filter<Path> directoryFilter = new DirectoryStream.Filter<Path>() {
-            @Override
-            public boolean accept(Path path) {
-                return Files.isDirectory(path);
-            }
-        };
+        final Path root = extracted();
 
-        // filter to find only the bitstream file
-        final DirectoryStream.Filter<Path> bitstreamFilter = new DirectoryStream.Filter<Path>() {
-            @Override
-            public boolean accept(Path path) {
-                return path.toFile().isFile() && uuid.matcher(path.getFileName().toString()).matches();
-            }
-        };
+        // every payload file is listed in the manifest, so use it instead of listing each bundle directory
+        final Path manifest = root.resolve(PAYLOAD_MANIFEST);
+        if (!Files.exists(manifest)) {
+            throw new IOException("Unable to find bitstreams, missing " + PAYLOAD_MANIFEST + " in " + root);
+        }
 
         final List<PackagedBitstream> packagedBitstreams = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            final String[] parts = line.trim().split("\\s+", 2);
+            if (parts.length != 2) {
+                continue;
+            }
 
-        // iterate all bundles
-        try (DirectoryStream<Path> directories = Files.newDirectoryStream(data, directoryFilter)) {
-            for (Path bundle : directories) {
-                final String bundleName = bundle.getFileName().toString();
-
-                // iterate all bitstreams
-                try (DirectoryStream<Path> bitstreams = Files.newDirectoryStream(bundle, bitstreamFilter)) {
-                    for (Path bitstream : bitstreams) {
-                        final String bitstreamName = bitstream.getFileName().toString();
-
-                        // load the bitstream metadata
-                        final Matcher matcher = uuid.matcher(bitstreamName);
-                        if (matcher.matches()) {
-                            final Policies policies;
-                            final Metadata metadata;
-
-                            final String uuidPath = matcher.group("uuid");
-                            final Path bsPolicy = bundle.resolve(uuidPath + "-" + POLICY_XML);
-                            final Path bsMetadata = bundle.resolve(uuidPath + "-" + METADATA_XML);
-                            try {
-                                policies = (Policies) unmarshaller.unmarshal(bsPolicy.toFile());
-                                metadata = (Metadata) unmarshaller.unmarshal(bsMetadata.toFile());
-                            } catch (JAXBException e) {
-                                throw new IOException("Unable to read bitstream xml!", e);
-                            }
-
-                            packagedBitstreams.add(new PackagedBitstream(bundleName, bitstream, metadata, policies));
-                        }
-                    }
-                }
+            // only data/bundle/bitstream_uuid OR data/bundle/bitstream_uuid.extension are bitstreams
+            final Matcher matcher = BITSTREAM.matcher(parts[1]);
+            if (matcher.matches()) {
+                final String bundleName = matcher.group("bundle");
+                final String uuidPath = matcher.group("uuid");
+                final Path bundle = root.resolve(dataDirectory).resolve(bundleName);
+                final Path bsPolicy = bundle.resolve(uuidPath + "-" + POLICY_XML);
+                final Path bsMetadata = bundle.resolve(uuidPath + "-" + METADATA_XML);
+
+                // the xml is only parsed when it is needed, with an Unmarshaller for each call as they are not
+                // thread safe
+                packagedBitstreams.add(new PackagedBitstream(bundleName, root.resolve(parts[1]),
+                                                             () -> (Metadata) unmarshalBitstreamXml(bsMetadata),
+                                                             () -> (Policies) unmarshalBitstreamXml(bsPolicy)));
             }
         }
 
         return packagedBitstreams;
     }
 
+    private Object unmarshalBitstreamXml(final Path xml) throws IOException {
+        try {
+            return jaxbContext.createUnmarshaller().unmarshal(xml.toFile());
+        } catch (JAXBException e) {
+            throw new IOException("Unable to read bitstream xml!", e);
+        }
+    }
+
     /**
-     * Finish operations and remove the aip
+     * Finish operations and remove the extracted aip, if it was extracted
      *
      * @throws IOException if there are any errors removing the aip
      */
     public void clean() throws IOException {
-        FileUtils.deleteDirectory(bag.toFile());
+        closeArchive();
+        if (bag != null) {
+            FileUtils.deleteDirectory(bag.toFile());
+        }
     }
 
 }
@@ -0,0 +1,453 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit;
+
+import static org.dspace.pack.bagit.BagItAipWriter.METADATA_XML;
+import static org.dspace.pack.bagit.BagItAipWriter.POLICY_XML;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.pack.bagit.serialize.AipSerialization;
+import org.dspace.pack.bagit.serialize.TarAipArchive;
+import org.dspace.pack.bagit.xml.metadata.Metadata;
+import org.dspace.pack.bagit.xml.policy.Policies;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read an archived Item aip in a single pass, without extracting it to disk.
+ * <p>
+ * Each bitstream in the payload is handed to a {@link PayloadConsumer} as it is read from the archive, while its MD5
+ * and size are recorded. All other files in the bag (tag files, metadata and policy xml, etc) are kept in memory, with
+ * the same limits as the {@link TarAipArchive}: a file larger than {@link TarAipArchive#MAX_CACHED_SIZE}, or which
+ * would take the total past {@link TarAipArchive#MAX_CACHED_TOTAL}, is written to a temporary file alongside the
+ * archive instead, which is deleted by {@link #close()}. Once the archive has been read, {@link #verify()} checks
+ * everything which was read against the md5 manifests of the bag, so anything created from the payload must be
+ * considered provisional until it succeeds.
+ *
+ * @author agent
+ */
+public class BagItAipStreamReader implements Closeable {
+
+    /**
+     * Receives each bitstream of the payload as it is read from the archive
+     */
+    @FunctionalInterface
+    public interface PayloadConsumer {
+
+        /**
+         * Consume a bitstream. The {@link InputStream} does not need to be read fully and must not be closed.
+         *
+         * @param bundle the name of the bundle the bitstream belongs to
+         * @param name   the name of the bitstream in the bag, e.g. bitstream_uuid.txt
+         * @param in     the {@link InputStream} for the bitstream
+         * @throws IOException        if there is an error reading the stream
+         * @throws SQLException       if there is a database error
+         * @throws AuthorizeException if the current user is not authorized
+         */
+        void accept(String bundle, String name, InputStream in) throws IOException, SQLException, AuthorizeException;
+    }
+
+    private static final String DATA_PREFIX = "data/";
+    private static final String BAG_INFO = "bag-info.txt";
+    private static final String PAYLOAD_OXUM = "Payload-Oxum";
+    private static final String MANIFEST = "manifest-md5.txt";
+    private static final String TAG_MANIFEST = "tagmanifest-md5.txt";
+    private static final String MD5 = "MD5";
+
+    // bitstreams are data/bundle/bitstream_uuid OR data/bundle/bitstream_uuid.extension
+    private static final Pattern BITSTREAM = Pattern.compile(
+        "data/(?<bundle>[^/]+)/(?<uuid>bitstream_[\\w]{8}-[\\w]{4}-[\\w]{4}-[\\w]{4}-[\\w]{12})(\\.[^/]*)?");
+
+    private final Logger logger = LoggerFactory.getLogger(BagItAipStreamReader.class);
+
+    private final Path archive;
+    private final boolean checkOxum;
+    private final Unmarshaller unmarshaller;
+
+    // the contents of the files which are not bitstreams, and the temporary files of those too large to keep
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final Map<String, Path> spilled = new HashMap<>();
+    private long filesBytes;
+    // the md5 of every file read, including bitstreams
+    private final Map<String, String> digests = new HashMap<>();
+    private long payloadOctets;
+    private long payloadCount;
+
+    /**
+     * Constructor
+     *
+     * @param archive the {@link Path} to the archived aip
+     * @throws IOException if the archive does not exist
+     */
+    public BagItAipStreamReader(final Path archive) throws IOException {
+        if (archive == null || !Files.isRegularFile(archive)) {
+            throw new IOException("Missing archive: " + archive);
+        }
+        this.archive = archive;
+
+        final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        this.checkOxum = configurationService.getBooleanProperty(BagItVerifier.VERIFY_OXUM_KEY, false);
+
+        try {
+            final JAXBContext jaxbContext = JAXBContext.newInstance(Metadata.class, Policies.class);
+            unmarshaller = jaxbContext.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new IOException("Unable to create JAXBContext!", e);
+        }
+    }
+
+    /**
+     * Read the archive, passing each bitstream to the {@link PayloadConsumer}
+     *
+     * @param consumer the {@link PayloadConsumer} for bitstreams
+     * @throws IOException        if there is an error reading the archive
+     * @throws SQLException       if the consumer has a database error
+     * @throws AuthorizeException if the consumer is not authorized
+     */
+    public void read(final PayloadConsumer consumer) throws IOException, SQLException, AuthorizeException {
+        try (ArchiveInputStream<? extends ArchiveEntry> entries = AipSerialization.streamFor(archive)) {
+            ArchiveEntry entry;
+            while ((entry = entries.getNextEntry()) != null) {
+                final String name = entry.getName();
+                final int separator = name.indexOf('/');
+                if (entry.isDirectory() || separator < 0) {
+                    continue;
+                }
+
+                // names within the bag, without the bag directory
+                final String relative = name.substring(separator + 1);
+                final MessageDigest messageDigest = md5();
+                final CountingInputStream counted = new CountingInputStream(entries);
+                final DigestInputStream digestIn = new DigestInputStream(counted, messageDigest);
+
+                final Matcher matcher = BITSTREAM.matcher(relative);
+                if (matcher.matches()) {
+                    final String filename = relative.substring(relative.lastIndexOf('/') + 1);
+                    consumer.accept(matcher.group("bundle"), filename, CloseShieldInputStream.wrap(digestIn));
+
+                    // hash anything which was not read by the consumer
+                    digestIn.transferTo(OutputStream.nullOutputStream());
+                } else {
+                    keep(relative, digestIn);
+                }
+
+                digests.put(relative, HexFormat.of().formatHex(messageDigest.digest()));
+                if (relative.startsWith(DATA_PREFIX)) {
+                    payloadOctets += counted.count;
+                    payloadCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the temporary files of any files which were too large to keep in memory
+     */
+    @Override
+    public void close() {
+        for (Path file : spilled.values()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Unable to delete temporary file {}", file, e);
+            }
+        }
+        spilled.clear();
+    }
+
+    /**
+     * Keep a file which is not a bitstream, in memory if it is within the limits and otherwise in a temporary file
+     *
+     * @param relative the name of the file, relative to the root of the bag
+     * @param in       the {@link InputStream} for the file
+     * @throws IOException if the file cannot be read or written
+     */
+    private void keep(final String relative, final InputStream in) throws IOException {
+        final byte[] head = in.readNBytes(TarAipArchive.MAX_CACHED_SIZE + 1);
+        if (head.length <= TarAipArchive.MAX_CACHED_SIZE &&
+            filesBytes + head.length <= TarAipArchive.MAX_CACHED_TOTAL) {
+            files.put(relative, head);
+            filesBytes += head.length;
+            return;
+        }
+
+        final Path file = Files.createTempFile(archive.toAbsolutePath().getParent(), "aip-", ".tmp");
+        spilled.put(relative, file);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(head);
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Open a file which is not a bitstream
+     *
+     * @param relative the name of the file, relative to the root of the bag
+     * @return the {@link InputStream} for the file, or null if the bag does not have it
+     * @throws IOException if the file cannot be opened
+     */
+    private InputStream open(final String relative) throws IOException {
+        final byte[] bytes = files.get(relative);
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        final Path file = spilled.get(relative);
+        return file != null ? Files.newInputStream(file) : null;
+    }
+
+    /**
+     * Read the lines of a file which is not a bitstream
+     *
+     * @param relative the name of the file, relative to the root of the bag
+     * @return the lines, or null if the bag does not have the file
+     * @throws IOException if the file cannot be read
+     */
+    private List<String> readLines(final String relative) throws IOException {
+        final InputStream in = open(relative);
+        if (in == null) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Verify everything which was read against the md5 manifests of the bag
+     *
+     * @throws IOException if the bag is not valid
+     */
+    public void verify() throws IOException {
+        if (!files.containsKey("bagit.txt") && !spilled.containsKey("bagit.txt")) {
+            throw new IOException("Missing bagit.txt in " + archive);
+        }
+        if (checkOxum) {
+            verifyPayloadOxum();
+        }
+
+        final Map<String, String> manifest = readManifest(MANIFEST);
+        if (manifest == null) {
+            throw new IOException("Missing " + MANIFEST + " in " + archive);
+        }
+
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            if (digest.getKey().startsWith(DATA_PREFIX) && !manifest.containsKey(digest.getKey())) {
+                throw new IOException("Payload file is not listed in " + MANIFEST + ": " + digest.getKey());
+            }
+        }
+        verifyManifest(MANIFEST, manifest);
+
+        final Map<String, String> tagManifest = readManifest(TAG_MANIFEST);
+        if (tagManifest != null) {
+            verifyManifest(TAG_MANIFEST, tagManifest);
+        }
+        logger.debug("Verified {} payload files in {}", payloadCount, archive);
+    }
+
+    /**
+     * Read the metadata.xml of the aip
+     *
+     * @return the {@link Metadata}
+     * @throws IOException if the file is missing or cannot be parsed
+     */
+    public Metadata readMetadata() throws IOException {
+        return (Metadata) unmarshal(DATA_PREFIX + METADATA_XML);
+    }
+
+    /**
+     * Read the policy.xml of the aip
+     *
+     * @return the {@link Policies}
+     * @throws IOException if the file is missing or cannot be parsed
+     */
+    public Policies readPolicy() throws IOException {
+        return (Policies) unmarshal(DATA_PREFIX + POLICY_XML);
+    }
+
+    /**
+     * Read the metadata of a bitstream passed to the {@link PayloadConsumer}
+     *
+     * @param bundle the name of the bundle
+     * @param name   the name of the bitstream in the bag
+     * @return the {@link Metadata} for the bitstream
+     * @throws IOException if the file is missing or cannot be parsed
+     */
+    public Metadata readBitstreamMetadata(final String bundle, final String name) throws IOException {
+        return (Metadata) unmarshal(bitstreamFile(bundle, name, METADATA_XML));
+    }
+
+    /**
+     * Read the policies of a bitstream passed to the {@link PayloadConsumer}
+     *
+     * @param bundle the name of the bundle
+     * @param name   the name of the bitstream in the bag
+     * @return the {@link Policies} for the bitstream
+     * @throws IOException if the file is missing or cannot be parsed
+     */
+    public Policies readBitstreamPolicy(final String bundle, final String name) throws IOException {
+        return (Policies) unmarshal(bitstreamFile(bundle, name, POLICY_XML));
+    }
+
+    private String bitstreamFile(final String bundle, final String name, final String suffix) throws IOException {
+        final Matcher matcher = BITSTREAM.matcher(DATA_PREFIX + bundle + "/" + name);
+        if (!matcher.matches()) {
+            throw new IOException("Not a bitstream: " + name);
+        }
+        return DATA_PREFIX + bundle + "/" + matcher.group("uuid") + "-" + suffix;
+    }
+
+    private Object unmarshal(final String relative) throws IOException {
+        final InputStream in = open(relative);
+        if (in == null) {
+            throw new IOException("Missing " + relative + " in " + archive);
+        }
+
+        try (in) {
+            return unmarshaller.unmarshal(in);
+        } catch (JAXBException e) {
+            throw new IOException("Unable to read " + relative + "!", e);
+        }
+    }
+
+    private void verifyPayloadOxum() throws IOException {
+        final List<String> bagInfo = readLines(BAG_INFO);
+        if (bagInfo == null) {
+            return;
+        }
+
+        for (String line : bagInfo) {
+            final int separator = line.indexOf(':');
+            if (separator > 0 && line.substring(0, separator).trim().equals(PAYLOAD_OXUM)) {
+                final String oxum = line.substring(separator + 1).trim();
+                final String actual = payloadOctets + "." + payloadCount;
+                if (!actual.equals(oxum)) {
+                    throw new IOException("Payload-Oxum of " + archive + " is " + oxum + " but the payload is " +
+                                          actual);
+                }
+            }
+        }
+    }
+
+    private void verifyManifest(final String name, final Map<String, String> manifest) throws IOException {
+        for (Map.Entry<String, String> entry : manifest.entrySet()) {
+            final String actual = digests.get(entry.getKey());
+            if (actual == null) {
+                throw new IOException("File listed in " + name + " does not exist: " + entry.getKey());
+            }
+            if (!actual.equalsIgnoreCase(entry.getValue())) {
+                throw new IOException("Checksum mismatch for " + entry.getKey() + ": expected " + entry.getValue() +
+                                      " but was " + actual);
+            }
+        }
+    }
+
+    /**
+     * Read a manifest into a map of file name to checksum
+     *
+     * @param name the name of the manifest
+     * @return the entries of the manifest, or null if the bag does not have the manifest
+     * @throws IOException if the manifest is not valid
+     */
+    private Map<String, String> readManifest(final String name) throws IOException {
+        final List<String> lines = readLines(name);
+        if (lines == null) {
+            return null;
+        }
+
+        final Map<String, String> manifest = new HashMap<>();
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            final String[] parts = line.trim().split("\\s+", 2);
+            if (parts.length != 2) {
+                throw new IOException("Invalid line in " + name + ": " + line);
+            }
+            final String path = parts[1].replace("%0A", "\n").replace("%0D", "\r").replace("%25", "%");
+            manifest.put(path, parts[0]);
+        }
+        return manifest;
+    }
+
+    private MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance(MD5);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported digest algorithm " + MD5, e);
+        }
+    }
+
+    /**
+     * Counts the bytes read from an archive entry, as the size of an entry is not always known up front
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+}
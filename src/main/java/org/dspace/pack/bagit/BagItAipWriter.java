@@ -18,16 +18,22 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.sql.SQLException;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.io.CountingOutputStream;
@@ -37,10 +43,12 @@ import jakarta.xml.bind.Marshaller;
 import org.apache.commons.io.FileUtils;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
 import org.dspace.content.factory.ContentServiceFactory;
 import org.dspace.content.service.BitstreamService;
 import org.dspace.core.Context;
 import org.dspace.core.Utils;
+import org.dspace.pack.bagit.serialize.AipSerialization;
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.policy.Policies;
 import org.dspace.pack.bagit.xml.roles.DSpaceRoles;
@@ -52,7 +60,6 @@ import org.duraspace.bagit.BagWriter;
 import org.duraspace.bagit.profile.BagProfile;
 import org.duraspace.bagit.profile.BagProfileConstants;
 import org.duraspace.bagit.serialize.BagSerializer;
-import org.duraspace.bagit.serialize.SerializationSupport;
 
 /**
  * The BagItAipWriter handles the packaging of DSpaceObjects into their respective bags. It processes the metadata and
@@ -82,12 +89,26 @@ public class BagItAipWriter {
 
     protected static final long DEFAULT_MODIFIED_DATE = 1036368000L * 1000;
 
+    /**
+     * Configuration for the bitstream formats which are already compressed, as mime types or file extensions
+     */
+    public static final String STORED_FORMATS_KEY = "replicate.packer.compression.stored";
+
+    /**
+     * Configuration for writing reproducible bags, so that an unchanged object always produces the same archive
+     */
+    public static final String REPRODUCIBLE_KEY = "replicate.packer.reproducible";
+    private static final String DEFAULT_STORED_FORMATS = "image/jpeg, image/png, image/gif, image/jp2, video/mp4, " +
+        "video/mpeg, video/quicktime, audio/mpeg, audio/mp4, application/zip, application/gzip, application/x-gzip, " +
+        "application/x-bzip2, application/x-7z-compressed, application/pdf";
+
     private final BitstreamService bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
 
     // Fields used for bookkeeping
     private final AtomicLong successBytes = new AtomicLong();
     private final AtomicLong successFiles = new AtomicLong();
     private final LinkedHashMap<File, String> checksums = new LinkedHashMap<>();
+    private final Set<Path> storedFiles = new HashSet<>();
 
     /**
      * The context to use
@@ -109,6 +130,11 @@ public class BagItAipWriter {
      */
     private final Map<String, List<String>> properties;
 
+    /**
+     * A Mapping of filenames to files which are copied into the data directory as they are
+     */
+    private final Map<String, Path> dataFiles = new TreeMap<>();
+
     /**
      * A logo for the package, or null if one does not exist
      */
@@ -139,6 +165,11 @@ public class BagItAipWriter {
      */
     private List<BagBitstream> bitstreams;
 
+    /**
+     * The last modified date of the DSpaceObject, or null if it is not tracked
+     */
+    private Instant lastModified;
+
     /**
      * Constructor for a {@link BagItAipWriter}. Takes a minimal set of information needed in order to write an AIP as a
      * BagIt bag for dspace consumption.
@@ -160,6 +191,19 @@ public class BagItAipWriter {
         this.bitstreams = Collections.emptyList();
     }
 
+    /**
+     * Add a file which is already on disk to the data directory of the bag. This allows large properties files, e.g.
+     * the members of a Site, to be written out incrementally instead of held in memory.
+     *
+     * @param filename the name of the file in the data directory
+     * @param source the {@link Path} of the file to copy in to the bag
+     * @return the {@link BagItAipWriter} used for creating the aip
+     */
+    public BagItAipWriter withDataFile(final String filename, final Path source) {
+        this.dataFiles.put(checkNotNull(filename), checkNotNull(source));
+        return this;
+    }
+
     /**
      * @param logo the {@link Bitstream} of the logo, or null
      * @return the {@link BagItAipWriter} used for creating the aip
@@ -214,8 +258,22 @@ public class BagItAipWriter {
         return this;
     }
 
+    /**
+     * @param lastModified the last modified date of the DSpaceObject, used for the Bagging-Date of reproducible bags
+     * @return the {@link BagItAipWriter} used for creating the aip
+     */
+    public BagItAipWriter withLastModified(final Instant lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
     /**
      * Create a serialized BagIt bag using the parameters the BagItAipWriter was instantiated with
+     * <p>
+     * When {@link #REPRODUCIBLE_KEY} is enabled, the same object will always produce a byte identical archive: archive
+     * entries are sorted and use a fixed modified time, tag files are written in a stable order and the Bagging-Date
+     * is taken from the last modified date of the object rather than the current date. This allows object stores to
+     * recognize that an unchanged AIP does not need to be transferred again.
      *
      * @return the location of the serialized bag, as a {@link File}
      * @throws IOException        if there are any errors writing to the bag
@@ -225,6 +283,11 @@ public class BagItAipWriter {
     public File packageAip() throws IOException, SQLException, AuthorizeException {
         final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
         final String profileName = configurationService.getProperty(BAG_PROFILE_KEY, DEFAULT_PROFILE);
+        final boolean reproducible = configurationService.getBooleanProperty(REPRODUCIBLE_KEY, false);
+        final Set<String> storedFormats = new HashSet<>();
+        for (String format : configurationService.getProperty(STORED_FORMATS_KEY, DEFAULT_STORED_FORMATS).split(",")) {
+            storedFormats.add(format.trim().toLowerCase(Locale.ROOT));
+        }
 
         // setup xml marshalling
         final Marshaller marshaller;
@@ -260,7 +323,7 @@ public class BagItAipWriter {
         }
 
         // Write the base properties files for the bag
-        for (String filename : properties.keySet()) {
+        for (String filename : new TreeMap<>(properties).keySet()) {
             final Path propertiesFile = dataDir.resolve(filename);
             if (Files.notExists(propertiesFile.getParent())) {
                 Files.createDirectories(propertiesFile.getParent());
@@ -282,6 +345,24 @@ public class BagItAipWriter {
             checksums.put(propertiesFile.toFile(), objFileDigest);
         }
 
+        // then any files which were written ahead of time
+        for (Map.Entry<String, Path> entry : dataFiles.entrySet()) {
+            final Path dataFile = dataDir.resolve(entry.getKey());
+            if (Files.notExists(dataFile.getParent())) {
+                Files.createDirectories(dataFile.getParent());
+            }
+
+            try (final OutputStream output = Files.newOutputStream(dataFile, StandardOpenOption.CREATE_NEW);
+                 final CountingOutputStream countingOS = new CountingOutputStream(output);
+                 final DigestOutputStream digestOS = new DigestOutputStream(countingOS, messageDigest)) {
+                Files.copy(entry.getValue(), digestOS);
+
+                successFiles.incrementAndGet();
+                successBytes.addAndGet(countingOS.getCount());
+            }
+            checksums.put(dataFile.toFile(), Utils.toHex(messageDigest.digest()));
+        }
+
         // then xml files: metadata, policies, roles
         writeXml(metadata, dataDir.resolve(METADATA_XML), marshaller, messageDigest);
         writeXml(itemTemplate, dataDir.resolve(TEMPLATE_XML), marshaller, messageDigest);
@@ -313,8 +394,12 @@ public class BagItAipWriter {
             } else {
                 // copy the bitstream
                 messageDigest.reset();
-                final String filename = createBitstreamFilename(bitstream, context);
+                final BitstreamFormat format = bitstreamService.getFormat(context, bitstream);
+                final String filename = createBitstreamFilename(bitstream, format);
                 final Path dataFile = bitstreamDirectory.resolve(filename);
+                if (isCompressed(format, storedFormats)) {
+                    storedFiles.add(dataFile.toAbsolutePath());
+                }
                 final InputStream is = bitstreamService.retrieve(context, bitstream);
 
                 try (OutputStream output = Files.newOutputStream(dataFile);
@@ -334,9 +419,13 @@ public class BagItAipWriter {
         // also add logo if it exists
         if (logo != null) {
             messageDigest.reset();
-            final String filename = createBitstreamFilename(logo, context);
+            final BitstreamFormat format = bitstreamService.getFormat(context, logo);
+            final String filename = createBitstreamFilename(logo, format);
             final InputStream logoIS = bitstreamService.retrieve(context, logo);
             final Path logoPath = dataDir.resolve(filename);
+            if (isCompressed(format, storedFormats)) {
+                storedFiles.add(logoPath.toAbsolutePath());
+            }
 
             try (OutputStream output = Files.newOutputStream(logoPath);
                  CountingOutputStream countingOS = new CountingOutputStream(output);
@@ -351,10 +440,11 @@ public class BagItAipWriter {
 
         // Finalize the Bag (write + serialize)
         bag.registerChecksums(digest, checksums);
-        bag.addTags(BagConfig.BAG_INFO_KEY, generateBagInfo(profile));
+        bag.addTags(BagConfig.BAG_INFO_KEY, generateBagInfo(profile, reproducible));
         bag.write();
 
-        final BagSerializer serializer = SerializationSupport.serializerFor(archFmt, profile);
+        final FileTime modified = reproducible ? FileTime.fromMillis(DEFAULT_MODIFIED_DATE) : null;
+        final BagSerializer serializer = AipSerialization.serializerFor(archFmt, profile, storedFiles, modified);
         final Path serializedBag = serializer.serialize(directory.toPath());
         delete(directory);
 
@@ -368,12 +458,11 @@ public class BagItAipWriter {
      * - file extension if found
      *
      * @param bitstream the Bitstream to create the filename for
-     * @param context   the curation Context
+     * @param format    the BitstreamFormat of the Bitstream
      * @return the filename
-     * @throws SQLException if the BitstreamFormat cannot be queried
      */
-    private String createBitstreamFilename(final Bitstream bitstream, final Context context) throws SQLException {
-        final List<String> extensions = bitstreamService.getFormat(context, bitstream).getExtensions();
+    private String createBitstreamFilename(final Bitstream bitstream, final BitstreamFormat format) {
+        final List<String> extensions = format.getExtensions();
 
         // build the filename
         final StringBuilder filename = new StringBuilder(BITSTREAM_PREFIX);
@@ -385,19 +474,51 @@ public class BagItAipWriter {
         return filename.toString();
     }
 
+    /**
+     * Check if a {@link BitstreamFormat} is already compressed, so that compressing it again while serializing the
+     * bag would only cost time. A format matches if either its mime type or one of its extensions is configured.
+     *
+     * @param format        the BitstreamFormat to check
+     * @param storedFormats the configured mime types and extensions, in lower case
+     * @return true if the format is already compressed
+     */
+    private boolean isCompressed(final BitstreamFormat format, final Set<String> storedFormats) {
+        final String mimeType = format.getMIMEType();
+        if (mimeType != null && storedFormats.contains(mimeType.toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+
+        for (String extension : format.getExtensions()) {
+            if (storedFormats.contains(extension.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Get system generated bag-info fields
      *
-     * @param profile The {@link BagProfile} being used to write a bag
+     * @param profile      The {@link BagProfile} being used to write a bag
+     * @param reproducible If the Bagging-Date should be derived from the object rather than the current date
      * @return A {@link Map} of the bag-info fields to their values
      */
-    private Map<String, String> generateBagInfo(final BagProfile profile) {
-        final Map<String, String> bagInfo = new HashMap<>();
+    private Map<String, String> generateBagInfo(final BagProfile profile, final boolean reproducible) {
+        final LocalDate baggingDate;
+        if (!reproducible) {
+            baggingDate = LocalDate.now();
+        } else if (lastModified != null) {
+            baggingDate = LocalDate.ofInstant(lastModified, ZoneOffset.UTC);
+        } else {
+            baggingDate = LocalDate.ofInstant(Instant.ofEpochMilli(DEFAULT_MODIFIED_DATE), ZoneOffset.UTC);
+        }
+
+        final Map<String, String> bagInfo = new TreeMap<>();
         final String identifier = profile.getProfileMetadata().get(BagProfileConstants.BAGIT_PROFILE_IDENTIFIER);
         bagInfo.put(BagProfileConstants.BAGIT_PROFILE_IDENTIFIER, identifier);
         bagInfo.put(BagConfig.BAG_SIZE_KEY, FileUtils.byteCountToDisplaySize(successBytes.get()));
         bagInfo.put(BagConfig.PAYLOAD_OXUM_KEY, successBytes.toString() + "." + successFiles.toString());
-        bagInfo.put(BagConfig.BAGGING_DATE_KEY, LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE));
+        bagInfo.put(BagConfig.BAGGING_DATE_KEY, baggingDate.format(DateTimeFormatter.ISO_LOCAL_DATE));
         return bagInfo;
     }
 
@@ -13,7 +13,9 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
@@ -48,6 +50,20 @@ public class BagItPolicyUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(BagItPolicyUtil.class);
 
+    /**
+     * The mapping between action String and Int representations
+     */
+    private static final BiMap<String, Integer> ACTIONS = ImmutableBiMap.<String, Integer>builder()
+                      .put("ADD", Constants.ADD)
+                      .put("READ", Constants.READ)
+                      .put("ADMIN", Constants.ADMIN)
+                      .put("WRITE", Constants.WRITE)
+                      .put("DELETE", Constants.DELETE)
+                      .put("REMOVE", Constants.REMOVE)
+                      .put("READ_ITEM", Constants.DEFAULT_ITEM_READ)
+                      .put("READ_BITSTREAM", Constants.DEFAULT_BITSTREAM_READ)
+            .build();
+
     /**
      * Private constructor for this utility class
      */
@@ -60,8 +76,21 @@ public class BagItPolicyUtil {
      * @return the {@link Policy}
      */
     public static Policies getPolicy(final Context context, final DSpaceObject dso) throws IOException {
+        return getPolicy(context, dso, new GroupNames());
+    }
+
+    /**
+     * Create a {@link Policy} for a {@link DSpaceObject}, reusing group names which have already been translated
+     *
+     * @param context the context to use
+     * @param dso The {@link DSpaceObject} to get the {@link Policy} for
+     * @param groupNames the {@link GroupNames} shared by all objects in the same package
+     * @return the {@link Policy}
+     */
+    public static Policies getPolicy(final Context context, final DSpaceObject dso, final GroupNames groupNames)
+        throws IOException {
         final Policies policies = new Policies();
-        final BiMap<Integer, String> actions = actionMapper().inverse();
+        final BiMap<Integer, String> actions = ACTIONS.inverse();
 
         for (ResourcePolicy resourcePolicy : dso.getResourcePolicies()) {
             final Policy policy = new Policy();
@@ -90,7 +119,7 @@ public class BagItPolicyUtil {
                     policy.setGroup(Group.ADMIN);
                 } else {
                     try {
-                        policy.setGroup(PackageUtils.translateGroupNameForExport(context, groupName));
+                        policy.setGroup(groupNames.forExport(context, groupName));
                     } catch (PackageException exception) {
                         // since this is called by a Packer, wrap the PackageException in an IOException so it can
                         // continue to be thrown up the stack
@@ -126,6 +155,22 @@ public class BagItPolicyUtil {
      */
     public static void registerPolicies(final Context context, final DSpaceObject dSpaceObject, final Policies policies)
         throws SQLException, AuthorizeException, PackageException {
+        registerPolicies(context, dSpaceObject, policies, new GroupNames());
+    }
+
+    /**
+     * Register all policies found from {@link Policies#getPolicies()}, reusing group names which have already been
+     * translated
+     *
+     * @param context the context to use
+     * @param dSpaceObject the {@link DSpaceObject} to register policies for
+     * @param policies the {@link Policies} pojo to create each {@link ResourcePolicy}
+     * @param groupNames the {@link GroupNames} shared by all objects in the same package
+     * @see #registerPolicies(Context, DSpaceObject, Policies)
+     */
+    public static void registerPolicies(final Context context, final DSpaceObject dSpaceObject, final Policies policies,
+                                        final GroupNames groupNames)
+        throws SQLException, AuthorizeException, PackageException {
         final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 
         final GroupService groupService = EPersonServiceFactory.getInstance().getGroupService();
@@ -150,7 +195,7 @@ public class BagItPolicyUtil {
                 if (groupName.equalsIgnoreCase(Group.ADMIN) || groupName.equalsIgnoreCase(Group.ANONYMOUS)) {
                     nameForImport = groupName;
                 } else {
-                    nameForImport = PackageUtils.translateGroupNameForImport(context, groupName);
+                    nameForImport = groupNames.forImport(context, groupName);
                 }
 
                 group = groupService.findByName(context, nameForImport);
@@ -209,7 +254,7 @@ public class BagItPolicyUtil {
                 }
             }
 
-            final Integer action = actionMapper().get(policy.getAction());
+            final Integer action = ACTIONS.get(policy.getAction());
             // exception if null?
             if (action != null) {
                 resourcePolicy.setAction(action);
@@ -228,21 +273,51 @@ public class BagItPolicyUtil {
     }
 
     /**
-     * This is pretty light so just recreate it so it can be gc'd later
-     *
-     * @return the mapping between action String and Int representations
+     * Translates group names between their database and exported forms, remembering each translation. Translating a
+     * group name which refers to a Community or Collection requires database lookups, and an Item and its Bitstreams
+     * will usually share the same few groups, so a single instance should be used for all the objects in one package.
+     * <p>
+     * An instance is not thread safe and should not be kept longer than the Context it is used with.
      */
-    private static BiMap<String, Integer> actionMapper() {
-        return ImmutableBiMap.<String, Integer>builder()
-                      .put("ADD", Constants.ADD)
-                      .put("READ", Constants.READ)
-                      .put("ADMIN", Constants.ADMIN)
-                      .put("WRITE", Constants.WRITE)
-                      .put("DELETE", Constants.DELETE)
-                      .put("REMOVE", Constants.REMOVE)
-                      .put("READ_ITEM", Constants.DEFAULT_ITEM_READ)
-                      .put("READ_BITSTREAM", Constants.DEFAULT_BITSTREAM_READ)
-            .build();
+    public static class GroupNames {
+        private final Map<String, String> exported = new HashMap<>();
+        private final Map<String, String> imported = new HashMap<>();
+
+        /**
+         * Translate a group name for export
+         *
+         * @param context the context to use
+         * @param groupName the name of the group in the database
+         * @return the name of the group to write to a package
+         * @throws PackageException if the group name cannot be translated
+         * @see PackageUtils#translateGroupNameForExport(Context, String)
+         */
+        public String forExport(final Context context, final String groupName) throws PackageException {
+            String translated = exported.get(groupName);
+            if (translated == null) {
+                translated = PackageUtils.translateGroupNameForExport(context, groupName);
+                exported.put(groupName, translated);
+            }
+            return translated;
+        }
+
+        /**
+         * Translate a group name for import
+         *
+         * @param context the context to use
+         * @param groupName the name of the group in a package
+         * @return the name of the group in the database
+         * @throws PackageException if the group name cannot be translated
+         * @see PackageUtils#translateGroupNameForImport(Context, String)
+         */
+        public String forImport(final Context context, final String groupName) throws PackageException {
+            String translated = imported.get(groupName);
+            if (translated == null) {
+                translated = PackageUtils.translateGroupNameForImport(context, groupName);
+                imported.put(groupName, translated);
+            }
+            return translated;
+        }
     }
 
 }
@@ -7,13 +7,29 @@
  */
 package org.dspace.pack.bagit;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.List;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.XMLEvent;
 
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
@@ -41,6 +57,18 @@ import org.dspace.pack.bagit.xml.roles.Person;
  */
 public class BagItRolesUtil {
 
+    // element names of the DSpaceRoles xml
+    private static final String ROLES = "DSpaceRoles";
+    private static final String GROUPS = "Groups";
+    private static final String GROUP = "Group";
+    private static final String PEOPLE = "People";
+    private static final String PERSON = "Person";
+
+    // the number of groups or epeople to query at a time when writing roles
+    private static final int PAGE_SIZE = 500;
+    // the number of epeople to pass to the RoleIngester at a time when ingesting roles
+    private static final int INGEST_CHUNK_SIZE = 500;
+
     /**
      * Private constructor for this utility class
      */
@@ -75,6 +103,67 @@ public class BagItRolesUtil {
         return dSpaceRoles;
     }
 
+    /**
+     * Write all roles in a DSpace site to an xml file. This produces the same xml as marshalling
+     * {@link #getDSpaceRoles(Context, Site)}, but {@link Group}s and {@link EPerson}s are queried a page at a time and
+     * written as they are read, so the roles of a large site never need to be held in memory.
+     *
+     * @param context the context to use
+     * @param site the Site to write all roles for
+     * @param xml the file to write the roles to
+     * @throws IOException if there are any errors writing the xml
+     * @throws SQLException if there are any errors querying the database
+     * @throws PackageException if there are any errors translating group names
+     */
+    public static void writeDSpaceRoles(final Context context, final Site site, final Path xml)
+        throws IOException, SQLException, PackageException {
+        final GroupService groupService = EPersonServiceFactory.getInstance().getGroupService();
+        final EPersonService ePersonService = EPersonServiceFactory.getInstance().getEPersonService();
+
+        try (OutputStream output = Files.newOutputStream(xml)) {
+            final Marshaller marshaller = JAXBContext.newInstance(DSpaceRoles.class).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+            final XMLStreamWriter writer = XMLOutputFactory.newFactory().createXMLStreamWriter(output, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ROLES);
+
+            writer.writeStartElement(GROUPS);
+            int offset = 0;
+            List<Group> groups;
+            do {
+                groups = groupService.findAll(context, null, PAGE_SIZE, offset);
+                for (Group group : groups) {
+                    final AssociatedGroup associatedGroup = new AssociatedGroup(context, site, group);
+                    marshaller.marshal(new JAXBElement<>(new QName(GROUP), AssociatedGroup.class, associatedGroup),
+                                       writer);
+                }
+                offset += groups.size();
+            } while (groups.size() == PAGE_SIZE);
+            writer.writeEndElement();
+
+            writer.writeStartElement(PEOPLE);
+            offset = 0;
+            List<EPerson> ePeople;
+            do {
+                ePeople = ePersonService.findAll(context, EPerson.EMAIL, PAGE_SIZE, offset);
+                for (EPerson ePerson : ePeople) {
+                    marshaller.marshal(new JAXBElement<>(new QName(PERSON), Person.class, new Person(ePerson)),
+                                       writer);
+                    context.uncacheEntity(ePerson);
+                }
+                offset += ePeople.size();
+            } while (ePeople.size() == PAGE_SIZE);
+            writer.writeEndElement();
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (JAXBException | XMLStreamException e) {
+            throw new IOException("Unable to write roles to " + xml, e);
+        }
+    }
+
     /**
      * Retrieve all roles for a {@link Community}. Only queries for {@link Group}s which belong to the given
      * {@link Community}.
@@ -159,6 +248,9 @@ public class BagItRolesUtil {
      * Ingest an xml file and search for any DSpaceRoles. This is essentially a pass through to
      * {@link RoleIngester#ingestStream} as the DSpaceRoles schema is well defined.
      *
+     * The xml is read as a stream rather than as a single document: EPeople are passed to the {@link RoleIngester} a
+     * few hundred at a time, followed by all Groups together, as Groups may refer to any EPerson or other Group.
+     *
      * @param context the context to use
      * @param dso the DSpaceObject to ingest roles on
      * @param xml the path to the xml files containing the DSpaceRoles
@@ -173,7 +265,83 @@ public class BagItRolesUtil {
         parameters.setKeepExistingModeEnabled(true);
         final RoleIngester roleIngester = new RoleIngester();
 
+        try {
+            ingestElements(context, dso, xml, PEOPLE, PERSON, INGEST_CHUNK_SIZE, roleIngester, parameters);
+            ingestElements(context, dso, xml, GROUPS, GROUP, Integer.MAX_VALUE, roleIngester, parameters);
+        } catch (XMLStreamException e) {
+            throw new PackageException("Unable to read roles from " + xml, e);
+        }
+    }
+
+    /**
+     * Copy each top level {@code element} of a roles xml file in to smaller DSpaceRoles documents of at most
+     * {@code chunkSize} elements, and ingest each document with the {@link RoleIngester}
+     */
+    private static void ingestElements(final Context context, final DSpaceObject dso, final Path xml,
+                                       final String wrapper, final String element, final int chunkSize,
+                                       final RoleIngester roleIngester, final PackageParameters parameters)
+        throws IOException, XMLStreamException, SQLException, PackageException, AuthorizeException {
+        final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+        final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
         try (InputStream inputStream = Files.newInputStream(xml)) {
+            final XMLEventReader reader = inputFactory.createXMLEventReader(inputStream);
+            ByteArrayOutputStream chunk = null;
+            XMLEventWriter writer = null;
+            int count = 0;
+            int depth = 0;
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (depth == 0) {
+                    // outside of an element we want, so skip until the next one starts
+                    if (!event.isStartElement() ||
+                        !element.equals(event.asStartElement().getName().getLocalPart())) {
+                        continue;
+                    }
+
+                    if (writer == null) {
+                        chunk = new ByteArrayOutputStream();
+                        writer = outputFactory.createXMLEventWriter(chunk, "UTF-8");
+                        writer.add(eventFactory.createStartDocument("UTF-8", "1.0"));
+                        writer.add(eventFactory.createStartElement("", "", ROLES));
+                        writer.add(eventFactory.createStartElement("", "", wrapper));
+                    }
+                }
+
+                writer.add(event);
+                if (event.isStartElement()) {
+                    depth++;
+                } else if (event.isEndElement()) {
+                    depth--;
+                    if (depth == 0 && ++count == chunkSize) {
+                        ingestChunk(context, dso, writer, eventFactory, wrapper, chunk, roleIngester, parameters);
+                        writer = null;
+                        count = 0;
+                    }
+                }
+            }
+            reader.close();
+
+            if (writer != null) {
+                ingestChunk(context, dso, writer, eventFactory, wrapper, chunk, roleIngester, parameters);
+            }
+        }
+    }
+
+    private static void ingestChunk(final Context context, final DSpaceObject dso, final XMLEventWriter writer,
+                                    final XMLEventFactory eventFactory, final String wrapper,
+                                    final ByteArrayOutputStream chunk, final RoleIngester roleIngester,
+                                    final PackageParameters parameters)
+        throws IOException, XMLStreamException, SQLException, PackageException, AuthorizeException {
+        writer.add(eventFactory.createEndElement("", "", wrapper));
+        writer.add(eventFactory.createEndElement("", "", ROLES));
+        writer.add(eventFactory.createEndDocument());
+        writer.close();
+
+        try (InputStream inputStream = new ByteArrayInputStream(chunk.toByteArray())) {
             roleIngester.ingestStream(context, dso, parameters, inputStream);
         }
     }
@@ -0,0 +1,362 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.collect.ImmutableMap;
+import org.dspace.pack.bagit.serialize.ExtractionDigests;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verify the contents of a bag against its manifests.
+ * <p>
+ * When enabled by {@link #VERIFY_OXUM_KEY}, the Payload-Oxum from the bag-info.txt is checked first so a bag which is
+ * missing files or has truncated files fails without reading any payload. Each manifest entry is then hashed on a
+ * bounded pool of threads (configured by {@link #VERIFY_THREADS_KEY}) and verification stops at the first entry which
+ * does not match. If the bag was just extracted, the {@link ExtractionDigests} recorded while writing the files can be
+ * used so that the payload is not read a second time.
+ *
+ * @author agent
+ */
+public class BagItVerifier {
+
+    /**
+     * Configuration for the number of threads used to hash files, defaults to the number of available processors
+     */
+    public static final String VERIFY_THREADS_KEY = "replicate.packer.verify.threads";
+
+    /**
+     * Configuration for checking the Payload-Oxum before any files are hashed. This is off unless configured, as bags
+     * which were not written by the replication tasks do not always have an accurate Payload-Oxum.
+     */
+    public static final String VERIFY_OXUM_KEY = "replicate.packer.verify.oxum";
+
+    private static final String DATA_DIRECTORY = "data";
+    private static final String BAG_INFO = "bag-info.txt";
+    private static final String PAYLOAD_OXUM = "Payload-Oxum";
+    private static final String MANIFEST_PREFIX = "manifest-";
+    private static final String TAG_MANIFEST_PREFIX = "tagmanifest-";
+    private static final String MANIFEST_SUFFIX = ".txt";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // bagit algorithm names to their MessageDigest names
+    private static final Map<String, String> ALGORITHMS = ImmutableMap.of("md5", "MD5",
+                                                                          "sha1", "SHA-1",
+                                                                          "sha256", "SHA-256",
+                                                                          "sha512", "SHA-512");
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final Logger logger = LoggerFactory.getLogger(BagItVerifier.class);
+
+    private final int threads;
+    private final boolean checkOxum;
+
+    /**
+     * Create a {@link BagItVerifier} using the configured number of threads and Payload-Oxum check
+     */
+    public BagItVerifier() {
+        final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int configured = configurationService.getIntProperty(VERIFY_THREADS_KEY, processors);
+        this.threads = configured > 0 ? configured : processors;
+        this.checkOxum = configurationService.getBooleanProperty(VERIFY_OXUM_KEY, false);
+    }
+
+    /**
+     * Create a {@link BagItVerifier}
+     *
+     * @param threads   the number of threads to hash files with
+     * @param checkOxum if the Payload-Oxum should be checked before hashing any files
+     */
+    public BagItVerifier(final int threads, final boolean checkOxum) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one verification thread is required");
+        }
+        this.threads = threads;
+        this.checkOxum = checkOxum;
+    }
+
+    /**
+     * Verify a bag
+     *
+     * @param root    the {@link Path} to the root of the bag
+     * @param digests the {@link ExtractionDigests} recorded when the bag was extracted, or null to hash every file
+     * @throws IOException if the bag is not valid or cannot be read
+     */
+    public void verify(final Path root, final ExtractionDigests digests) throws IOException {
+        final Path bag = root.toAbsolutePath().normalize();
+        final Path data = bag.resolve(DATA_DIRECTORY);
+        final Set<Path> payload;
+        try (Stream<Path> walk = Files.walk(data)) {
+            payload = walk.filter(Files::isRegularFile).collect(Collectors.toSet());
+        }
+
+        if (checkOxum) {
+            verifyPayloadOxum(bag, payload);
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        int payloadManifests = 0;
+        try (DirectoryStream<Path> manifests = Files.newDirectoryStream(bag, MANIFEST_PREFIX + "*" + MANIFEST_SUFFIX)) {
+            for (Path manifest : manifests) {
+                payloadManifests++;
+                final List<Entry> manifestEntries = readManifest(bag, manifest, MANIFEST_PREFIX);
+
+                // every file in the payload needs to be listed, and every file listed needs to be in the payload
+                final Set<Path> listed = new HashSet<>();
+                for (Entry entry : manifestEntries) {
+                    if (!payload.contains(entry.file)) {
+                        throw new IOException("File listed in " + manifest.getFileName() + " is not in the payload: "
+                                              + bag.relativize(entry.file));
+                    }
+                    listed.add(entry.file);
+                }
+                for (Path file : payload) {
+                    if (!listed.contains(file)) {
+                        throw new IOException("Payload file is not listed in " + manifest.getFileName() + ": "
+                                              + bag.relativize(file));
+                    }
+                }
+                entries.addAll(manifestEntries);
+            }
+        }
+        if (payloadManifests == 0) {
+            throw new IOException("No payload manifest found in bag " + bag);
+        }
+
+        try (DirectoryStream<Path> manifests = Files.newDirectoryStream(bag,
+                                                                        TAG_MANIFEST_PREFIX + "*" + MANIFEST_SUFFIX)) {
+            for (Path manifest : manifests) {
+                for (Entry entry : readManifest(bag, manifest, TAG_MANIFEST_PREFIX)) {
+                    if (!Files.isRegularFile(entry.file)) {
+                        throw new IOException("File listed in " + manifest.getFileName() + " does not exist: "
+                                              + bag.relativize(entry.file));
+                    }
+                    entries.add(entry);
+                }
+            }
+        }
+
+        verifyEntries(bag, entries, digests);
+    }
+
+    /**
+     * Check the Payload-Oxum of the bag, if it has one, against the size and number of files in the payload
+     *
+     * @param bag     the {@link Path} to the root of the bag
+     * @param payload the files in the payload
+     * @throws IOException if the Payload-Oxum does not match
+     */
+    private void verifyPayloadOxum(final Path bag, final Set<Path> payload) throws IOException {
+        final Path bagInfo = bag.resolve(BAG_INFO);
+        if (!Files.exists(bagInfo)) {
+            return;
+        }
+
+        String oxum = null;
+        for (String line : Files.readAllLines(bagInfo, StandardCharsets.UTF_8)) {
+            final int separator = line.indexOf(':');
+            if (separator > 0 && line.substring(0, separator).trim().equals(PAYLOAD_OXUM)) {
+                oxum = line.substring(separator + 1).trim();
+            }
+        }
+        if (oxum == null) {
+            return;
+        }
+
+        long octets = 0;
+        for (Path file : payload) {
+            octets += Files.size(file);
+        }
+
+        final String actual = octets + "." + payload.size();
+        if (!actual.equals(oxum)) {
+            throw new IOException("Payload-Oxum of bag " + bag + " is " + oxum + " but the payload is " + actual);
+        }
+    }
+
+    /**
+     * Hash each entry on the thread pool, stopping at the first entry which does not match
+     *
+     * @param bag     the {@link Path} to the root of the bag
+     * @param entries the manifest entries to verify
+     * @param digests the {@link ExtractionDigests} recorded when the bag was extracted, or null
+     * @throws IOException if an entry does not match or cannot be read
+     */
+    private void verifyEntries(final Path bag, final List<Entry> entries, final ExtractionDigests digests)
+        throws IOException {
+        final List<Entry> toHash = new ArrayList<>();
+        for (Entry entry : entries) {
+            final String extracted = digests != null && digests.getAlgorithm().equals(entry.algorithm) ?
+                                     digests.get(entry.file) : null;
+            if (extracted == null) {
+                toHash.add(entry);
+            } else if (!extracted.equalsIgnoreCase(entry.checksum)) {
+                throw checksumMismatch(bag, entry, extracted);
+            }
+        }
+        logger.debug("Verifying {} entries in bag {}, {} from extraction", entries.size(), bag,
+                     entries.size() - toHash.size());
+        if (toHash.isEmpty()) {
+            return;
+        }
+
+        final String poolName = "bagit-verify-" + POOL_COUNT.incrementAndGet() + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, toHash.size()), runnable -> {
+            final Thread thread = new Thread(runnable, poolName + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for (Entry entry : toHash) {
+                completion.submit(() -> {
+                    final String actual = hash(entry);
+                    if (!actual.equalsIgnoreCase(entry.checksum)) {
+                        throw checksumMismatch(bag, entry, actual);
+                    }
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < toHash.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying bag " + bag);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Unable to verify bag " + bag, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String hash(final Entry entry) throws IOException {
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(entry.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported digest algorithm " + entry.algorithm, e);
+        }
+
+        try (InputStream is = new DigestInputStream(new BufferedInputStream(Files.newInputStream(entry.file),
+                                                                            BUFFER_SIZE), messageDigest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(messageDigest.digest());
+    }
+
+    private IOException checksumMismatch(final Path bag, final Entry entry, final String actual) {
+        return new IOException("Checksum mismatch for " + bag.relativize(entry.file) + ": expected " +
+                               entry.checksum + " but was " + actual);
+    }
+
+    /**
+     * Read the entries from a manifest
+     *
+     * @param bag      the {@link Path} to the root of the bag
+     * @param manifest the {@link Path} to the manifest
+     * @param prefix   the prefix of the manifest name, used to find the algorithm
+     * @return the entries of the manifest
+     * @throws IOException if the manifest cannot be read or uses an unsupported algorithm
+     */
+    private List<Entry> readManifest(final Path bag, final Path manifest, final String prefix) throws IOException {
+        final String filename = manifest.getFileName().toString();
+        final String bagitAlgorithm = filename.substring(prefix.length(), filename.length() - MANIFEST_SUFFIX.length());
+        final String algorithm = ALGORITHMS.get(bagitAlgorithm.toLowerCase(Locale.ROOT));
+        if (algorithm == null) {
+            throw new IOException("Unsupported manifest algorithm in " + filename);
+        }
+
+        final Map<Path, Entry> entries = new HashMap<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+
+            final String[] parts = line.trim().split("\\s+", 2);
+            if (parts.length != 2) {
+                throw new IOException("Invalid line in " + filename + ": " + line);
+            }
+
+            final Path file = bag.resolve(decodePath(parts[1])).normalize();
+            if (!file.startsWith(bag)) {
+                throw new IOException("File listed in " + filename + " is outside of the bag: " + parts[1]);
+            }
+            entries.put(file, new Entry(file, algorithm, parts[0]));
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Decode the characters which BagIt requires to be percent encoded in manifest paths
+     *
+     * @param path the path from the manifest
+     * @return the decoded path
+     */
+    private String decodePath(final String path) {
+        return path.replace("%0A", "\n")
+                   .replace("%0D", "\r")
+                   .replace("%25", "%");
+    }
+
+    /**
+     * A single line of a manifest
+     */
+    private static class Entry {
+        private final Path file;
+        private final String algorithm;
+        private final String checksum;
+
+        Entry(final Path file, final String algorithm, final String checksum) {
+            this.file = file;
+            this.algorithm = algorithm;
+            this.checksum = checksum;
+        }
+    }
+
+}
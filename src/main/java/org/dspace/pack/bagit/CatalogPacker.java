@@ -36,10 +36,17 @@ import org.dspace.services.factory.DSpaceServicesFactory;
  * CatalogPacker packs and unpacks Object catalogs in Bagit format. These
  * catalogs are typically used as deletion 'receipts' - i.e. records of what
  * was deleted.
+ * <p>
+ * When replicate.packer.catalog.format is 'line', catalogs are instead written
+ * as a single line oriented {@link DeletionCatalog} file, which avoids building
+ * a bag for every deletion. Catalogs in either format can always be unpacked.
  *
  * @author richardrodgers
  */
 public class CatalogPacker implements Packer {
+    public static final String CATALOG_FORMAT_KEY = "replicate.packer.catalog.format";
+    public static final String LINE_FORMAT = "line";
+
     private final ConfigurationService configurationService =
         DSpaceServicesFactory.getInstance().getConfigurationService();
 
@@ -47,8 +54,11 @@ public class CatalogPacker implements Packer {
     private final String objectId;
     private String ownerId = null;
     private List<String> members = null;
-    // Package compression format (e.g. zip or tgz) - Catalog packer uses same as AIPs
+    // Package compression format (e.g. zip, tgz or tar.zst) - Catalog packer uses same as AIPs
     private final String archFmt = configurationService.getProperty("replicate.packer.archfmt");
+    // write catalogs as a DeletionCatalog instead of a bag
+    private final boolean lineFormat =
+        LINE_FORMAT.equalsIgnoreCase(configurationService.getProperty(CATALOG_FORMAT_KEY));
 
     public CatalogPacker(Context context, String objectId) {
         this.context = context;
@@ -72,6 +82,12 @@ public class CatalogPacker implements Packer {
 
     @Override
     public File pack(File packDir) throws IOException, SQLException, AuthorizeException {
+        if (lineFormat) {
+            final File catalog = new File(packDir.getPath() + "." + DeletionCatalog.EXTENSION);
+            new DeletionCatalog(objectId, ownerId, System.currentTimeMillis(), members).write(catalog.toPath());
+            return catalog;
+        }
+
         final Map<String, List<String>> properties = new HashMap<>();
         // object.properties
         final List<String> objectProperties = new ArrayList<>();
@@ -98,6 +114,13 @@ public class CatalogPacker implements Packer {
             throw new IOException("Missing archive for catalog: " + objectId);
         }
 
+        if (DeletionCatalog.isCatalog(archive.toPath())) {
+            final DeletionCatalog catalog = DeletionCatalog.read(archive.toPath());
+            ownerId = catalog.getOwnerId();
+            members = catalog.getMembers();
+            return;
+        }
+
         final BagItAipReader reader = new BagItAipReader(archive.toPath());
         reader.validateBag();
 
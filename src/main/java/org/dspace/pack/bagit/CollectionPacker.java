@@ -23,7 +23,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -42,11 +41,12 @@ import org.dspace.content.service.CollectionService;
 import org.dspace.content.service.ItemService;
 import org.dspace.core.Context;
 import org.dspace.pack.Packer;
-import org.dspace.pack.PackerFactory;
+import org.dspace.pack.SizeEstimator;
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.metadata.Value;
 import org.dspace.pack.bagit.xml.policy.Policies;
 import org.dspace.pack.bagit.xml.roles.DSpaceRoles;
+import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
  * CollectionPacker packs and unpacks Collection AIPs in BagIt bags
@@ -206,17 +206,10 @@ public class CollectionPacker implements Packer {
 
         // proceed to items, unless 'norecurse' set
         if (!"norecurse".equals(method)) {
-            Iterator<Item> itemIter = itemService.findByCollection(context, collection);
-            ItemPacker iPup = null;
-            while (itemIter.hasNext()) {
-                if (iPup == null) {
-                    iPup = (ItemPacker)PackerFactory.instance(context, itemIter.next());
-                } else {
-                    iPup.setItem(itemIter.next());
-                }
-
-                size += iPup.size(method);
-            }
+            // the estimate covers the logo as well
+            final String cfilter = DSpaceServicesFactory.getInstance().getConfigurationService()
+                                                        .getProperty("replicate.packer.cfilter");
+            size = new SizeEstimator(context, cfilter).estimate(collection).getSize();
         }
 
         return size;
@@ -30,7 +30,6 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
-import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.MetadataFieldName;
 import org.dspace.content.factory.ContentServiceFactory;
@@ -38,11 +37,12 @@ import org.dspace.content.packager.PackageException;
 import org.dspace.content.service.CommunityService;
 import org.dspace.core.Context;
 import org.dspace.pack.Packer;
-import org.dspace.pack.PackerFactory;
+import org.dspace.pack.SizeEstimator;
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.metadata.Value;
 import org.dspace.pack.bagit.xml.policy.Policies;
 import org.dspace.pack.bagit.xml.roles.DSpaceRoles;
+import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
  * CommunityPacker Packs and unpacks Community AIPs in Bagit format.
@@ -175,12 +175,10 @@ public class CommunityPacker implements Packer {
 
         // proceed to children, unless 'norecurse' set
         if (!"norecurse".equals(method)) {
-            for (Community comm : community.getSubcommunities()) {
-                size += PackerFactory.instance(context, comm).size(method);
-            }
-            for (Collection coll : community.getCollections()) {
-                size += PackerFactory.instance(context, coll).size(method);
-            }
+            // the estimate covers the logo as well
+            final String cfilter = DSpaceServicesFactory.getInstance().getConfigurationService()
+                                                        .getProperty("replicate.packer.cfilter");
+            size = new SizeEstimator(context, cfilter).estimate(community).getSize();
         }
 
         return size;
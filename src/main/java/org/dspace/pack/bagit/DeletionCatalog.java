@@ -0,0 +1,229 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit;
+
+import static org.dspace.pack.PackerFactory.CREATE_TS;
+import static org.dspace.pack.PackerFactory.OBJECT_ID;
+import static org.dspace.pack.PackerFactory.OWNER_ID;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A deletion catalog in a single line oriented text file. This holds the same information as a catalog packaged as a
+ * bag by the {@link CatalogPacker} (the id and owner of the deleted object, and the ids of all deleted members) without
+ * the cost of creating, validating and archiving a bag.
+ * <p>
+ * The file is UTF-8 text with one tab separated key and value per line. The first line is a header identifying the
+ * format, and the last line holds the MD5 checksum of every line before it:
+ * <pre>
+ * DSpace-Deletion-Catalog    1
+ * objectId    123456789/1
+ * ownerId    123456789/0
+ * created    1584556800000
+ * member    123456789/2
+ * member    123456789/3
+ * md5    &lt;md5 of the lines above&gt;
+ * </pre>
+ *
+ * @author agent
+ */
+public class DeletionCatalog {
+
+    /**
+     * The file extension for a deletion catalog
+     */
+    public static final String EXTENSION = "catalog";
+
+    private static final String HEADER = "DSpace-Deletion-Catalog";
+    private static final String VERSION = "1";
+    private static final String MEMBER = "member";
+    private static final String CHECKSUM = "md5";
+    private static final String SEPARATOR = "\t";
+
+    private final String objectId;
+    private final String ownerId;
+    private final long created;
+    private final List<String> members;
+
+    /**
+     * Constructor
+     *
+     * @param objectId the id of the deleted object
+     * @param ownerId the id of the owner of the deleted object, may be null
+     * @param created the time the catalog was created, in milliseconds since the epoch
+     * @param members the ids of the deleted members of the object
+     */
+    public DeletionCatalog(final String objectId, final String ownerId, final long created,
+                           final List<String> members) {
+        this.objectId = objectId;
+        this.ownerId = ownerId;
+        this.created = created;
+        this.members = members;
+    }
+
+    public String getObjectId() {
+        return objectId;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Write the catalog to a file
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final Path file) throws IOException {
+        final MessageDigest digest = md5();
+        try (OutputStream os = Files.newOutputStream(file);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+            writeLine(writer, digest, HEADER, VERSION);
+            writeLine(writer, digest, OBJECT_ID, objectId);
+            if (ownerId != null) {
+                writeLine(writer, digest, OWNER_ID, ownerId);
+            }
+            writeLine(writer, digest, CREATE_TS, String.valueOf(created));
+            for (String member : members) {
+                writeLine(writer, digest, MEMBER, member);
+            }
+            writer.write(CHECKSUM + SEPARATOR + HexFormat.of().formatHex(digest.digest()) + "\n");
+        }
+    }
+
+    private void writeLine(final Writer writer, final MessageDigest digest, final String key, final String value)
+        throws IOException {
+        if (value.contains(SEPARATOR) || value.contains("\n")) {
+            throw new IOException("Unable to write " + key + " to deletion catalog: " + value);
+        }
+        final String line = key + SEPARATOR + value + "\n";
+        digest.update(line.getBytes(StandardCharsets.UTF_8));
+        writer.write(line);
+    }
+
+    /**
+     * Check if a file is a deletion catalog, as opposed to a catalog packaged as a bag
+     *
+     * @param file the file to check
+     * @return true if the file starts with the deletion catalog header
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCatalog(final Path file) throws IOException {
+        final byte[] header = (HEADER + SEPARATOR).getBytes(StandardCharsets.UTF_8);
+        try (InputStream is = Files.newInputStream(file)) {
+            return Arrays.equals(is.readNBytes(header.length), header);
+        }
+    }
+
+    /**
+     * Read a deletion catalog from a file
+     *
+     * @param file the file to read
+     * @return the {@link DeletionCatalog}
+     * @throws IOException if the file cannot be read, is not a deletion catalog or fails its checksum
+     */
+    public static DeletionCatalog read(final Path file) throws IOException {
+        final MessageDigest digest = md5();
+        String objectId = null;
+        String ownerId = null;
+        long created = 0L;
+        final List<String> members = new ArrayList<>();
+        String checksum = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (checksum != null) {
+                    throw new IOException("Deletion catalog " + file + " has content after its checksum");
+                }
+
+                final String[] parts = line.split(SEPARATOR, 2);
+                if (parts.length != 2) {
+                    throw new IOException("Malformed line " + lineNumber + " in deletion catalog " + file);
+                }
+                if (lineNumber == 1 && !(HEADER.equals(parts[0]) && VERSION.equals(parts[1]))) {
+                    throw new IOException("Unsupported deletion catalog " + file + ": " + line);
+                }
+
+                final String key = parts[0];
+                final String value = parts[1];
+                if (CHECKSUM.equals(key)) {
+                    checksum = value;
+                    continue;
+                }
+
+                digest.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+                if (OBJECT_ID.equals(key)) {
+                    objectId = value;
+                } else if (OWNER_ID.equals(key)) {
+                    ownerId = value;
+                } else if (CREATE_TS.equals(key)) {
+                    created = parseCreated(file, value);
+                } else if (MEMBER.equals(key)) {
+                    members.add(value);
+                }
+            }
+        }
+
+        if (checksum == null) {
+            throw new IOException("Deletion catalog " + file + " is incomplete, missing its checksum");
+        }
+        final String computed = HexFormat.of().formatHex(digest.digest());
+        if (!computed.equalsIgnoreCase(checksum)) {
+            throw new IOException("Deletion catalog " + file + " failed checksum validation: expected " +
+                                  checksum + " but was " + computed);
+        }
+        if (objectId == null) {
+            throw new IOException("Deletion catalog " + file + " is missing the " + OBJECT_ID);
+        }
+
+        return new DeletionCatalog(objectId, ownerId, created, members);
+    }
+
+    private static long parseCreated(final Path file, final String value) throws IOException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + CREATE_TS + " in deletion catalog " + file + ": " + value, e);
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
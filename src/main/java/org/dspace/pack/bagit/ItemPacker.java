@@ -21,11 +21,17 @@ import static org.dspace.pack.bagit.BagItAipWriter.PROPERTIES_DELIMITER;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.ImmutableMap;
 import org.dspace.authorize.AuthorizeException;
@@ -44,6 +50,8 @@ import org.dspace.pack.Packer;
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.metadata.Value;
 import org.dspace.pack.bagit.xml.policy.Policies;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
 
 /**
  * ItemPacker packs and unpacks Item AIPs in BagIt bag compressed archives
@@ -62,6 +70,11 @@ public class ItemPacker implements Packer {
     private static final String SEQUENCE_ID = "sequence_id";
     private static final String BUNDLE_PRIMARY = "bundle_primary";
 
+    /**
+     * Configuration for restoring items directly from the archive stream instead of extracting the aip first
+     */
+    public static final String RESTORE_STREAMING_KEY = "replicate.packer.restore.streaming";
+
     private final Context context;
     private Item item = null;
     private String archFmt = null;
@@ -114,8 +127,9 @@ public class ItemPacker implements Packer {
             metadata.addValue(new Value(metadataValue));
         }
 
-        // policy.xml
-        final Policies policy = BagItPolicyUtil.getPolicy(context, item);
+        // policy.xml - the item and its bitstreams usually share the same groups, so translate each only once
+        final BagItPolicyUtil.GroupNames groupNames = new BagItPolicyUtil.GroupNames();
+        final Policies policy = BagItPolicyUtil.getPolicy(context, item, groupNames);
 
         // proceed to bundles, in subdirectories, filtering
         final List<BagBitstream> bitstreams = new ArrayList<>();
@@ -139,7 +153,7 @@ public class ItemPacker implements Packer {
                     }
 
                     // bitstream policy
-                    final Policies bitstreamPolicy = BagItPolicyUtil.getPolicy(context, bs);
+                    final Policies bitstreamPolicy = BagItPolicyUtil.getPolicy(context, bs, groupNames);
 
                     // write the bitstream itself, unless reference filter applies
                     final String fetchUrl = byReference(bundle, bs);
@@ -156,6 +170,7 @@ public class ItemPacker implements Packer {
             .withPolicies(policy)
             .withMetadata(metadata)
             .withBitstreams(bitstreams)
+            .withLastModified(item.getLastModified())
             .packageAip();
     }
 
@@ -165,13 +180,20 @@ public class ItemPacker implements Packer {
             throw new IOException("Missing archive for item: " + item.getHandle());
         }
 
+        final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        if (configurationService.getBooleanProperty(RESTORE_STREAMING_KEY, false) && archive.isFile()) {
+            unpackStreaming(archive);
+            return;
+        }
+
         final BagItAipReader reader = new BagItAipReader(archive.toPath());
         reader.validateBag();
 
         // set the policies for the item
+        final BagItPolicyUtil.GroupNames groupNames = new BagItPolicyUtil.GroupNames();
         try {
             final Policies policies = reader.readPolicy();
-            BagItPolicyUtil.registerPolicies(context, item, policies);
+            BagItPolicyUtil.registerPolicies(context, item, policies, groupNames);
         } catch (PackageException e) {
             throw new IOException(e.getMessage(), e);
         }
@@ -186,46 +208,141 @@ public class ItemPacker implements Packer {
         final List<PackagedBitstream> bitstreams = reader.findBitstreams();
         for (PackagedBitstream packaged : bitstreams) {
             // get or create a bundle
-            final Bundle bundle;
-            final List<Bundle> bundles = itemService.getBundles(item, packaged.getBundle());
-            if (bundles != null && !bundles.isEmpty()) {
-                bundle = bundles.get(0);
-            } else {
-                bundle = bundleService.create(context, item, packaged.getBundle());
-            }
+            final Bundle bundle = findOrCreateBundle(packaged.getBundle(), null);
 
             // create a bitstream
-            final Bitstream bitstream = bitstreamService.create(context, bundle,
-                                                                Files.newInputStream(packaged.getBitstream()));
-
-            // load the bitstream metadata
-            for (Value value : packaged.getMetadata().getValues()) {
-                final String bitstreamField = value.getName();
-                if (NAME.equalsIgnoreCase(bitstreamField)) {
-                    bitstream.setName(context, value.getBody());
-                } else if (SOURCE.equalsIgnoreCase(bitstreamField)) {
-                    bitstream.setSource(context, value.getBody());
-                } else if (SEQUENCE_ID.equalsIgnoreCase(bitstreamField)) {
-                    bitstream.setSequenceID(Integer.parseInt(value.getBody()));
-                } else if (DESCRIPTION.equalsIgnoreCase(bitstreamField)) {
-                    bitstream.setDescription(context, value.getBody());
-                } else if (BUNDLE_PRIMARY.equalsIgnoreCase(bitstreamField)) {
-                    bundle.setPrimaryBitstreamID(bitstream);
-                }
+            final Bitstream bitstream;
+            try (InputStream is = Files.newInputStream(packaged.getBitstream())) {
+                bitstream = bitstreamService.create(context, bundle, is);
             }
 
-            // and the bitstream policies
+            updateBitstream(bundle, bitstream, packaged.getMetadata(), packaged.getPolicies(), groupNames);
+        }
+
+        reader.clean();
+    }
+
+    /**
+     * Unpack an archived aip in a single pass without extracting it. Each bitstream is created directly from the
+     * archive as it is read, and the bag is verified once the whole archive has been read. If verification fails, or
+     * anything after it does, the bitstreams which were created are removed, along with any bundles created for them.
+     *
+     * @param archive the archived aip
+     * @throws AuthorizeException if the current user is not authorized
+     * @throws IOException if the archive cannot be read or is not valid
+     * @throws SQLException if there is a database error
+     */
+    private void unpackStreaming(final File archive) throws AuthorizeException, IOException, SQLException {
+        // bitstreams are created as they are read, then updated once the xml for them is available
+        final Map<String, Bitstream> created = new LinkedHashMap<>();
+        final Map<String, Bundle> createdIn = new HashMap<>();
+        final Set<Bundle> createdBundles = new LinkedHashSet<>();
+        try (BagItAipStreamReader reader = new BagItAipStreamReader(archive.toPath())) {
+            reader.read((bundleName, name, in) -> {
+                final Bundle bundle = findOrCreateBundle(bundleName, createdBundles);
+                final String key = bundleName + "/" + name;
+                created.put(key, bitstreamService.create(context, bundle, in));
+                createdIn.put(key, bundle);
+            });
+            reader.verify();
+
+            // set the policies for the item
+            final BagItPolicyUtil.GroupNames groupNames = new BagItPolicyUtil.GroupNames();
             try {
-                final Policies bitstreamPolicies = packaged.getPolicies();
-                BagItPolicyUtil.registerPolicies(context, bitstream, bitstreamPolicies);
+                BagItPolicyUtil.registerPolicies(context, item, reader.readPolicy(), groupNames);
             } catch (PackageException e) {
                 throw new IOException(e.getMessage(), e);
             }
 
-            bitstreamService.update(context, bitstream);
+            // load the item metadata
+            final Metadata metadata = reader.readMetadata();
+            for (Value value : metadata.getValues()) {
+                itemService.addMetadata(context, item, value.getSchema(), value.getElement(), value.getQualifier(),
+                                        value.getLanguage(), value.getBody());
+            }
+
+            for (Map.Entry<String, Bitstream> bitstream : created.entrySet()) {
+                final String key = bitstream.getKey();
+                final String bundleName = key.substring(0, key.indexOf('/'));
+                final String name = key.substring(key.indexOf('/') + 1);
+                final Metadata bitstreamMetadata = reader.readBitstreamMetadata(bundleName, name);
+                final Policies bitstreamPolicies = reader.readBitstreamPolicy(bundleName, name);
+                updateBitstream(createdIn.get(key), bitstream.getValue(), bitstreamMetadata, bitstreamPolicies,
+                                groupNames);
+            }
+        } catch (IOException | SQLException | AuthorizeException | RuntimeException e) {
+            // whether the bag was not valid or the xml for a bitstream is missing, remove what was created from it
+            for (Map.Entry<String, Bitstream> bitstream : created.entrySet()) {
+                bundleService.removeBitstream(context, createdIn.get(bitstream.getKey()), bitstream.getValue());
+            }
+            for (Bundle bundle : createdBundles) {
+                itemService.removeBundle(context, item, bundle);
+            }
+            throw e;
         }
+    }
 
-        reader.clean();
+    /**
+     * Get a bundle of the item by name, creating it if it does not exist
+     *
+     * @param bundleName the name of the bundle
+     * @param created if not null, a new bundle is added to it
+     * @return the {@link Bundle}
+     * @throws AuthorizeException if the current user is not authorized
+     * @throws SQLException if there is a database error
+     */
+    private Bundle findOrCreateBundle(final String bundleName, final Set<Bundle> created)
+        throws AuthorizeException, SQLException {
+        final List<Bundle> bundles = itemService.getBundles(item, bundleName);
+        if (bundles != null && !bundles.isEmpty()) {
+            return bundles.get(0);
+        }
+        final Bundle bundle = bundleService.create(context, item, bundleName);
+        if (created != null) {
+            created.add(bundle);
+        }
+        return bundle;
+    }
+
+    /**
+     * Set the metadata and policies of a bitstream which was created from an aip
+     *
+     * @param bundle the {@link Bundle} the bitstream belongs to
+     * @param bitstream the {@link Bitstream}
+     * @param metadata the packaged metadata of the bitstream
+     * @param policies the packaged policies of the bitstream
+     * @param groupNames the group name translations shared with the item
+     * @throws AuthorizeException if the current user is not authorized
+     * @throws IOException if the policies cannot be registered
+     * @throws SQLException if there is a database error
+     */
+    private void updateBitstream(final Bundle bundle, final Bitstream bitstream, final Metadata metadata,
+                                 final Policies policies, final BagItPolicyUtil.GroupNames groupNames)
+        throws AuthorizeException, IOException, SQLException {
+        // load the bitstream metadata
+        for (Value value : metadata.getValues()) {
+            final String bitstreamField = value.getName();
+            if (NAME.equalsIgnoreCase(bitstreamField)) {
+                bitstream.setName(context, value.getBody());
+            } else if (SOURCE.equalsIgnoreCase(bitstreamField)) {
+                bitstream.setSource(context, value.getBody());
+            } else if (SEQUENCE_ID.equalsIgnoreCase(bitstreamField)) {
+                bitstream.setSequenceID(Integer.parseInt(value.getBody()));
+            } else if (DESCRIPTION.equalsIgnoreCase(bitstreamField)) {
+                bitstream.setDescription(context, value.getBody());
+            } else if (BUNDLE_PRIMARY.equalsIgnoreCase(bitstreamField)) {
+                bundle.setPrimaryBitstreamID(bitstream);
+            }
+        }
+
+        // and the bitstream policies
+        try {
+            BagItPolicyUtil.registerPolicies(context, bitstream, policies, groupNames);
+        } catch (PackageException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        bitstreamService.update(context, bitstream);
     }
 
     @Override
@@ -7,23 +7,42 @@
  */
 package org.dspace.pack.bagit;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.policy.Policies;
 
 /**
- * Information about a {@link org.dspace.content.Bitstream} packaged in an aip
+ * Information about a {@link org.dspace.content.Bitstream} packaged in an aip. The metadata and policies of the
+ * bitstream can be given up front or loaded when they are first requested.
  *
  * @author mikejritter
  * @since 2020-03-19
  */
 public class PackagedBitstream {
 
+    /**
+     * Loads a value for a {@link PackagedBitstream} when it is first requested
+     *
+     * @param <T> the type of the value
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        /**
+         * @return the loaded value
+         * @throws IOException if the value cannot be loaded
+         */
+        T load() throws IOException;
+    }
+
     private final String bundle;
     private final Path bitstream;
-    private final Policies policies;
-    private final Metadata metadata;
+    private Loader<Policies> policiesLoader;
+    private Loader<Metadata> metadataLoader;
+    private Policies policies;
+    private Metadata metadata;
 
     /**
      * Constructor for bitstreams packaged in a BagIt AIP
@@ -41,6 +60,22 @@ public class PackagedBitstream {
         this.policies = policies;
     }
 
+    /**
+     * Constructor for bitstreams packaged in a BagIt AIP which load their metadata and policies on first access
+     *
+     * @param bundle the name of the bundle for the bitstream
+     * @param bitstream the path to the bitstream data
+     * @param metadataLoader the {@link Loader} for the metadata of the bitstream
+     * @param policiesLoader the {@link Loader} for the policy of the bitstream
+     */
+    public PackagedBitstream(final String bundle, final Path bitstream, final Loader<Metadata> metadataLoader,
+                             final Loader<Policies> policiesLoader) {
+        this.bundle = bundle;
+        this.bitstream = bitstream;
+        this.metadataLoader = metadataLoader;
+        this.policiesLoader = policiesLoader;
+    }
+
     /**
      * @return the bundle name
      */
@@ -57,15 +92,25 @@ public class PackagedBitstream {
 
     /**
      * @return the metadata for the bitstream
+     * @throws IOException if the metadata cannot be loaded
      */
-    public Metadata getMetadata() {
+    public Metadata getMetadata() throws IOException {
+        if (metadataLoader != null) {
+            metadata = metadataLoader.load();
+            metadataLoader = null;
+        }
         return metadata;
     }
 
     /**
      * @return the ResourcePolicies for the bitstream
+     * @throws IOException if the policies cannot be loaded
      */
-    public Policies getPolicies() {
+    public Policies getPolicies() throws IOException {
+        if (policiesLoader != null) {
+            policies = policiesLoader.load();
+            policiesLoader = null;
+        }
         return policies;
     }
 }
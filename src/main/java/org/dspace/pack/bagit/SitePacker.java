@@ -13,9 +13,14 @@ import static org.dspace.pack.PackerFactory.OBJECT_TYPE;
 import static org.dspace.pack.PackerFactory.OBJFILE;
 import static org.dspace.pack.bagit.BagItAipWriter.BAG_AIP;
 import static org.dspace.pack.bagit.BagItAipWriter.PROPERTIES_DELIMITER;
+import static org.dspace.pack.bagit.BagItAipWriter.ROLES_XML;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -39,7 +44,6 @@ import org.dspace.content.service.ItemService;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.pack.Packer;
-import org.dspace.pack.bagit.xml.roles.DSpaceRoles;
 
 /**
  * Packer for a DSpace {@link Site} object in to a BagIt bag
@@ -47,6 +51,9 @@ import org.dspace.pack.bagit.xml.roles.DSpaceRoles;
  * @author mikejritter
  */
 public class SitePacker implements Packer {
+    // the number of items to read at a time when listing the members of the site
+    private static final int PAGE_SIZE = 1000;
+
     private final ItemService itemService = ContentServiceFactory.getInstance().getItemService();
     private final CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
 
@@ -79,57 +86,84 @@ public class SitePacker implements Packer {
         dspaceProperties.add("DSpace-Version" + PROPERTIES_DELIMITER + Util.getSourceVersion());
         properties.put("dspace.properties", dspaceProperties);
 
-        // add handles of all DSpaceObjects found in the site
-        final List<String> handles = new ArrayList<>();
-        final List<Community> allTopCommunities = communityService.findAllTop(context);
-        for (Community community : allTopCommunities) {
-            appendHandles(handles, community);
-        }
-        properties.put("members", handles);
-
-        DSpaceRoles dSpaceRoles;
+        // the roles and members of a site can be very large, so both are written straight to disk
+        final Path stageDir = packDir.getAbsoluteFile().getParentFile().toPath();
+        final Path roles = Files.createTempFile(stageDir, "roles", ".tmp");
+        final Path members = Files.createTempFile(stageDir, "members", ".tmp");
         try {
-            dSpaceRoles = BagItRolesUtil.getDSpaceRoles(context, site);
-        } catch (PackageException exception) {
-            throw new IOException(exception);
-        }
+            try {
+                BagItRolesUtil.writeDSpaceRoles(context, site, roles);
+            } catch (PackageException exception) {
+                throw new IOException(exception);
+            }
+
+            // add handles of all DSpaceObjects found in the site
+            try (BufferedWriter writer = Files.newBufferedWriter(members, StandardCharsets.UTF_8)) {
+                final List<Community> allTopCommunities = communityService.findAllTop(context);
+                for (Community community : allTopCommunities) {
+                    appendHandles(writer, community);
+                }
+            }
 
-        return new BagItAipWriter(context, packDir, archFmt, properties)
-            .withDSpaceRoles(dSpaceRoles)
-            .packageAip();
+            return new BagItAipWriter(context, packDir, archFmt, properties)
+                .withDataFile("members", members)
+                .withDataFile(ROLES_XML, roles)
+                .packageAip();
+        } finally {
+            Files.deleteIfExists(roles);
+            Files.deleteIfExists(members);
+        }
     }
 
     /**
-     * Appends all handles of the {@code dso} and any child DSpaceObjects to the given {@code handles} list.
+     * Writes all handles of the {@code dso} and any child DSpaceObjects to the given {@code writer}, one per line.
      *
      * This allows the SitePacker to be similar to the CatalogPacker in that it can restore a Site and all DSOs using
      * the relationships contained within the AIP.
      *
-     * @param handles the List to append to
+     * Items are read a page at a time and removed from the session once written, so that memory use does not grow
+     * with the size of the repository.
+     *
+     * @param writer the Writer to append to
      * @param dso the DSO whose handle to append
+     * @throws IOException if there's an error writing a handle
      * @throws SQLException if there's an error retrieving any DSOs from the database
      */
-    private void appendHandles(final List<String> handles, final DSpaceObject dso) throws SQLException {
-        handles.add(dso.getHandle());
+    private void appendHandles(final Writer writer, final DSpaceObject dso) throws IOException, SQLException {
+        writeHandle(writer, dso.getHandle());
         if (dso.getType() == Constants.COMMUNITY) {
             final Community community = (Community) dso;
             for (Community subcommunity : community.getSubcommunities()) {
-                appendHandles(handles, subcommunity);
+                appendHandles(writer, subcommunity);
             }
             for (Collection collection : community.getCollections()) {
-                appendHandles(handles, collection);
+                appendHandles(writer, collection);
+                context.uncacheEntity(collection);
             }
 
         } else if (dso.getType() == Constants.COLLECTION) {
             final Collection collection = (Collection) dso;
-            final Iterator<Item> items = itemService.findAllByCollection(context, collection);
-            while (items.hasNext()) {
-                final Item item = items.next();
-                handles.add(item.getHandle());
-            }
+            int offset = 0;
+            int count;
+            do {
+                count = 0;
+                final Iterator<Item> items = itemService.findAllByCollection(context, collection, PAGE_SIZE, offset);
+                while (items.hasNext()) {
+                    final Item item = items.next();
+                    writeHandle(writer, item.getHandle());
+                    context.uncacheEntity(item);
+                    count++;
+                }
+                offset += count;
+            } while (count == PAGE_SIZE);
         }
     }
 
+    private void writeHandle(final Writer writer, final String handle) throws IOException {
+        writer.write(handle);
+        writer.write("\n");
+    }
+
     @Override
     public void unpack(File archive) throws AuthorizeException, IOException, SQLException {
         if (archive == null || !archive.exists()) {
@@ -0,0 +1,41 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read access to the individual files of a serialized bag without extracting it. Names are relative to the root of the
+ * bag, e.g. data/object.properties, regardless of the name of the bag directory inside the archive.
+ *
+ * @author agent
+ */
+public interface AipArchive extends Closeable {
+
+    /**
+     * Check if a file exists in the bag
+     *
+     * @param name the name of the file, relative to the root of the bag
+     * @return true if the file exists
+     * @throws IOException if the archive cannot be read
+     */
+    boolean exists(String name) throws IOException;
+
+    /**
+     * Open a file in the bag for reading. The caller is responsible for closing the returned {@link InputStream}.
+     *
+     * @param name the name of the file, relative to the root of the bag
+     * @return the {@link InputStream} for the file
+     * @throws java.nio.file.NoSuchFileException if the file does not exist
+     * @throws IOException if the archive cannot be read
+     */
+    InputStream open(String name) throws IOException;
+
+}
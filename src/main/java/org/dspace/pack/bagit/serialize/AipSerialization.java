@@ -0,0 +1,227 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.dspace.services.ConfigurationService;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.duraspace.bagit.profile.BagProfile;
+import org.duraspace.bagit.serialize.BagDeserializer;
+import org.duraspace.bagit.serialize.BagSerializer;
+import org.duraspace.bagit.serialize.SerializationSupport;
+
+/**
+ * Selects the {@link BagSerializer} used when archiving an AIP and the {@link BagDeserializer} used when reading one.
+ * Formats which the replication tasks can handle more efficiently than bagit-support (or which bagit-support does not
+ * handle at all, e.g. tar.zst) are handled here, everything else falls back to {@link SerializationSupport}.
+ *
+ * @author agent
+ */
+public class AipSerialization {
+
+    public static final String ZIP = "zip";
+    public static final String TAR = "tar";
+    public static final String TGZ = "tgz";
+    public static final String TAR_ZST = "tar.zst";
+
+    /**
+     * Configuration for the compression level used by compressed archive entries
+     */
+    public static final String COMPRESSION_LEVEL_KEY = "replicate.packer.compression.level";
+
+    /**
+     * Configuration for the number of threads used by compressors which can run in parallel
+     */
+    public static final String COMPRESSION_THREADS_KEY = "replicate.packer.compression.threads";
+
+    /**
+     * Configuration for the zstd compression level, which uses a different range than deflate
+     */
+    public static final String ZSTD_LEVEL_KEY = "replicate.packer.compression.zstd.level";
+    private static final int DEFAULT_ZSTD_LEVEL = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Private constructor for this utility class
+     */
+    private AipSerialization() {}
+
+    /**
+     * Get a {@link BagSerializer} for an archive format
+     *
+     * @param archFmt     the archive format, e.g. zip
+     * @param profile     the {@link BagProfile} the bag is being written for
+     * @param storedFiles files in the bag which are already compressed and should be stored as is
+     * @param modified    the modified time to use for every archive entry, or null to keep the time of each file
+     * @return the {@link BagSerializer}
+     */
+    public static BagSerializer serializerFor(final String archFmt, final BagProfile profile,
+                                              final Set<Path> storedFiles, final FileTime modified) {
+        // zstd is not a serialization known to bagit-support or the bag profiles, so it is always accepted
+        if (TAR_ZST.equalsIgnoreCase(archFmt)) {
+            final ConfigurationService configurationService =
+                DSpaceServicesFactory.getInstance().getConfigurationService();
+            final int level = configurationService.getIntProperty(ZSTD_LEVEL_KEY, DEFAULT_ZSTD_LEVEL);
+            final int threads = compressionThreads();
+            return new TarAipSerializer(archFmt, out -> new ZstdOutputStream(out, level)
+                .setChecksum(true)
+                .setWorkers(threads), modified);
+        }
+
+        // bagit-support checks that the profile accepts the format, so let it do so before using our own serializers
+        final BagSerializer serializer = SerializationSupport.serializerFor(archFmt, profile);
+        if (ZIP.equalsIgnoreCase(archFmt)) {
+            return new ZipAipSerializer(compressionLevel(), storedFiles, modified);
+        } else if (TAR.equalsIgnoreCase(archFmt)) {
+            return new TarAipSerializer(archFmt, out -> out, modified);
+        } else if (TGZ.equalsIgnoreCase(archFmt)) {
+            final int level = compressionLevel();
+            final int threads = compressionThreads();
+            return new TarAipSerializer(archFmt, out -> new ParallelGzipOutputStream(out, threads, level,
+                ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE), modified);
+        }
+
+        return serializer;
+    }
+
+    /**
+     * Get a {@link BagDeserializer} for an archived AIP
+     *
+     * @param archive the {@link Path} to the archived AIP
+     * @param profile the {@link BagProfile} the bag was written for
+     * @return the {@link BagDeserializer}
+     */
+    public static BagDeserializer deserializerFor(final Path archive, final BagProfile profile) {
+        return deserializerFor(archive, profile, null);
+    }
+
+    /**
+     * Get a {@link BagDeserializer} for an archived AIP which records the digest of each file it extracts. Formats
+     * which are only supported by bagit-support do not record any digests.
+     *
+     * @param archive the {@link Path} to the archived AIP
+     * @param profile the {@link BagProfile} the bag was written for
+     * @param digests the {@link ExtractionDigests} to record digests in, or null
+     * @return the {@link BagDeserializer}
+     */
+    public static BagDeserializer deserializerFor(final Path archive, final BagProfile profile,
+                                                  final ExtractionDigests digests) {
+        final String filename = archive.getFileName().toString();
+        if (filename.endsWith("." + TAR_ZST)) {
+            return new TarAipDeserializer(ZstdInputStream::new, digests);
+        }
+
+        // bagit-support checks that the profile accepts the format, so let it do so before using our own deserializers
+        final BagDeserializer deserializer = SerializationSupport.deserializerFor(archive, profile);
+        if (filename.endsWith("." + ZIP)) {
+            return new ZipAipDeserializer(digests);
+        } else if (filename.endsWith("." + TAR)) {
+            return new TarAipDeserializer(in -> in, digests);
+        } else if (filename.endsWith("." + TGZ) || filename.endsWith(".tar.gz")) {
+            return new TarAipDeserializer(GzipCompressorInputStream::new, digests);
+        }
+
+        return deserializer;
+    }
+
+    /**
+     * Open an archived AIP as a stream of entries, for reading the whole archive in a single pass without extracting
+     * it. The caller is responsible for closing the returned stream.
+     *
+     * @param archive the serialized bag
+     * @return the {@link ArchiveInputStream} for the archive
+     * @throws IOException if the archive cannot be opened or its format is not supported
+     */
+    public static ArchiveInputStream<? extends ArchiveEntry> streamFor(final Path archive) throws IOException {
+        final String filename = archive.getFileName().toString();
+        final InputStream is = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE);
+        try {
+            if (filename.endsWith("." + ZIP)) {
+                // also accept stored entries which are followed by a data descriptor, as some zip tools write them
+                return new ZipArchiveInputStream(is, StandardCharsets.UTF_8.name(), true, true);
+            } else if (filename.endsWith("." + TAR)) {
+                return new TarArchiveInputStream(is);
+            } else if (filename.endsWith("." + TGZ) || filename.endsWith(".tar.gz")) {
+                return new TarArchiveInputStream(new GzipCompressorInputStream(is));
+            } else if (filename.endsWith("." + TAR_ZST)) {
+                return new TarArchiveInputStream(new ZstdInputStream(is));
+            }
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+
+        is.close();
+        throw new IOException("Unable to stream unsupported archive format: " + filename);
+    }
+
+    /**
+     * Get an {@link AipArchive} to read individual files from a serialized bag without extracting it
+     *
+     * @param archive the serialized bag
+     * @return the {@link AipArchive}, or null if the format of the archive does not support it
+     * @throws IOException if the archive cannot be opened
+     */
+    public static AipArchive archiveFor(final Path archive) throws IOException {
+        final String filename = archive.getFileName().toString();
+        if (filename.endsWith("." + ZIP)) {
+            return new ZipAipArchive(archive);
+        } else if (filename.endsWith("." + TAR)) {
+            return new TarAipArchive(archive, in -> in);
+        } else if (filename.endsWith("." + TGZ) || filename.endsWith(".tar.gz")) {
+            return new TarAipArchive(archive, GzipCompressorInputStream::new);
+        } else if (filename.endsWith("." + TAR_ZST)) {
+            return new TarAipArchive(archive, ZstdInputStream::new);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the configured compression level, falling back to the default of the {@link Deflater} when the value is
+     * missing or out of range
+     *
+     * @return the compression level
+     */
+    public static int compressionLevel() {
+        final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        final int level = configurationService.getIntProperty(COMPRESSION_LEVEL_KEY, Deflater.DEFAULT_COMPRESSION);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return level;
+    }
+
+    /**
+     * Get the configured number of compression threads, defaulting to the number of available processors
+     *
+     * @return the number of compression threads
+     */
+    public static int compressionThreads() {
+        final ConfigurationService configurationService = DSpaceServicesFactory.getInstance().getConfigurationService();
+        final int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, configurationService.getIntProperty(COMPRESSION_THREADS_KEY, processors));
+    }
+
+}
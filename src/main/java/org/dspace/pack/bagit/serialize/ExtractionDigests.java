@@ -0,0 +1,82 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Digests of the files written while a bag is extracted, computed from the same bytes which are written to disk. A
+ * verifier can use these instead of reading every file a second time.
+ *
+ * @author agent
+ */
+public class ExtractionDigests {
+
+    private final String algorithm;
+    private final Map<Path, String> digests = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param algorithm the name of the {@link MessageDigest} algorithm to use, e.g. MD5
+     */
+    public ExtractionDigests(final String algorithm) {
+        this.algorithm = checkNotNull(algorithm);
+    }
+
+    /**
+     * @return the name of the {@link MessageDigest} algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the digest of an extracted file
+     *
+     * @param file the extracted file
+     * @return the hex encoded digest, or null if the file was not extracted
+     */
+    public String get(final Path file) {
+        return digests.get(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Write an {@link InputStream} to a file, recording the digest of the bytes written
+     *
+     * @param in     the {@link InputStream} to read from
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void extract(final InputStream in, final Path target) throws IOException {
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unsupported digest algorithm " + algorithm, e);
+        }
+
+        // the stream belongs to the caller (e.g. an archive positioned at an entry) so it is not closed here
+        final DigestInputStream digestIn = new DigestInputStream(in, messageDigest);
+        Files.copy(digestIn, target, StandardCopyOption.REPLACE_EXISTING);
+        digests.put(target.toAbsolutePath().normalize(), HexFormat.of().formatHex(messageDigest.digest()));
+    }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip {@link OutputStream} which compresses blocks of its input on multiple threads, in the same manner as pigz.
+ * <p>
+ * Input is split into fixed size blocks, and each block is deflated on its own thread using the last 32K of the
+ * previous block as a preset dictionary so the compression ratio stays close to that of a single stream. Every block
+ * but the last ends with a sync flush, which byte aligns the output so the compressed blocks can simply be written one
+ * after another. The result is a single standard gzip member that can be read by gzip, pigz,
+ * {@link java.util.zip.GZIPInputStream}, etc.
+ * <p>
+ * The header always uses a modification time of 0 so that identical input produces identical output.
+ *
+ * @author agent
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+    /**
+     * The default size of the blocks which are compressed on each thread
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte OS_UNKNOWN = (byte) 0xff;
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long uncompressedSize;
+    private boolean closed;
+
+    /**
+     * Create a {@link ParallelGzipOutputStream} using the default compression level and block size
+     *
+     * @param out     the {@link OutputStream} to write compressed data to
+     * @param threads the number of threads to compress with
+     * @throws IOException if the gzip header cannot be written
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final int threads) throws IOException {
+        this(out, threads, Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a {@link ParallelGzipOutputStream}
+     *
+     * @param out       the {@link OutputStream} to write compressed data to
+     * @param threads   the number of threads to compress with
+     * @param level     the compression level, -1 through 9
+     * @param blockSize the size of each block which is compressed, at least 32K
+     * @throws IOException if the gzip header cannot be written
+     */
+    public ParallelGzipOutputStream(final OutputStream out, final int threads, final int level,
+                                    final int blockSize) throws IOException {
+        super(out);
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one compression thread is required");
+        }
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE + " bytes");
+        }
+
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = threads * 2;
+        this.block = new byte[blockSize];
+
+        final String poolName = "gzip-" + POOL_COUNT.incrementAndGet() + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, poolName + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        writeHeader();
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submit(false);
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        ensureOpen();
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final int count = Math.min(remaining, blockSize - blockLength);
+            System.arraycopy(b, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            remaining -= count;
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+        }
+    }
+
+    /**
+     * Flush any blocks which have finished compressing. Partial blocks are not compressed until they are full or the
+     * stream is closed, as flushing them early would only hurt the compression ratio.
+     *
+     * @throws IOException if the compressed data cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeBlock(pending.removeFirst());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeBlock(pending.removeFirst());
+            }
+            writeTrailer();
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Queue the current block for compression and write out completed blocks if too many are waiting
+     *
+     * @param last if this is the final block of the stream
+     * @throws IOException if a compressed block cannot be written
+     */
+    private void submit(final boolean last) throws IOException {
+        final byte[] input = block;
+        final int length = blockLength;
+        final byte[] preset = dictionary;
+
+        crc.update(input, 0, length);
+        uncompressedSize += length;
+        if (!last) {
+            dictionary = Arrays.copyOfRange(input, length - DICTIONARY_SIZE, length);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+
+        pending.addLast(executor.submit(() -> deflate(input, length, preset, last)));
+        while (pending.size() >= maxPending) {
+            writeBlock(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Deflate a single block
+     *
+     * @param input  the input data
+     * @param length the length of the input data
+     * @param preset the dictionary to prime the compressor with, or null for the first block
+     * @param last   if this is the final block of the stream
+     * @return the raw deflate data for the block
+     */
+    private byte[] deflate(final byte[] input, final int length, final byte[] preset, final boolean last) {
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            if (preset != null) {
+                deflater.setDictionary(preset);
+            }
+            deflater.setInput(input, 0, length);
+
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    final int count = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, count);
+                }
+            } else {
+                // a sync flush is complete once it no longer fills the entire buffer
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Wait for a block to finish compressing and write it
+     *
+     * @param future the {@link Future} for the compressed block
+     * @throws IOException if the block could not be compressed or written
+     */
+    private void writeBlock(final Future<byte[]> future) throws IOException {
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress block", e.getCause());
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        final byte extraFlags;
+        if (level == Deflater.BEST_COMPRESSION) {
+            extraFlags = 2;
+        } else if (level == Deflater.BEST_SPEED) {
+            extraFlags = 4;
+        } else {
+            extraFlags = 0;
+        }
+
+        // magic, deflate, no flags, no modification time, extra flags, os
+        out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, extraFlags, OS_UNKNOWN});
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt(crc.getValue());
+        writeInt(uncompressedSize);
+    }
+
+    private void writeInt(final long value) throws IOException {
+        out.write((int) (value & 0xff));
+        out.write((int) ((value >> 8) & 0xff));
+        out.write((int) ((value >> 16) & 0xff));
+        out.write((int) ((value >> 24) & 0xff));
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+}
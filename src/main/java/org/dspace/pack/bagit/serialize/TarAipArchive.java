@@ -0,0 +1,206 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.dspace.pack.bagit.serialize.TarAipDeserializer.Decompressor;
+
+/**
+ * An {@link AipArchive} for tar files which are passed through a {@link Decompressor}. A compressed tar stream cannot
+ * be read from an arbitrary position, so an index of the archive is built by reading forward only as far as needed to
+ * find a requested file. As the {@link TarAipSerializer} writes the bitstreams last, the tag files and metadata of an
+ * AIP are found without reading past its payload. Small files (tag files, xml, object.properties, etc) which are
+ * passed over along the way are kept in memory, up to {@link #MAX_CACHED_TOTAL} bytes in all. Bitstreams, whatever
+ * their size, and any other file which is not kept are only recorded in the index and are read from a new pass over
+ * the archive if they are requested. Nothing is written to disk.
+ *
+ * @author agent
+ */
+public class TarAipArchive implements AipArchive {
+
+    /**
+     * The largest file which is kept in memory when it is passed over
+     */
+    public static final int MAX_CACHED_SIZE = 1024 * 1024;
+
+    /**
+     * The most bytes kept in memory for all files passed over
+     */
+    public static final long MAX_CACHED_TOTAL = 16L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path archive;
+    private final Decompressor decompressor;
+    private final Map<String, byte[]> cached = new HashMap<>();
+    private final Set<String> uncached = new HashSet<>();
+    private long cachedBytes = 0L;
+
+    private TarArchiveInputStream scanner;
+    private boolean scanned;
+
+    /**
+     * Constructor
+     *
+     * @param archive      the {@link Path} to the tar file
+     * @param decompressor the {@link Decompressor} for the tar stream
+     */
+    public TarAipArchive(final Path archive, final Decompressor decompressor) {
+        this.archive = checkNotNull(archive);
+        this.decompressor = checkNotNull(decompressor);
+    }
+
+    @Override
+    public boolean exists(final String name) throws IOException {
+        return cached.containsKey(name) || uncached.contains(name) || scanTo(name);
+    }
+
+    @Override
+    public InputStream open(final String name) throws IOException {
+        if (!exists(name)) {
+            throw new NoSuchFileException(name, archive.toString(), "No such entry in archive");
+        }
+
+        final byte[] bytes = cached.get(name);
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        // too large to have been kept, so read it from a new pass over the archive. the tar stream only returns the
+        // data of its current entry, so it can be handed to the caller as is.
+        final TarArchiveInputStream tar = openTar();
+        try {
+            ArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (name.equals(relativeName(entry))) {
+                    return tar;
+                }
+            }
+        } catch (IOException e) {
+            tar.close();
+            throw e;
+        }
+
+        tar.close();
+        throw new NoSuchFileException(name, archive.toString(), "No such entry in archive");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (scanner != null) {
+            scanner.close();
+            scanner = null;
+        }
+    }
+
+    /**
+     * Continue reading the archive until a file is found or the archive is exhausted
+     *
+     * @param name the name of the file to find
+     * @return true if the file was found
+     * @throws IOException if the archive cannot be read
+     */
+    private boolean scanTo(final String name) throws IOException {
+        if (scanned) {
+            return false;
+        }
+        if (scanner == null) {
+            scanner = openTar();
+        }
+
+        ArchiveEntry entry;
+        while ((entry = scanner.getNextEntry()) != null) {
+            final String relative = relativeName(entry);
+            if (relative == null) {
+                continue;
+            }
+
+            if (isCacheable(relative, entry.getSize())) {
+                final byte[] bytes = scanner.readAllBytes();
+                cached.put(relative, bytes);
+                cachedBytes += bytes.length;
+            } else {
+                uncached.add(relative);
+            }
+
+            if (relative.equals(name)) {
+                return true;
+            }
+        }
+
+        scanned = true;
+        close();
+        return false;
+    }
+
+    /**
+     * @return the number of bytes kept in memory for files which were passed over
+     */
+    long cachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Check if a file which is passed over should be kept in memory. The {@link TarAipSerializer} writes the
+     * bitstreams after everything else, but other tar archives may list them before data/object.properties, so
+     * bitstreams which are passed over are never kept, however small.
+     *
+     * @param relative the name of the file, relative to the root of the bag
+     * @param size     the size of the file
+     * @return true if the file should be kept
+     */
+    private boolean isCacheable(final String relative, final long size) {
+        if (size > MAX_CACHED_SIZE || cachedBytes + size > MAX_CACHED_TOTAL) {
+            return false;
+        }
+        // a file in a bundle directory is a bitstream, unless it is one of the xml files describing a bitstream
+        final boolean payload = relative.startsWith("data/") && relative.indexOf('/', "data/".length()) >= 0;
+        return !payload || relative.endsWith(".xml");
+    }
+
+    private TarArchiveInputStream openTar() throws IOException {
+        final InputStream is = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE);
+        try {
+            return new TarArchiveInputStream(decompressor.decompress(is));
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the name of an entry relative to the root of the bag
+     *
+     * @param entry the {@link ArchiveEntry}
+     * @return the relative name, or null if the entry is a directory or the bag directory itself
+     */
+    private String relativeName(final ArchiveEntry entry) {
+        final String name = entry.getName();
+        final int separator = name.indexOf('/');
+        if (entry.isDirectory() || separator < 0) {
+            return null;
+        }
+        return name.substring(separator + 1);
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.duraspace.bagit.serialize.BagDeserializer;
+
+/**
+ * Deserialize a bag from a tar file which is passed through a {@link Decompressor}. The bag is extracted alongside the
+ * archive, the same as the deserializers provided by bagit-support.
+ *
+ * @author agent
+ */
+public class TarAipDeserializer implements BagDeserializer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Wraps the {@link InputStream} of the archive file with a decompressing stream
+     */
+    @FunctionalInterface
+    public interface Decompressor {
+
+        /**
+         * @param in the {@link InputStream} to read compressed data from
+         * @return the {@link InputStream} to read uncompressed data from
+         * @throws IOException if the stream cannot be created
+         */
+        InputStream decompress(InputStream in) throws IOException;
+    }
+
+    private final Decompressor decompressor;
+    private final ExtractionDigests digests;
+
+    /**
+     * Constructor
+     *
+     * @param decompressor the {@link Decompressor} for the tar stream
+     */
+    public TarAipDeserializer(final Decompressor decompressor) {
+        this(decompressor, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param decompressor the {@link Decompressor} for the tar stream
+     * @param digests      the {@link ExtractionDigests} to record the digest of each file in, or null
+     */
+    public TarAipDeserializer(final Decompressor decompressor, final ExtractionDigests digests) {
+        this.decompressor = checkNotNull(decompressor);
+        this.digests = digests;
+    }
+
+    @Override
+    public Path deserialize(final Path root) throws IOException {
+        final Path parent = root.toAbsolutePath().getParent();
+
+        Path bag = null;
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(root), BUFFER_SIZE);
+             InputStream decompressed = decompressor.decompress(is);
+             TarArchiveInputStream tar = new TarArchiveInputStream(decompressed)) {
+            ArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                final Path target = parent.resolve(entry.getName()).normalize();
+                if (!target.startsWith(parent) || target.equals(parent)) {
+                    throw new IOException("Entry " + entry.getName() + " is outside of the bag for " + root);
+                }
+
+                // the first part of every entry is the name of the bag
+                if (bag == null) {
+                    bag = parent.resolve(parent.relativize(target).getName(0));
+                }
+
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    if (digests != null) {
+                        digests.extract(tar, target);
+                    } else {
+                        Files.copy(tar, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+
+        if (bag == null) {
+            throw new IOException("No entries found in " + root);
+        }
+        return bag;
+    }
+
+}
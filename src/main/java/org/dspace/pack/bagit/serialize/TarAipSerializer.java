@@ -0,0 +1,139 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.duraspace.bagit.serialize.BagSerializer;
+
+/**
+ * Serialize a bag to a tar file which is passed through a {@link Compressor}, e.g. a
+ * {@link ParallelGzipOutputStream} for tgz. Entry names are relative to the parent of the bag, the same as the tar
+ * serializations provided by bagit-support.
+ * <p>
+ * The tag files and the metadata of the bag (object.properties, the xml files of the object and of its bitstreams) are
+ * written before the bitstreams, so a {@link TarAipArchive} finds them without reading past the payload. Within each
+ * of the two groups entries are written in sorted order, and when a modified time is given it is used for every entry
+ * so that the same bag always serializes to the same bytes (provided the {@link Compressor} is deterministic as well).
+ *
+ * @author agent
+ */
+public class TarAipSerializer implements BagSerializer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Wraps the {@link OutputStream} of the archive file with a compressing stream
+     */
+    @FunctionalInterface
+    public interface Compressor {
+
+        /**
+         * @param out the {@link OutputStream} to write compressed data to
+         * @return the {@link OutputStream} to write uncompressed data to
+         * @throws IOException if the stream cannot be created
+         */
+        OutputStream compress(OutputStream out) throws IOException;
+    }
+
+    private final String extension;
+    private final Compressor compressor;
+    private final FileTime modified;
+
+    /**
+     * Constructor
+     *
+     * @param archFmt    the archive format, used as the file extension of the serialized bag
+     * @param compressor the {@link Compressor} for the tar stream
+     */
+    public TarAipSerializer(final String archFmt, final Compressor compressor) {
+        this(archFmt, compressor, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param archFmt    the archive format, used as the file extension of the serialized bag
+     * @param compressor the {@link Compressor} for the tar stream
+     * @param modified   the modified time to use for all entries, or null to use the time of each file
+     */
+    public TarAipSerializer(final String archFmt, final Compressor compressor, final FileTime modified) {
+        this.extension = "." + checkNotNull(archFmt);
+        this.compressor = checkNotNull(compressor);
+        this.modified = modified;
+    }
+
+    @Override
+    public Path serialize(final Path root) throws IOException {
+        final Path bag = root.toAbsolutePath();
+        final Path parent = bag.getParent();
+        final Path serializedBag = parent.resolve(bag.getFileName() + extension);
+
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(bag)) {
+            files = walk.sorted(Comparator.comparing((Path path) -> isBitstream(bag.relativize(path)))
+                                          .thenComparing(Comparator.naturalOrder()))
+                        .collect(Collectors.toList());
+        }
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(serializedBag), BUFFER_SIZE);
+             OutputStream compressed = compressor.compress(os);
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(compressed)) {
+            // bitstream paths can run past the 100 characters of a ustar name, and bitstreams can be over 8GB
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            for (Path bagEntry : files) {
+                final boolean isFile = Files.isRegularFile(bagEntry);
+                final String name = parent.relativize(bagEntry).toString();
+
+                // only the name, size and modified time are kept; ownership and other attributes would only make
+                // the archive depend on the machine it was written on
+                final TarArchiveEntry entry = new TarArchiveEntry(isFile ? name : name + "/");
+                entry.setModTime(modified != null ? modified : Files.getLastModifiedTime(bagEntry));
+                if (isFile) {
+                    entry.setSize(Files.size(bagEntry));
+                }
+
+                tar.putArchiveEntry(entry);
+                if (isFile) {
+                    Files.copy(bagEntry, tar);
+                }
+                tar.closeArchiveEntry();
+            }
+            tar.finish();
+        }
+
+        return serializedBag;
+    }
+
+    /**
+     * Check if a file is a bitstream, i.e. a file in a bundle directory which is not one of the xml files describing
+     * a bitstream
+     *
+     * @param relative the path of the file relative to the bag
+     * @return true if the file is a bitstream
+     */
+    private static boolean isBitstream(final Path relative) {
+        return relative.getNameCount() > 2 && "data".equals(relative.getName(0).toString()) &&
+               !relative.getFileName().toString().endsWith(".xml");
+    }
+
+}
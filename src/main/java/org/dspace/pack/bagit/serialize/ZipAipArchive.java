@@ -0,0 +1,74 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An {@link AipArchive} for zip files. Only the central directory is read when the archive is opened, and each file is
+ * then read directly from its position in the archive, so the cost of reading a single file does not depend on the
+ * size of the rest of the bag.
+ *
+ * @author agent
+ */
+public class ZipAipArchive implements AipArchive {
+
+    private final Path archive;
+    private final ZipFile zipFile;
+    private final Map<String, ZipEntry> entries = new HashMap<>();
+
+    /**
+     * Open a zip archive and read its central directory
+     *
+     * @param archive the {@link Path} to the zip file
+     * @throws IOException if the zip file cannot be read
+     */
+    public ZipAipArchive(final Path archive) throws IOException {
+        this.archive = archive;
+        this.zipFile = new ZipFile(archive.toFile());
+
+        // strip the name of the bag directory so entries can be found by their path within the bag
+        final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            final ZipEntry entry = zipEntries.nextElement();
+            final String name = entry.getName();
+            final int separator = name.indexOf('/');
+            if (!entry.isDirectory() && separator > 0) {
+                entries.put(name.substring(separator + 1), entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(final String name) {
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public InputStream open(final String name) throws IOException {
+        final ZipEntry entry = entries.get(name);
+        if (entry == null) {
+            throw new NoSuchFileException(name, archive.toString(), "No such entry in archive");
+        }
+        return zipFile.getInputStream(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipFile.close();
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.duraspace.bagit.serialize.BagDeserializer;
+
+/**
+ * Deserialize a bag from a zip file. The bag is extracted alongside the archive, the same as the deserializers
+ * provided by bagit-support, optionally recording the digest of each file as it is written.
+ *
+ * @author agent
+ */
+public class ZipAipDeserializer implements BagDeserializer {
+
+    private final ExtractionDigests digests;
+
+    /**
+     * Constructor
+     *
+     * @param digests the {@link ExtractionDigests} to record the digest of each file in, or null
+     */
+    public ZipAipDeserializer(final ExtractionDigests digests) {
+        this.digests = digests;
+    }
+
+    @Override
+    public Path deserialize(final Path root) throws IOException {
+        final Path parent = root.toAbsolutePath().getParent();
+
+        Path bag = null;
+        try (ZipFile zipFile = new ZipFile(root.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final Path target = parent.resolve(entry.getName()).normalize();
+                if (!target.startsWith(parent) || target.equals(parent)) {
+                    throw new IOException("Entry " + entry.getName() + " is outside of the bag for " + root);
+                }
+
+                // the first part of every entry is the name of the bag
+                if (bag == null) {
+                    bag = parent.resolve(parent.relativize(target).getName(0));
+                }
+
+                if (entry.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    try (InputStream is = zipFile.getInputStream(entry)) {
+                        if (digests != null) {
+                            digests.extract(is, target);
+                        } else {
+                            Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bag == null) {
+            throw new IOException("No entries found in " + root);
+        }
+        return bag;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.duraspace.bagit.serialize.BagSerializer;
+
+/**
+ * Serialize a bag to a zip file, choosing the compression method for each entry. Payload files which are known to be
+ * compressed already (images, video, archives) are written with {@link ZipEntry#STORED} while everything else is
+ * deflated at the configured level. Entry names are relative to the parent of the bag, the same as the zip
+ * serialization provided by bagit-support.
+ * <p>
+ * Entries are written in sorted order, and when a modified time is given it is used for every entry so that the same
+ * bag always serializes to the same bytes.
+ *
+ * @author agent
+ */
+public class ZipAipSerializer implements BagSerializer {
+
+    private static final String EXTENSION = ".zip";
+
+    private final int level;
+    private final Set<Path> storedFiles;
+    private final FileTime modified;
+
+    /**
+     * Constructor
+     *
+     * @param level       the deflate level (-1 through 9) used for compressed entries
+     * @param storedFiles the files in the bag which should not be compressed
+     */
+    public ZipAipSerializer(final int level, final Set<Path> storedFiles) {
+        this(level, storedFiles, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param level       the deflate level (-1 through 9) used for compressed entries
+     * @param storedFiles the files in the bag which should not be compressed
+     * @param modified    the modified time to use for all entries, or null to use the time of each file
+     */
+    public ZipAipSerializer(final int level, final Set<Path> storedFiles, final FileTime modified) {
+        this.level = level;
+        this.storedFiles = checkNotNull(storedFiles);
+        this.modified = modified;
+    }
+
+    @Override
+    public Path serialize(final Path root) throws IOException {
+        final Path bag = root.toAbsolutePath();
+        final Path parent = bag.getParent();
+        final Path serializedBag = parent.resolve(bag.getFileName() + EXTENSION);
+
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(bag)) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+
+        // writing to a file (rather than a stream) lets stored entries be written without computing the crc up front
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(serializedBag.toFile())) {
+            zip.setLevel(level);
+            for (Path bagEntry : files) {
+                final boolean isFile = Files.isRegularFile(bagEntry);
+                final boolean compress = isFile && !storedFiles.contains(bagEntry);
+                final String name = parent.relativize(bagEntry).toString();
+
+                // only the name and modified time are kept, the extended timestamps added when creating an entry
+                // from a file would only make the archive depend on when it was written
+                final ZipArchiveEntry entry = new ZipArchiveEntry(isFile ? name : name + "/");
+                entry.setTime(modified != null ? modified.toMillis() : Files.getLastModifiedTime(bagEntry).toMillis());
+                entry.setMethod(compress ? ZipEntry.DEFLATED : ZipEntry.STORED);
+
+                zip.putArchiveEntry(entry);
+                if (isFile) {
+                    Files.copy(bagEntry, zip);
+                }
+                zip.closeArchiveEntry();
+            }
+        }
+
+        return serializedBag;
+    }
+
+}
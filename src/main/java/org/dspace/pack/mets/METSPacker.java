@@ -12,7 +12,6 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -20,24 +19,20 @@ import org.apache.logging.log4j.Logger;
 import org.dspace.authorize.AuthorizeException;
 import org.dspace.content.Bitstream;
 import org.dspace.content.Bundle;
-import org.dspace.content.Collection;
-import org.dspace.content.Community;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
 import org.dspace.content.crosswalk.CrosswalkException;
-import org.dspace.content.factory.ContentServiceFactory;
 import org.dspace.content.packager.AbstractPackageIngester;
 import org.dspace.content.packager.PackageDisseminator;
 import org.dspace.content.packager.PackageException;
 import org.dspace.content.packager.PackageIngester;
 import org.dspace.content.packager.PackageParameters;
-import org.dspace.content.service.CommunityService;
-import org.dspace.content.service.ItemService;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.factory.CoreServiceFactory;
 import org.dspace.core.service.PluginService;
 import org.dspace.pack.Packer;
+import org.dspace.pack.SizeEstimator;
 import org.dspace.workflow.WorkflowException;
 
 /**
@@ -47,8 +42,6 @@ import org.dspace.workflow.WorkflowException;
  */
 public class METSPacker implements Packer {
     private final PluginService pluginService = CoreServiceFactory.getInstance().getPluginService();
-    private final CommunityService communityService = ContentServiceFactory.getInstance().getCommunityService();
-    private final ItemService itemService = ContentServiceFactory.getInstance().getItemService();
 
     private final Logger log = LogManager.getLogger();
 
@@ -67,6 +60,8 @@ public class METSPacker implements Packer {
 
     /** List of all referenced child packages **/
     private List<String> childPackageRefs = new ArrayList<String>();
+    /** Object replaced/restored by the latest unpack() **/
+    private DSpaceObject unpackedDso = null;
 
     /** DSpace PackageDisseminator & PackageIngester to utilize for AIP pack() & unpack() **/
     private PackageDisseminator dip = null;
@@ -249,6 +244,7 @@ public class METSPacker implements Packer {
         } catch (PackageException | CrosswalkException | WorkflowException pkgE) {
             throw new IOException(pkgE.getMessage(), pkgE);
         }
+        unpackedDso = updatedDso;
 
         // If we are using a class that extends AbstractPackageIngester,
         // then we can save the child AIP references for later processing.
@@ -269,98 +265,18 @@ public class METSPacker implements Packer {
     @Override
     public long size(String method) throws SQLException {
         int type = dso.getType();
-        if (Constants.SITE == type) {
-            return siteSize();
-        } else if (Constants.COMMUNITY == type) {
-            return communitySize((Community)dso);
-        } else if (Constants.COLLECTION == type) {
-            return collectionSize((Collection)dso);
-        } else {
+        if (Constants.ITEM == type) {
             return itemSize((Item)dso);
         }
-    }
 
-    /**
-     * Determine total estimated size of all AIPs
-     * (Site AIP, Community AIPs, Collection AIPs, Item AIPs)
-     * <P>
-     * Estimated size is currently just based on size of content files.
-     *
-     * @return estimated storage size
-     * @throws SQLException if database error
-     */
-    private long siteSize() throws SQLException {
-        long size = 0L;
-
-        // This Site AIP itself is very small, so as a "guess" we'll just total
-        // up the size of all Community, Collection & Item AIPs
-        // Then, perform this task for all Top-Level Communities in the Site
-        // (this will recursively perform task for all objects in DSpace)
-        for (Community community : communityService.findAllTop(context)) {
-            size += communitySize(community);
+        // Site, Community & Collection AIPs are all very small, so as a "guess" we'll just
+        // total up the content files of the object and all of its children (using aggregate
+        // queries, rather than loading every Item)
+        String filter = null;
+        if (contentFilter != null && !contentFilter.isEmpty()) {
+            filter = exclude ? contentFilter : "+" + contentFilter;
         }
-
-        return size;
-    }
-
-    /**
-     * Determine total estimated size of Community AIP and all child AIPs
-     * (Sub-Community AIPs, Collection AIPs, Item AIPs)
-     * <P>
-     * Estimated size is currently just based on size of content files.
-     *
-     * @param community DSpace Community
-     * @return estimated storage size
-     * @throws SQLException if database error
-     */
-    private long communitySize(Community community) throws SQLException {
-        long size = 0L;
-
-        // logo size, if present
-        Bitstream logo = community.getLogo();
-        if (logo != null) {
-            size += logo.getSizeBytes();
-        }
-
-        // Calculate sub-communities
-        for (Community subCommunities : community.getSubcommunities()) {
-            size += communitySize(subCommunities);
-        }
-
-        // Calculate collections
-        for (Collection collections : community.getCollections()) {
-            size += collectionSize(collections);
-        }
-
-        return size;
-    }
-
-    /**
-     * Determine total estimated size of Collection AIP and all child AIPs
-     * (Item AIPs)
-     * <P>
-     * Estimated size is currently just based on size of content files.
-     *
-     * @param collection DSpace Collection
-     * @return estimated storage size
-     * @throws SQLException  if database error
-     */
-    private long collectionSize(Collection collection) throws SQLException {
-        long size = 0L;
-
-        // start with logo size, if present
-        Bitstream logo = collection.getLogo();
-        if (logo != null) {
-            size += logo.getSizeBytes();
-        }
-
-        // Calculate items
-        Iterator<Item> itemIter = itemService.findByCollection(context, collection);
-        while (itemIter.hasNext()) {
-            size += itemSize(itemIter.next());
-        }
-
-        return size;
+        return new SizeEstimator(context, filter).estimate(dso).getSize();
     }
 
    /**
@@ -391,9 +307,10 @@ public class METSPacker implements Packer {
     public void setContentFilter(String filter) {
         // If our filter list of bundles begins with a '+', then this list
         // specifies all the bundles to *include*. Otherwise all
-        // bundles *except* the listed ones are included
-        if (filter.startsWith("+")) {
-            exclude = false;
+        // bundles *except* the listed ones are included. Packers are reused, so
+        // always reset the flag rather than keeping one from an earlier filter
+        exclude = !filter.startsWith("+");
+        if (!exclude) {
             // remove the preceding '+' from our bundle list
             filter = filter.substring(1);
         }
@@ -424,4 +341,13 @@ public class METSPacker implements Packer {
     public List<String> getChildPackageRefs() {
         return childPackageRefs;
     }
+
+    /**
+     * Return the object replaced/restored by the latest unpack(), if any
+     *
+     * @return the unpacked DSpaceObject, or null if it was skipped
+     */
+    public DSpaceObject getUnpackedDSO() {
+        return unpackedDso;
+    }
 }
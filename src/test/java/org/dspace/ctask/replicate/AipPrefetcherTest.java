@@ -0,0 +1,149 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AipPrefetcher}
+ *
+ * @author agent
+ */
+public class AipPrefetcherTest {
+
+    private static final String GROUP = "aip-group";
+    private static final List<String> IDS = Arrays.asList("a", "b", "c", "d");
+
+    private Path stageDir;
+    private ReplicaManager repMan;
+    // the AIPs fetched on the thread which asked for them, rather than prefetched
+    private Set<String> fetchedInline;
+    private Thread caller;
+
+    @Before
+    public void setup() throws IOException {
+        stageDir = Files.createTempDirectory("aip-prefetcher");
+        fetchedInline = ConcurrentHashMap.newKeySet();
+        caller = Thread.currentThread();
+        repMan = mock(ReplicaManager.class);
+        when(repMan.objectAttribute(eq(GROUP), anyString(), eq("sizebytes"))).thenReturn("10");
+        when(repMan.fetchStoredObject(eq(GROUP), anyString())).thenAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            // later AIPs are fetched faster, so prefetches finish out of order
+            Thread.sleep(10L * (IDS.size() - IDS.indexOf(id)));
+            if (Thread.currentThread() == caller) {
+                fetchedInline.add(id);
+            }
+            return Files.createFile(stageDir.resolve(id)).toFile();
+        });
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(stageDir.toFile());
+    }
+
+    @Test
+    public void testAipsAreReturnedInOrder() throws IOException {
+        try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, GROUP, 3, 1000L);
+             AipPrefetcher.Sequence sequence = prefetcher.fetch(IDS, id -> id)) {
+            assertThat(names(sequence)).containsExactlyElementsOf(IDS);
+        }
+        for (String id : IDS) {
+            verify(repMan, times(1)).fetchStoredObject(GROUP, id);
+        }
+        // only the first was not fetched ahead
+        assertThat(fetchedInline).containsExactly("a");
+    }
+
+    @Test
+    public void testAipIsFetchedWhenThereIsNoSpace() throws IOException {
+        // room for one prefetched AIP at a time
+        try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, GROUP, 2, 10L);
+             AipPrefetcher.Sequence sequence = prefetcher.fetch(IDS, id -> id)) {
+            assertThat(names(sequence)).containsExactlyElementsOf(IDS);
+        }
+        for (String id : IDS) {
+            verify(repMan, times(1)).fetchStoredObject(GROUP, id);
+        }
+        // b and c are prefetched at once, so one of them did not fit
+        assertThat(fetchedInline).contains("a").hasSizeGreaterThan(1);
+    }
+
+    @Test
+    public void testPrefetchingOff() throws IOException {
+        try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, GROUP, 0, 1000L);
+             AipPrefetcher.Sequence sequence = prefetcher.fetch(IDS, id -> id)) {
+            assertThat(names(sequence)).containsExactlyElementsOf(IDS);
+        }
+        assertThat(fetchedInline).containsExactlyInAnyOrderElementsOf(IDS);
+    }
+
+    @Test
+    public void testUnconsumedAipsAreDeletedOnClose() throws Exception {
+        final CountDownLatch prefetched = new CountDownLatch(IDS.size() - 1);
+        doAnswer(invocation -> {
+            final String id = invocation.getArgument(1);
+            final File file = Files.createFile(stageDir.resolve(id)).toFile();
+            if (Thread.currentThread() != caller) {
+                prefetched.countDown();
+            }
+            return file;
+        }).when(repMan).fetchStoredObject(eq(GROUP), anyString());
+
+        final File first;
+        try (AipPrefetcher prefetcher = new AipPrefetcher(repMan, GROUP, 3, 1000L)) {
+            final AipPrefetcher.Sequence sequence = prefetcher.fetch(IDS, id -> id);
+            first = sequence.next();
+            assertThat(prefetched.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(stageDir.resolve("d")).exists();
+            sequence.close();
+        }
+
+        // the AIP returned is the caller's to remove, the others are removed by the sequence
+        assertThat(first).exists();
+        assertThat(stageDir.resolve("b")).doesNotExist();
+        assertThat(stageDir.resolve("c")).doesNotExist();
+        assertThat(stageDir.resolve("d")).doesNotExist();
+    }
+
+    private List<String> names(AipPrefetcher.Sequence sequence) throws IOException {
+        final List<String> names = new ArrayList<>();
+        while (sequence.hasNext()) {
+            final File file = sequence.next();
+            names.add(file.getName());
+            // as the restore does once the AIP is ingested
+            Files.delete(file.toPath());
+        }
+        return names;
+    }
+}
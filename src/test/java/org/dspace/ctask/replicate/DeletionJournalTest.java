@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.pack.bagit.DeletionCatalog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DeletionJournal}
+ *
+ * @author agent
+ */
+public class DeletionJournalTest {
+
+    private Path baseDir;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = Files.createTempDirectory("deletion-journal");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testRecordAndComplete() throws IOException {
+        final DeletionJournal journal = new DeletionJournal(baseDir);
+        journal.record("123456789/1", "123456789/0", Arrays.asList("123456789/2", "123456789/3"));
+
+        final List<Path> pending = journal.pending();
+        assertThat(pending).hasSize(1);
+        final Path claimed = journal.claim(pending.get(0));
+        final DeletionCatalog deletion = DeletionCatalog.read(claimed);
+        assertThat(deletion.getObjectId()).isEqualTo("123456789/1");
+        assertThat(deletion.getOwnerId()).isEqualTo("123456789/0");
+        assertThat(deletion.getMembers()).containsExactly("123456789/2", "123456789/3");
+
+        journal.complete(claimed);
+        assertThat(journal.pending()).isEmpty();
+        try (Stream<Path> files = Files.list(baseDir)) {
+            assertThat(files.count()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testClaimIsExclusive() throws IOException {
+        final DeletionJournal journal = new DeletionJournal(baseDir);
+        journal.record("123456789/1", null, Collections.emptyList());
+
+        final Path deletion = journal.pending().get(0);
+        assertThat(journal.claim(deletion)).isNotNull();
+        assertThat(journal.claim(deletion)).isNull();
+        assertThat(journal.pending()).isEmpty();
+    }
+
+    @Test
+    public void testAbandonedClaimIsProcessedAgain() throws IOException {
+        final DeletionJournal journal = new DeletionJournal(baseDir);
+        journal.record("123456789/1", null, Collections.emptyList());
+
+        final Path deletion = journal.pending().get(0);
+        journal.abandon(journal.claim(deletion));
+        assertThat(journal.pending()).containsExactly(deletion);
+    }
+
+    @Test
+    public void testStaleClaimIsProcessedAgain() throws IOException {
+        final DeletionJournal journal = new DeletionJournal(baseDir);
+        journal.record("123456789/1", null, Collections.emptyList());
+
+        final Path deletion = journal.pending().get(0);
+        final Path claimed = journal.claim(deletion);
+        assertThat(journal.pending()).isEmpty();
+
+        // the run which claimed it never finished
+        Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis() - 7200000L));
+        assertThat(journal.pending()).containsExactly(deletion);
+    }
+
+    @Test
+    public void testDeletionsAreListedInOrder() throws IOException {
+        final DeletionJournal journal = new DeletionJournal(baseDir);
+        journal.record("123456789/1", null, Collections.emptyList());
+        journal.record("123456789/2", null, Collections.emptyList());
+        journal.record("123456789/3", null, Collections.emptyList());
+
+        final List<Path> pending = journal.pending();
+        assertThat(pending).hasSize(3);
+        assertThat(DeletionCatalog.read(pending.get(0)).getObjectId()).isEqualTo("123456789/1");
+        assertThat(DeletionCatalog.read(pending.get(2)).getObjectId()).isEqualTo("123456789/3");
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.curate.TaskQueueEntry;
+import org.dspace.pack.bagit.BagItPackerTest;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link FilteredFileTaskQueue}
+ *
+ * @author agent
+ */
+public class FilteredFileTaskQueueTest extends BagItPackerTest {
+
+    private static final String QUEUE = "replication";
+    private static final List<String> TASKS = Collections.singletonList("transmitsingleaip");
+
+    private Path baseDir;
+    private Path queueDir;
+
+    @Before
+    public void setupQueue() throws IOException {
+        baseDir = Files.createTempDirectory("filtered-queue");
+        queueDir = baseDir.resolve(QUEUE);
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty("curate.taskqueue.dir", baseDir.toString());
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testDuplicatesAreDropped() throws IOException {
+        final FilteredFileTaskQueue queue = new FilteredFileTaskQueue();
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/2"));
+        queue.enqueue(QUEUE, entries("123456789/2", "123456789/3"));
+        // as if from another process
+        new FilteredFileTaskQueue().enqueue(QUEUE, entries("123456789/1", "123456789/4"));
+
+        assertThat(objectIds(queueDir.resolve("queue0")))
+            .containsExactly("123456789/1", "123456789/2", "123456789/3", "123456789/4");
+
+        final Set<TaskQueueEntry> dequeued = queue.dequeue(QUEUE, 1L);
+        assertThat(dequeued).hasSize(4);
+        queue.release(QUEUE, 1L, true);
+    }
+
+    @Test
+    public void testLockedQueueFileIsSkipped() throws IOException {
+        final FilteredFileTaskQueue queue = new FilteredFileTaskQueue();
+        queue.enqueue(QUEUE, entries("123456789/1"));
+
+        // the first queue file is being written or processed elsewhere
+        Files.createFile(queueDir.resolve("lock0"));
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/2"));
+
+        // an entry is only a duplicate of one in the queue file it would be added to
+        assertThat(objectIds(queueDir.resolve("queue0"))).containsExactly("123456789/1");
+        assertThat(objectIds(queueDir.resolve("queue1"))).containsExactly("123456789/1", "123456789/2");
+        assertThat(queueDir.resolve("lock1")).doesNotExist();
+    }
+
+    @Test
+    public void testRecreatedQueueFileIsReadAgain() throws IOException {
+        final FilteredFileTaskQueue queue = new FilteredFileTaskQueue();
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/2"));
+
+        // another process processes the queue, and yet another then queues more
+        Files.delete(queueDir.resolve("queue0"));
+        Files.delete(queueDir.resolve("keys0"));
+        new FilteredFileTaskQueue().enqueue(QUEUE, entries("123456789/3", "123456789/4", "123456789/5"));
+
+        // the index read before is stale, so does not drop these
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/3"));
+        assertThat(objectIds(queueDir.resolve("queue0")))
+            .containsExactly("123456789/3", "123456789/4", "123456789/5", "123456789/1");
+    }
+
+    @Test
+    public void testReleaseRemovesStaleIndexes() throws IOException {
+        final FilteredFileTaskQueue queue = new FilteredFileTaskQueue();
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        assertThat(queueDir.resolve("keys0")).exists();
+
+        assertThat(queue.dequeue(QUEUE, 1L)).hasSize(1);
+        queue.release(QUEUE, 1L, true);
+        assertThat(queueDir.resolve("queue0")).doesNotExist();
+        assertThat(queueDir.resolve("keys0")).doesNotExist();
+
+        // so the entry can be queued again
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        assertThat(objectIds(queueDir.resolve("queue0"))).containsExactly("123456789/1");
+    }
+
+    private List<String> objectIds(Path queueFile) throws IOException {
+        return Files.readAllLines(queueFile, StandardCharsets.UTF_8).stream()
+                    .map(line -> new TaskQueueEntry(line).getObjectId())
+                    .collect(Collectors.toList());
+    }
+
+    private Set<TaskQueueEntry> entries(String... ids) {
+        final Set<TaskQueueEntry> entries = new LinkedHashSet<>();
+        for (String id : ids) {
+            entries.add(new TaskQueueEntry("user", System.currentTimeMillis(), new ArrayList<>(TASKS), id));
+        }
+        return entries;
+    }
+}
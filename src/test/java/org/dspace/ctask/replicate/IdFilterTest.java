@@ -0,0 +1,90 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link IdFilter}
+ *
+ * @author agent
+ */
+public class IdFilterTest {
+
+    private Path baseDir;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = Files.createTempDirectory("id-filter");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testNoFilter() {
+        final IdFilter filter = new IdFilter(baseDir);
+        assertThat(filter.accept("123456789/1")).isTrue();
+        assertThat(filter.accept((String) null)).isTrue();
+    }
+
+    @Test
+    public void testExclude() throws IOException {
+        write("exclude", "123456789/1\n123456789/2\n");
+        final IdFilter filter = new IdFilter(baseDir);
+        assertThat(filter.accept("123456789/1")).isFalse();
+        assertThat(filter.accept("123456789/2")).isFalse();
+        assertThat(filter.accept("123456789/3")).isTrue();
+        assertThat(filter.accept("123456789/10")).isTrue();
+    }
+
+    @Test
+    public void testInclude() throws IOException {
+        write("include", "123456789/1\n");
+        final IdFilter filter = new IdFilter(baseDir);
+        assertThat(filter.accept("123456789/1")).isTrue();
+        assertThat(filter.accept("123456789/2")).isFalse();
+        assertThat(filter.accept((String) null)).isFalse();
+    }
+
+    @Test
+    public void testPrefix() throws IOException {
+        write("include", "123456789/1*\n  \n987654321/*\n");
+        final IdFilter filter = new IdFilter(baseDir);
+        assertThat(filter.accept("123456789/1")).isTrue();
+        assertThat(filter.accept("123456789/15")).isTrue();
+        assertThat(filter.accept("987654321/4")).isTrue();
+        assertThat(filter.accept("123456789/2")).isFalse();
+        assertThat(filter.accept("123456789/")).isFalse();
+    }
+
+    @Test
+    public void testExcludeTrumpsInclude() throws IOException {
+        write("include", "123456789/1\n");
+        write("exclude", "123456789/1\n");
+        final IdFilter filter = new IdFilter(baseDir);
+        assertThat(filter.accept("123456789/1")).isFalse();
+        assertThat(filter.accept("123456789/2")).isTrue();
+    }
+
+    private void write(final String name, final String content) throws IOException {
+        Files.write(baseDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.core.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ParallelIngester}
+ *
+ * @author agent
+ */
+public class ParallelIngesterTest {
+
+    private Path stageDir;
+    private Context context;
+    // the AIPs ingested, and fetched again, in the order they were
+    private List<String> ingested;
+    private List<String> refetched;
+
+    @Before
+    public void setup() throws IOException {
+        stageDir = Files.createTempDirectory("parallel-ingester");
+        context = mock(Context.class);
+        ingested = Collections.synchronizedList(new ArrayList<>());
+        refetched = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(stageDir.toFile());
+    }
+
+    @Test
+    public void testAipIsDeletedOnceIngested() throws IOException {
+        final List<Boolean> earlierStaged = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch submitted = new CountDownLatch(1);
+        try (ParallelIngester ingester = new ParallelIngester(() -> context, 1, 10)) {
+            ingester.submit("a", stage("a"), refetch("a"), ingest(submitted));
+            ingester.submit("b", stage("b"), refetch("b"), (workerContext, archive) -> {
+                // a is not committed yet, as the batch is not full
+                earlierStaged.add(Files.exists(stageDir.resolve("a")));
+                ingested.add(archive.getName());
+            });
+            submitted.countDown();
+            ingester.finish();
+        }
+
+        assertThat(ingested).containsExactly("a", "b");
+        assertThat(earlierStaged).containsExactly(false);
+        assertThat(stageDir).isEmptyDirectory();
+    }
+
+    @Test
+    public void testOtherItemsOfFailedBatchAreRetried() throws Exception {
+        final CountDownLatch submitted = new CountDownLatch(1);
+        try (ParallelIngester ingester = new ParallelIngester(() -> context, 1, 10)) {
+            // a is held until the others are queued, so all three are in one batch
+            ingester.submit("a", stage("a"), refetch("a"), ingest(submitted));
+            ingester.submit("b", stage("b"), refetch("b"), ingest(null));
+            ingester.submit("c", stage("c"), refetch("c"), (workerContext, archive) -> {
+                ingested.add(archive.getName());
+                throw new IOException("bad AIP");
+            });
+            submitted.countDown();
+
+            assertThatThrownBy(ingester::finish).isInstanceOf(IOException.class)
+                                                .hasMessageContaining("Unable to restore c");
+        }
+
+        // the Items ingested before c are fetched and ingested again, each on its own
+        assertThat(ingested).containsExactly("a", "b", "c", "a", "b");
+        assertThat(refetched).containsExactly("a", "b");
+        assertThat(stageDir).isEmptyDirectory();
+    }
+
+    @Test
+    public void testFailedCommitIsRetriedSingly() throws Exception {
+        doThrow(new SQLException("deadlock")).doNothing().when(context).commit();
+        final CountDownLatch submitted = new CountDownLatch(1);
+        try (ParallelIngester ingester = new ParallelIngester(() -> context, 1, 2)) {
+            ingester.submit("a", stage("a"), refetch("a"), ingest(submitted));
+            ingester.submit("b", stage("b"), refetch("b"), ingest(null));
+            submitted.countDown();
+            ingester.finish();
+        }
+
+        assertThat(ingested).containsExactly("a", "b", "a", "b");
+        assertThat(refetched).containsExactly("a", "b");
+        assertThat(stageDir).isEmptyDirectory();
+    }
+
+    @Test
+    public void testFailuresAreReportedInOrder() throws Exception {
+        final CountDownLatch laterFailed = new CountDownLatch(1);
+        try (ParallelIngester ingester = new ParallelIngester(() -> context, 2, 1)) {
+            // the first Item fails only once the second has, so either submit or finish may see the failure
+            assertThatThrownBy(() -> {
+                ingester.submit("first", stage("first"), refetch("first"), (workerContext, archive) -> {
+                    await(laterFailed);
+                    throw new IOException("bad AIP");
+                });
+                ingester.submit("second", stage("second"), refetch("second"), (workerContext, archive) -> {
+                    laterFailed.countDown();
+                    throw new IOException("bad AIP");
+                });
+                ingester.finish();
+            }).isInstanceOf(IOException.class).hasMessageContaining("Unable to restore first");
+        }
+        assertThat(stageDir).isEmptyDirectory();
+    }
+
+    private File stage(String id) throws IOException {
+        return Files.createFile(stageDir.resolve(id)).toFile();
+    }
+
+    private ParallelIngester.Fetch refetch(String id) {
+        return () -> {
+            refetched.add(id);
+            return stage(id);
+        };
+    }
+
+    /**
+     * Record the AIP ingested, first waiting for the latch if there is one
+     */
+    private ParallelIngester.Ingest ingest(CountDownLatch latch) {
+        return (workerContext, archive) -> {
+            if (!archive.exists()) {
+                throw new IOException("AIP is not staged: " + archive);
+            }
+            if (latch != null) {
+                await(latch);
+            }
+            ingested.add(archive.getName());
+        };
+    }
+
+    /**
+     * Wait for a latch on a worker thread, which only reports an Item's failure if it is an Exception
+     */
+    private void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IOException("Timed out waiting for the test");
+            }
+        } catch (InterruptedException intE) {
+            throw new IOException(intE);
+        }
+    }
+}
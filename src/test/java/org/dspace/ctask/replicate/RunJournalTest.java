@@ -0,0 +1,141 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RunJournal}
+ *
+ * @author agent
+ */
+public class RunJournalTest {
+
+    private static final String TASK = "transmitaip";
+    private static final String ROOT = "123456789/0";
+    private static final long RESUME = 3600000L;
+
+    private Path baseDir;
+    private Path runDir;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = Files.createTempDirectory("run-journal");
+        runDir = baseDir.resolve("transmitaip-123456789-0");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testInterruptedRunResumes() throws IOException {
+        final RunJournal first = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        first.record("123456789/1", true);
+        first.record("123456789/2", false);
+        first.record("123456789/abc", true);
+        // the run dies here
+
+        final RunJournal second = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        assertThat(second.isCompleted("123456789/1")).isTrue();
+        assertThat(second.isCompleted("123456789/abc")).isTrue();
+        assertThat(second.isCompleted("123456789/2")).isFalse();
+        assertThat(second.isCompleted("987654321/1")).isFalse();
+    }
+
+    @Test
+    public void testCompletedRunIsRemoved() throws IOException {
+        final RunJournal journal = new RunJournal(runDir, TASK, ROOT, 2, true, RESUME);
+        journal.record("123456789/1", true);
+        assertThat(journal.isFinished()).isFalse();
+        journal.record("123456789/2", true);
+
+        assertThat(journal.isFinished()).isTrue();
+        assertThat(Files.exists(runDir)).isFalse();
+    }
+
+    @Test
+    public void testFinishedRunWithFailuresIsNotResumed() throws IOException {
+        final RunJournal journal = new RunJournal(runDir, TASK, ROOT, 2, false, RESUME);
+        journal.record("123456789/1", true);
+        journal.record("123456789/2", false);
+        journal.finish();
+
+        // only the progress is kept
+        assertThat(runDir.resolve("progress")).exists();
+        assertThat(runDir.resolve("completed")).doesNotExist();
+        assertThat(runDir.resolve("completed.bits")).doesNotExist();
+
+        // 123456789/1 may be modified before the next run, which must transmit it again
+        final RunJournal next = new RunJournal(runDir, TASK, ROOT, 2, false, RESUME);
+        assertThat(next.isCompleted("123456789/1")).isFalse();
+        assertThat(next.isCompleted("123456789/2")).isFalse();
+        next.record("123456789/1", true);
+        next.finish();
+        assertThat(Files.exists(runDir)).isFalse();
+    }
+
+    @Test
+    public void testLargeSuffixesAreNotBitmapped() throws IOException {
+        final RunJournal first = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        first.record("123456789/999999999", true);
+        first.record("123456789/1048576", true);
+        first.record("123456789/007", true);
+        // the run dies here
+
+        final RunJournal second = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        assertThat(second.isCompleted("123456789/999999999")).isTrue();
+        assertThat(second.isCompleted("123456789/1048576")).isTrue();
+        assertThat(second.isCompleted("123456789/007")).isTrue();
+        assertThat(second.isCompleted("123456789/7")).isFalse();
+        assertThat(second.isCompleted("123456789/99999999")).isFalse();
+    }
+
+    @Test
+    public void testOldRunIsDiscarded() throws IOException {
+        final RunJournal journal = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        journal.record("123456789/1", true);
+        Files.setLastModifiedTime(runDir.resolve("progress"),
+                                  FileTime.fromMillis(System.currentTimeMillis() - 2 * RESUME));
+
+        final RunJournal next = new RunJournal(runDir, TASK, ROOT, 10, true, RESUME);
+        assertThat(next.isCompleted("123456789/1")).isFalse();
+    }
+
+    @Test
+    public void testProgress() throws IOException {
+        final RunJournal journal = new RunJournal(runDir, TASK, ROOT, 10, false, RESUME);
+        journal.record("123456789/1", true);
+        journal.record("123456789/2", false);
+        journal.finish();
+
+        final Properties progress = new Properties();
+        try (InputStream in = Files.newInputStream(runDir.resolve("progress"))) {
+            progress.load(in);
+        }
+        assertThat(progress.getProperty("count")).isEqualTo("2");
+        assertThat(progress.getProperty("total")).isEqualTo("10");
+        assertThat(progress.getProperty("completed")).isEqualTo("1");
+        assertThat(progress.getProperty("failed")).isEqualTo("1");
+        assertThat(progress.getProperty("rate")).isNotNull();
+        assertThat(progress.getProperty("finished")).isNotNull();
+    }
+}
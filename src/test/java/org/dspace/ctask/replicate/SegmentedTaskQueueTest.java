@@ -0,0 +1,216 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.curate.TaskQueueEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link SegmentedTaskQueue}
+ *
+ * @author agent
+ */
+public class SegmentedTaskQueueTest {
+
+    private static final String QUEUE = "replication";
+    private static final List<String> TASKS = Collections.singletonList("transmitsingleaip");
+
+    private Path baseDir;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = Files.createTempDirectory("segmented-queue");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testConcurrentWorkersGetDisjointBatches() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 2, 3600, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/2", "123456789/3"));
+
+        final Set<TaskQueueEntry> first = queue.dequeue(QUEUE, 1L);
+        final Set<TaskQueueEntry> second = queue.dequeue(QUEUE, 2L);
+        assertThat(ids(first)).containsExactly("123456789/1", "123456789/2");
+        assertThat(ids(second)).containsExactly("123456789/3");
+        assertThat(queue.dequeue(QUEUE, 3L)).isEmpty();
+    }
+
+    @Test
+    public void testReleaseWithoutRemoveRedelivers() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 3600, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1"));
+
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1");
+        queue.release(QUEUE, 1L, false);
+        assertThat(ids(queue.dequeue(QUEUE, 2L))).containsExactly("123456789/1");
+        queue.release(QUEUE, 2L, true);
+        assertThat(queue.dequeue(QUEUE, 3L)).isEmpty();
+    }
+
+    @Test
+    public void testExpiredLeaseRedelivers() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 0, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1"));
+
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1");
+        // the worker holding ticket 1 never released its batch
+        assertThat(ids(queue.dequeue(QUEUE, 2L))).containsExactly("123456789/1");
+    }
+
+    @Test
+    public void testDuplicatesAreMerged() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 3600, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1", "123456789/2"));
+        queue.enqueue(QUEUE, entries("123456789/1"));
+
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1", "123456789/2");
+        queue.release(QUEUE, 1L, true);
+        assertThat(queue.dequeue(QUEUE, 2L)).isEmpty();
+    }
+
+    @Test
+    public void testObjectInFlightIsHeldBack() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 3600, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1");
+
+        // modified again while the first entry is being processed
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        assertThat(queue.dequeue(QUEUE, 2L)).isEmpty();
+
+        queue.release(QUEUE, 1L, true);
+        assertThat(ids(queue.dequeue(QUEUE, 3L))).containsExactly("123456789/1");
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreRemoved() throws IOException {
+        // every enqueue fills a segment
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 3600, 1);
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        queue.enqueue(QUEUE, entries("123456789/2"));
+        queue.enqueue(QUEUE, entries("123456789/3"));
+        assertThat(segments()).hasSize(3);
+
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).hasSize(3);
+        queue.release(QUEUE, 1L, true);
+        // the last segment is kept
+        assertThat(segments()).hasSize(1);
+        assertThat(queue.dequeue(QUEUE, 2L)).isEmpty();
+    }
+
+    @Test
+    public void testPartialWriteIsDiscarded() throws IOException {
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 10, 3600, 1048576);
+        queue.enqueue(QUEUE, entries("123456789/1"));
+        final Path segment = segments().get(0);
+        Files.write(segment, "user|1|transmitsingleaip|123456789/".getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.APPEND);
+
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1");
+        queue.enqueue(QUEUE, entries("123456789/2"));
+        assertThat(ids(queue.dequeue(QUEUE, 2L))).containsExactly("123456789/2");
+    }
+
+    @Test
+    public void testLanesAreSharedByWeight() throws IOException {
+        final Map<String, Integer> lanes = new LinkedHashMap<>();
+        lanes.put("high", 3);
+        lanes.put("low", 1);
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 4, 3600, 1048576, lanes);
+        queue.enqueue(QUEUE + "#low", entries("123456789/1", "123456789/2", "123456789/3"));
+        queue.enqueue(QUEUE + "#high", entries("123456789/4", "123456789/5", "123456789/6", "123456789/7"));
+
+        // the low lane is not starved by the high lane
+        assertThat(ids(queue.dequeue(QUEUE, 1L)))
+            .containsExactly("123456789/4", "123456789/5", "123456789/6", "123456789/1");
+        // and takes the share the high lane cannot fill
+        assertThat(ids(queue.dequeue(QUEUE, 2L))).containsExactly("123456789/7", "123456789/2", "123456789/3");
+
+        queue.release(QUEUE, 1L, true);
+        queue.release(QUEUE, 2L, true);
+        assertThat(queue.dequeue(QUEUE, 3L)).isEmpty();
+        assertThat(queue.queueNames()).containsExactly(QUEUE);
+    }
+
+    @Test
+    public void testObjectLeasedFromOneLaneIsHeldInOthers() throws IOException {
+        final Map<String, Integer> lanes = new LinkedHashMap<>();
+        lanes.put("high", 1);
+        lanes.put("low", 1);
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 1, 3600, 1048576, lanes);
+        queue.enqueue(QUEUE + "#low", entries("123456789/1", "123456789/2"));
+        queue.enqueue(QUEUE + "#high", entries("123456789/1"));
+
+        // the later entry for the same object is in another lane, but is not given to a second worker
+        assertThat(ids(queue.dequeue(QUEUE, 1L))).containsExactly("123456789/1");
+        assertThat(ids(queue.dequeue(QUEUE, 2L))).containsExactly("123456789/2");
+        assertThat(queue.dequeue(QUEUE, 3L)).isEmpty();
+
+        // until the first is done
+        queue.release(QUEUE, 1L, true);
+        assertThat(ids(queue.dequeue(QUEUE, 3L))).containsExactly("123456789/1");
+    }
+
+    @Test
+    public void testUnboundedBatchTakesEveryEntry() throws IOException {
+        final Map<String, Integer> lanes = new LinkedHashMap<>();
+        lanes.put("high", 3);
+        lanes.put("low", 1);
+        final SegmentedTaskQueue queue = new SegmentedTaskQueue(baseDir, 0, 3600, 1048576, lanes);
+        queue.enqueue(QUEUE + "#low", entries("123456789/1", "123456789/2"));
+        queue.enqueue(QUEUE + "#high", entries("123456789/3", "123456789/4", "123456789/5"));
+
+        // a single dequeue drains the queue, as 'curate -q' expects
+        assertThat(ids(queue.dequeue(QUEUE, 1L)))
+            .containsExactly("123456789/3", "123456789/4", "123456789/5", "123456789/1", "123456789/2");
+        assertThat(queue.dequeue(QUEUE, 2L)).isEmpty();
+    }
+
+    private Set<TaskQueueEntry> entries(final String... ids) {
+        final Set<TaskQueueEntry> entries = new LinkedHashSet<>();
+        for (String id : ids) {
+            entries.add(new TaskQueueEntry("user", System.currentTimeMillis(), TASKS, id));
+        }
+        return entries;
+    }
+
+    private List<String> ids(final Set<TaskQueueEntry> entries) {
+        return entries.stream().map(TaskQueueEntry::getObjectId).collect(Collectors.toList());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(baseDir.resolve(QUEUE))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link StagingBudget}
+ *
+ * @author agent
+ */
+public class StagingBudgetTest {
+
+    @Test
+    public void testLargeAipReservesWholeBudget() throws InterruptedException {
+        final StagingBudget budget = new StagingBudget(100);
+        assertThat(budget.acquire(1000)).isEqualTo(100L);
+        budget.release(100);
+        assertThat(budget.acquire(0)).isEqualTo(1L);
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws InterruptedException {
+        final StagingBudget budget = new StagingBudget(100);
+        final long first = budget.acquire(60);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread(() -> {
+            try {
+                budget.acquire(60);
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        assertThat(acquired.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+        budget.release(first);
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue();
+        waiter.join();
+    }
+}
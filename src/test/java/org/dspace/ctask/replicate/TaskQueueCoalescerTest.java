@@ -0,0 +1,140 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.dspace.curate.TaskQueue;
+import org.dspace.curate.TaskQueueEntry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for the {@link TaskQueueCoalescer}
+ *
+ * @author agent
+ */
+public class TaskQueueCoalescerTest {
+
+    private static final String QUEUE = "replication";
+    private static final List<String> TASKS = Collections.singletonList("transmitsingleaip");
+    private static final long WINDOW = 30L;
+
+    private TaskQueue taskQueue;
+    private ScheduledExecutorService scheduler;
+    private TaskQueueCoalescer coalescer;
+
+    @Before
+    public void setup() {
+        taskQueue = mock(TaskQueue.class);
+        scheduler = mock(ScheduledExecutorService.class);
+        coalescer = new TaskQueueCoalescer(taskQueue, WINDOW, scheduler);
+    }
+
+    @Test
+    public void testEntriesInWindowAreMerged() throws IOException {
+        coalescer.enqueue(QUEUE, entries("user1", "123456789/1", "123456789/2"));
+        coalescer.enqueue(QUEUE, entries("user2", "123456789/2", "123456789/3"));
+
+        // nothing is written until the window ends, and the window is only started once
+        verify(taskQueue, never()).enqueue(anyString(), anySet());
+        verify(scheduler, times(1)).schedule(any(Runnable.class), eq(WINDOW), eq(TimeUnit.SECONDS));
+
+        coalescer.flush();
+        final List<Set<TaskQueueEntry>> written = written(1);
+        assertThat(objectIds(written.get(0))).containsExactly("123456789/1", "123456789/2", "123456789/3");
+        // the first of the duplicates is kept
+        assertThat(written.get(0)).extracting(TaskQueueEntry::getEpersonId).containsOnly("user1");
+
+        // nothing is held, so nothing more is written
+        coalescer.flush();
+        verify(taskQueue, times(1)).enqueue(anyString(), anySet());
+    }
+
+    @Test
+    public void testFailedEntriesAreRetriedFirst() throws IOException {
+        doThrow(new IOException("queue unavailable")).doNothing().when(taskQueue).enqueue(anyString(), anySet());
+
+        coalescer.enqueue(QUEUE, entries("user1", "123456789/1", "123456789/2"));
+        coalescer.flush();
+        // held for another window
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(WINDOW), eq(TimeUnit.SECONDS));
+
+        coalescer.enqueue(QUEUE, entries("user2", "123456789/3", "123456789/1"));
+        coalescer.flush();
+
+        final List<Set<TaskQueueEntry>> written = written(2);
+        assertThat(objectIds(written.get(1))).containsExactly("123456789/1", "123456789/2", "123456789/3");
+    }
+
+    @Test
+    public void testShutdownWritesHeldEntries() throws IOException {
+        coalescer.enqueue(QUEUE, entries("user1", "123456789/1"));
+        coalescer.shutdown();
+
+        verify(scheduler).shutdownNow();
+        assertThat(objectIds(written(1).get(0))).containsExactly("123456789/1");
+
+        // entries which arrive once the JVM is shutting down are written straight away
+        coalescer.enqueue(QUEUE, entries("user1", "123456789/2"));
+        assertThat(objectIds(written(2).get(1))).containsExactly("123456789/2");
+        verify(scheduler, times(1)).schedule(any(Runnable.class), eq(WINDOW), eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownDoesNotRetry() throws IOException {
+        doThrow(new IllegalStateException("kernel is gone")).when(taskQueue).enqueue(anyString(), anySet());
+
+        coalescer.enqueue(QUEUE, entries("user1", "123456789/1"));
+        coalescer.shutdown();
+        coalescer.flush();
+
+        // the entries are logged as lost, not held for a window which will never end
+        verify(taskQueue, times(1)).enqueue(anyString(), anySet());
+        verify(scheduler, times(1)).schedule(any(Runnable.class), eq(WINDOW), eq(TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Set<TaskQueueEntry>> written(int times) throws IOException {
+        final ArgumentCaptor<Set<TaskQueueEntry>> captor = ArgumentCaptor.forClass(Set.class);
+        verify(taskQueue, times(times)).enqueue(eq(QUEUE), captor.capture());
+        return captor.getAllValues();
+    }
+
+    private List<String> objectIds(Set<TaskQueueEntry> entries) {
+        return entries.stream().map(TaskQueueEntry::getObjectId).collect(Collectors.toList());
+    }
+
+    private Set<TaskQueueEntry> entries(String eperson, String... ids) {
+        final Set<TaskQueueEntry> entries = new LinkedHashSet<>();
+        for (String id : ids) {
+            entries.add(new TaskQueueEntry(eperson, System.currentTimeMillis(), new ArrayList<>(TASKS), id));
+        }
+        return entries;
+    }
+}
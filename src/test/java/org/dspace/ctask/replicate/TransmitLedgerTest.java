@@ -0,0 +1,164 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.ctask.replicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.TestConfigurationService;
+import org.dspace.content.Item;
+import org.dspace.content.MetadataField;
+import org.dspace.content.MetadataValue;
+import org.dspace.core.Context;
+import org.dspace.pack.bagit.BagItAipWriter;
+import org.dspace.pack.bagit.serialize.AipSerialization;
+import org.dspace.services.ConfigurationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TransmitLedger}
+ *
+ * @author agent
+ */
+public class TransmitLedgerTest {
+
+    private static final String HANDLE = "123456789/1";
+    private static final Instant MODIFIED = Instant.parse("2024-01-01T00:00:00Z");
+
+    private Path baseDir;
+    private Path ledgerFile;
+    private ConfigurationService configurationService;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = Files.createTempDirectory("transmit-ledger");
+        ledgerFile = baseDir.resolve("transmit-ledger");
+        configurationService = new TestConfigurationService();
+        configurationService.setProperty("replicate.packer.archfmt", "zip");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(baseDir.toFile());
+    }
+
+    @Test
+    public void testRecordIsReloaded() throws IOException {
+        new TransmitLedger(ledgerFile, configurationService).record(HANDLE, MODIFIED, "fingerprint");
+
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "fingerprint")).isTrue();
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED.plusSeconds(1), "fingerprint")).isFalse();
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "other")).isFalse();
+        assertThat(ledger.isUnchanged("123456789/2", MODIFIED, "fingerprint")).isFalse();
+    }
+
+    @Test
+    public void testLaterRecordReplacesEarlier() throws IOException {
+        final TransmitLedger first = new TransmitLedger(ledgerFile, configurationService);
+        first.record(HANDLE, MODIFIED, "first");
+        first.record(HANDLE, MODIFIED, "second");
+        assertThat(first.isUnchanged(HANDLE, MODIFIED, "first")).isFalse();
+
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "first")).isFalse();
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "second")).isTrue();
+    }
+
+    @Test
+    public void testReplacedLinesAreCompacted() throws IOException {
+        final TransmitLedger first = new TransmitLedger(ledgerFile, configurationService);
+        for (int i = 0; i < 1100; i++) {
+            first.record(HANDLE, MODIFIED, "fingerprint-" + i);
+        }
+        first.record("123456789/2", MODIFIED, "other");
+
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        assertThat(Files.readAllLines(ledgerFile)).hasSize(2);
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "fingerprint-1099")).isTrue();
+        assertThat(ledger.isUnchanged("123456789/2", MODIFIED, "other")).isTrue();
+    }
+
+    @Test
+    public void testMalformedLinesAreIgnored() throws IOException {
+        Files.write(ledgerFile, Arrays.asList("not a ledger line", HANDLE + "\t" + MODIFIED + "\tfingerprint"),
+                    StandardCharsets.UTF_8);
+
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        assertThat(ledger.isUnchanged(HANDLE, MODIFIED, "fingerprint")).isTrue();
+        assertThat(ledger.getEntry("not a ledger line")).isNull();
+    }
+
+    @Test
+    public void testFingerprint() throws IOException, SQLException {
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        final Context context = mock(Context.class);
+        final UUID id = UUID.randomUUID();
+        final MetadataValue title = metadataValue("A title");
+
+        final Item item = mock(Item.class);
+        when(item.getID()).thenReturn(id);
+        when(item.getMetadata()).thenReturn(Collections.singletonList(title));
+        final String fingerprint = ledger.fingerprint(context, item);
+        assertThat(ledger.fingerprint(context, item)).isEqualTo(fingerprint);
+
+        // a metadata change is a different AIP
+        when(title.getValue()).thenReturn("Another title");
+        final String changed = ledger.fingerprint(context, item);
+        assertThat(changed).isNotEqualTo(fingerprint);
+
+        // as is a change to the settings the AIP is packed with
+        configurationService.setProperty("replicate.packer.archfmt", "tgz");
+        assertThat(ledger.fingerprint(context, item)).isNotEqualTo(changed);
+    }
+
+    @Test
+    public void testPackingSettingsInvalidateEntries() throws IOException, SQLException {
+        final TransmitLedger ledger = new TransmitLedger(ledgerFile, configurationService);
+        final Context context = mock(Context.class);
+        final Item item = mock(Item.class);
+        when(item.getID()).thenReturn(UUID.randomUUID());
+        ledger.record(HANDLE, MODIFIED, ledger.fingerprint(context, item));
+
+        // each setting which changes the bytes of the AIP means it must be packed again
+        for (String key : Arrays.asList(BagItAipWriter.REPRODUCIBLE_KEY, BagItAipWriter.STORED_FORMATS_KEY,
+                                        AipSerialization.COMPRESSION_LEVEL_KEY, AipSerialization.ZSTD_LEVEL_KEY,
+                                        AipSerialization.COMPRESSION_THREADS_KEY)) {
+            configurationService.setProperty(key, "1");
+            final String fingerprint = ledger.fingerprint(context, item);
+            assertThat(ledger.isUnchanged(HANDLE, MODIFIED, fingerprint)).as(key).isFalse();
+
+            // as transmitted with the new setting
+            ledger.record(HANDLE, MODIFIED, fingerprint);
+            assertThat(ledger.isUnchanged(HANDLE, MODIFIED, ledger.fingerprint(context, item))).as(key).isTrue();
+        }
+    }
+
+    private MetadataValue metadataValue(String value) {
+        final MetadataField field = mock(MetadataField.class);
+        when(field.toString('.')).thenReturn("dc.title");
+        final MetadataValue metadataValue = mock(MetadataValue.class);
+        when(metadataValue.getMetadataField()).thenReturn(field);
+        when(metadataValue.getValue()).thenReturn(value);
+        return metadataValue;
+    }
+}
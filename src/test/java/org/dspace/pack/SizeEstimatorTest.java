@@ -0,0 +1,184 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Item;
+import org.dspace.content.factory.ContentServiceFactory;
+import org.dspace.content.service.ItemService;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.pack.bagit.BagItPackerTest;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for the {@link SizeEstimator}
+ *
+ * @author agent
+ */
+public class SizeEstimatorTest extends BagItPackerTest {
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PreparedStatement countStatement = mock(PreparedStatement.class);
+    private final PreparedStatement sizeStatement = mock(PreparedStatement.class);
+
+    private Collection collection;
+
+    @Before
+    public void setupDatabase() throws SQLException {
+        collection = collection();
+
+        final ResultSet countResults = mock(ResultSet.class);
+        when(countResults.next()).thenReturn(true);
+        when(countResults.getLong(1)).thenReturn(3L);
+        when(countStatement.executeQuery()).thenReturn(countResults);
+
+        final ResultSet sizeResults = mock(ResultSet.class);
+        when(sizeResults.next()).thenReturn(true);
+        when(sizeResults.getLong(1)).thenReturn(5L);
+        when(sizeResults.getLong(2)).thenReturn(1024L);
+        when(sizeStatement.executeQuery()).thenReturn(sizeResults);
+
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(countStatement, sizeStatement);
+    }
+
+    @Test
+    public void testEstimateBySql() throws SQLException {
+        final SizeEstimator estimator = new SizeEstimator(mockContext, null, () -> dataSource);
+        final SizeEstimator.Estimate estimate = estimator.estimate(collection);
+
+        assertThat(estimate.getItems()).isEqualTo(3L);
+        assertThat(estimate.getBitstreams()).isEqualTo(5L);
+        assertThat(estimate.getSize()).isEqualTo(1024L);
+
+        // no filter, so every bundle is counted
+        assertThat(preparedSql().get(1)).doesNotContain("EXISTS");
+        verify(sizeStatement, never()).setString(anyInt(), anyString());
+    }
+
+    @Test
+    public void testExcludeFilterBySql() throws SQLException {
+        final SizeEstimator estimator = new SizeEstimator(mockContext, "LICENSE,TEXT", () -> dataSource);
+        estimator.estimate(collection);
+
+        assertThat(preparedSql().get(1)).contains(" AND NOT EXISTS (").contains("IN (?, ?)");
+        verify(sizeStatement).setObject(1, collection.getID());
+        verify(sizeStatement).setString(2, "LICENSE");
+        verify(sizeStatement).setString(3, "TEXT");
+    }
+
+    @Test
+    public void testIncludeFilterBySql() throws SQLException {
+        final SizeEstimator estimator = new SizeEstimator(mockContext, "+ORIGINAL", () -> dataSource);
+        estimator.estimate(collection);
+
+        final String sql = preparedSql().get(1);
+        assertThat(sql).contains(" AND EXISTS (").contains("IN (?)").doesNotContain("NOT EXISTS");
+        verify(sizeStatement).setString(2, "ORIGINAL");
+    }
+
+    @Test
+    public void testFallbackWalksItems() throws SQLException {
+        when(dataSource.getConnection()).thenThrow(new SQLException("no database"));
+        final Item item = item();
+        final ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+        when(itemService.findByCollection(any(Context.class), any(Collection.class)))
+            .thenAnswer(invocation -> Collections.singletonList(item).iterator());
+
+        final SizeEstimator estimator = new SizeEstimator(mockContext, "LICENSE", () -> dataSource);
+        final SizeEstimator.Estimate estimate = estimator.estimate(collection);
+
+        // the LICENSE bundle is excluded
+        assertThat(estimate.getItems()).isEqualTo(1L);
+        assertThat(estimate.getBitstreams()).isEqualTo(2L);
+        assertThat(estimate.getSize()).isEqualTo(300L);
+        verify(mockContext).uncacheEntity(item);
+
+        // once the queries fail they are not tried again
+        estimator.estimate(collection);
+        verify(dataSource, times(1)).getConnection();
+    }
+
+    @Test
+    public void testFallbackWithIncludeFilter() throws SQLException {
+        final Item item = item();
+        final ItemService itemService = ContentServiceFactory.getInstance().getItemService();
+        when(itemService.findByCollection(any(Context.class), any(Collection.class)))
+            .thenAnswer(invocation -> Collections.singletonList(item).iterator());
+
+        // no DataSource at all
+        final SizeEstimator estimator = new SizeEstimator(mockContext, "+LICENSE", () -> null);
+        final SizeEstimator.Estimate estimate = estimator.estimate(collection);
+
+        assertThat(estimate.getItems()).isEqualTo(1L);
+        assertThat(estimate.getBitstreams()).isEqualTo(1L);
+        assertThat(estimate.getSize()).isEqualTo(50L);
+    }
+
+    private List<String> preparedSql() throws SQLException {
+        final ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(connection, times(2)).prepareStatement(sql.capture());
+        return sql.getAllValues();
+    }
+
+    private Collection collection() {
+        final Collection collection = mock(Collection.class);
+        when(collection.getType()).thenReturn(Constants.COLLECTION);
+        when(collection.getID()).thenReturn(UUID.randomUUID());
+        return collection;
+    }
+
+    /**
+     * An Item with an ORIGINAL bundle of two bitstreams (300 bytes) and a LICENSE bundle of one (50 bytes)
+     */
+    private Item item() {
+        final Bundle original = bundle("ORIGINAL", 100L, 200L);
+        final Bundle license = bundle("LICENSE", 50L);
+        final Item item = mock(Item.class);
+        when(item.getBundles()).thenReturn(Arrays.asList(original, license));
+        return item;
+    }
+
+    private Bundle bundle(String name, long... sizes) {
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getName()).thenReturn(name);
+        final Bitstream[] bitstreams = new Bitstream[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            bitstreams[i] = mock(Bitstream.class);
+            when(bitstreams[i].getSizeBytes()).thenReturn(sizes[i]);
+        }
+        when(bundle.getBitstreams()).thenReturn(Arrays.asList(bitstreams));
+        return bundle;
+    }
+}
@@ -10,6 +10,7 @@ import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Properties;
 
 import org.junit.Test;
 
@@ -48,6 +49,23 @@ public class BagItAipReaderTest extends BagItPackerTest {
         reader.clean();
     }
 
+    @Test
+    public void readWithoutExtracting() throws URISyntaxException, IOException {
+        final URL resource = this.getClass().getClassLoader().getResource("");
+        assertNotNull(resource);
+        final Path path = Paths.get(resource.toURI()).resolve("unpack/catalog.zip");
+
+        final BagItAipReader reader = new BagItAipReader(path);
+        final Properties properties = reader.readProperties();
+        final List<String> members = reader.readFile("members");
+        assertThat(properties).isNotEmpty();
+        assertThat(members).isNotEmpty();
+
+        // the bag should not have been extracted alongside the archive
+        assertThat(path.resolveSibling("catalog")).doesNotExist();
+        reader.clean();
+    }
+
     @Test
     public void testInvalidBag() throws URISyntaxException, IOException {
         final URL resource = this.getClass().getClassLoader().getResource("");
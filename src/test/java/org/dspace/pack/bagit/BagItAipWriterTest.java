@@ -18,19 +18,23 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.zip.ZipEntry;
 
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.io.IOUtils;
 import org.dspace.content.Bitstream;
@@ -43,6 +47,8 @@ import org.dspace.pack.bagit.xml.metadata.Metadata;
 import org.dspace.pack.bagit.xml.metadata.Value;
 import org.dspace.pack.bagit.xml.policy.Policies;
 import org.dspace.pack.bagit.xml.policy.Policy;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -83,6 +89,12 @@ public class BagItAipWriterTest extends BagItPackerTest {
         bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
     }
 
+    @After
+    public void teardown() {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(BagItAipWriter.REPRODUCIBLE_KEY, false);
+    }
+
     @Test
     public void testWriteAip() throws Exception {
         final String bagName = "test-write-aip";
@@ -144,6 +156,105 @@ public class BagItAipWriterTest extends BagItPackerTest {
         Files.delete(packagedAip.toPath());
     }
 
+    @Test
+    public void testWriteAipStoresCompressedFormats() throws Exception {
+        final String bagName = "test-write-stored-aip";
+        final URL resources = this.getClass().getClassLoader().getResource("");
+        final Path root = Paths.get(Objects.requireNonNull(resources).toURI());
+
+        final Bitstream bitstream = initDSO(Bitstream.class);
+        bitstreams.add(new BagBitstream(bitstream, bundleName, null, null));
+        final File directory = root.resolve(bagName).toFile();
+        final BitstreamFormat bitstreamFormat = initReloadable(BitstreamFormat.class);
+        bitstreamFormat.setMIMEType("image/jpeg");
+        bitstreamFormat.setExtensions(Collections.singletonList("jpg"));
+
+        final BagItAipWriter writer = new BagItAipWriter(mockContext, directory, archFmt, properties)
+            .withMetadata(metadata)
+            .withBitstreams(bitstreams);
+
+        when(bitstreamService.retrieve(any(Context.class), eq(bitstream)))
+            .thenReturn(new ByteArrayInputStream("jpeg".getBytes()));
+        when(bitstreamService.getFormat(any(Context.class), any(Bitstream.class)))
+            .thenReturn(bitstreamFormat);
+
+        final File packagedAip = writer.packageAip();
+        assertThat(packagedAip).exists();
+
+        // the jpeg is stored as is while the xml is still compressed
+        final Map<String, Integer> methods = new HashMap<>();
+        try (InputStream is = Files.newInputStream(packagedAip.toPath());
+             ZipArchiveInputStream zis = new ZipArchiveInputStream(is)) {
+            ZipArchiveEntry entry;
+            while ((entry = zis.getNextZipEntry()) != null) {
+                methods.put(entry.getName(), entry.getMethod());
+            }
+        }
+
+        final String payloadKey = bagName + "/data/" + bundleName + "/bitstream_" + bitstream.getID() + ".jpg";
+        final String metadataKey = bagName + "/data/metadata.xml";
+        assertThat(methods).containsEntry(payloadKey, ZipEntry.STORED);
+        assertThat(methods).containsEntry(metadataKey, ZipEntry.DEFLATED);
+
+        Files.delete(packagedAip.toPath());
+    }
+
+    @Test
+    public void testWriteAipReproducible() throws Exception {
+        final String bagName = "test-write-reproducible-aip";
+        final URL resources = this.getClass().getClassLoader().getResource("");
+        final Path root = Paths.get(Objects.requireNonNull(resources).toURI());
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(BagItAipWriter.REPRODUCIBLE_KEY, true);
+
+        final Bitstream bitstream = initDSO(Bitstream.class);
+        bitstreams.add(new BagBitstream(bitstream, bundleName, null, null));
+        final File directory = root.resolve(bagName).toFile();
+        final BitstreamFormat bitstreamFormat = initReloadable(BitstreamFormat.class);
+        bitstreamFormat.setExtensions(Collections.singletonList("txt"));
+        final Instant lastModified = Instant.parse("2020-03-09T12:00:00Z");
+
+        when(bitstreamService.retrieve(any(Context.class), eq(bitstream)))
+            .thenReturn(new ByteArrayInputStream("hello".getBytes()), new ByteArrayInputStream("hello".getBytes()));
+        when(bitstreamService.getFormat(any(Context.class), any(Bitstream.class)))
+            .thenReturn(bitstreamFormat);
+
+        // package the same object twice
+        final File first = new BagItAipWriter(mockContext, directory, archFmt, properties)
+            .withMetadata(metadata)
+            .withPolicies(policies)
+            .withBitstreams(bitstreams)
+            .withLastModified(lastModified)
+            .packageAip();
+        final byte[] firstBytes = Files.readAllBytes(first.toPath());
+        Files.delete(first.toPath());
+
+        final File second = new BagItAipWriter(mockContext, directory, archFmt, properties)
+            .withMetadata(metadata)
+            .withPolicies(policies)
+            .withBitstreams(bitstreams)
+            .withLastModified(lastModified)
+            .packageAip();
+        final byte[] secondBytes = Files.readAllBytes(second.toPath());
+        Files.delete(second.toPath());
+
+        assertThat(secondBytes).isEqualTo(firstBytes);
+
+        // every entry has the fixed time rather than the time its file was written, and the Bagging-Date is taken
+        // from the object
+        String bagInfo = null;
+        try (ZipArchiveInputStream zis = new ZipArchiveInputStream(new ByteArrayInputStream(firstBytes))) {
+            ZipArchiveEntry entry;
+            while ((entry = zis.getNextZipEntry()) != null) {
+                assertThat(entry.getTime()).isEqualTo(BagItAipWriter.DEFAULT_MODIFIED_DATE);
+                if (entry.getName().equals(bagName + "/bag-info.txt")) {
+                    bagInfo = IOUtils.toString(zis, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        assertThat(bagInfo).contains("Bagging-Date: 2020-03-09");
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testWriteAipExists() throws Exception {
         final String bagName = "existing-bagit-aip";
@@ -13,6 +13,7 @@ import static org.assertj.core.api.Assertions.fail;
 import static org.dspace.eperson.Group.ADMIN;
 import static org.dspace.eperson.Group.ANONYMOUS;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
@@ -24,6 +25,7 @@ import static org.mockito.Mockito.when;
 
 import java.lang.reflect.Field;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
@@ -32,6 +34,8 @@ import java.util.Set;
 import java.util.UUID;
 
 import com.google.common.collect.ImmutableList;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.Unmarshaller;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
 import org.dspace.content.Item;
@@ -272,6 +276,51 @@ public class BagItRolesUtilTest extends BagItPackerTest {
         }
     }
 
+    @Test
+    public void testWriteDSpaceRolesForSite() throws Exception {
+        final Site site = initDSO(Site.class);
+        final Group group = initDSO(Group.class);
+        final Field name = Group.class.getDeclaredField(NAME_FIELD);
+        name.setAccessible(true);
+        name.set(group, ADMIN);
+
+        final EPerson ePerson = initDSO(EPerson.class);
+        ePerson.setEmail(EPERSON_EMAIL);
+        ePerson.setNetid(EPERSON_NETID);
+
+        // paged queries in BagItRolesUtil, a short page ends the query
+        when(groupService.findAll(any(Context.class), isNull(List.class), anyInt(), eq(0)))
+            .thenReturn(ImmutableList.of(group));
+        when(ePersonService.findAll(any(Context.class), eq(EPerson.EMAIL), anyInt(), eq(0)))
+            .thenReturn(ImmutableList.of(ePerson));
+
+        final Path xml = Files.createTempFile("roles", ".xml");
+        try {
+            BagItRolesUtil.writeDSpaceRoles(mockContext, site, xml);
+
+            verify(groupService, times(1)).findAll(any(Context.class), isNull(List.class), anyInt(), eq(0));
+            verify(ePersonService, times(1)).findAll(any(Context.class), eq(EPerson.EMAIL), anyInt(), eq(0));
+            verify(mockContext, times(1)).uncacheEntity(eq(ePerson));
+
+            // the streamed xml should read back the same as the marshalled DSpaceRoles
+            final Unmarshaller unmarshaller = JAXBContext.newInstance(DSpaceRoles.class).createUnmarshaller();
+            final DSpaceRoles dSpaceRoles = (DSpaceRoles) unmarshaller.unmarshal(xml.toFile());
+            assertThat(dSpaceRoles.getGroups()).hasSize(1);
+            assertThat(dSpaceRoles.getPeople()).hasSize(1);
+
+            final AssociatedGroup associatedGroup = dSpaceRoles.getGroups().iterator().next();
+            assertThat(associatedGroup.getId()).isEqualTo(valueOf(group.getID()));
+            assertThat(associatedGroup.getName()).isEqualTo(ADMIN);
+
+            final Person person = dSpaceRoles.getPeople().iterator().next();
+            assertThat(person.getId()).isEqualTo(valueOf(ePerson.getID()));
+            assertThat(person.getEmail()).isEqualTo(EPERSON_EMAIL);
+            assertThat(person.getNetId()).isEqualTo(EPERSON_NETID);
+        } finally {
+            Files.delete(xml);
+        }
+    }
+
     @Test
     public void ingest() throws Exception {
         // get the roles.xml file
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.dspace.pack.bagit.serialize.ExtractionDigests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BagItVerifier}
+ *
+ * @author agent
+ */
+public class BagItVerifierTest {
+
+    private static final String PAYLOAD = "data/ORIGINAL/bitstream_b13f3f11-df9d-43d3-8c33-866a56ee54ef.txt";
+    private static final String PAYLOAD_MD5 = "5d41402abc4b2a76b9719d911017c592";
+    private static final String PROPERTIES = "data/object.properties";
+    private static final String PROPERTIES_MD5 = "f7aecaedea0468fd5354fa0915f1c6b1";
+
+    private Path bag;
+
+    @Before
+    public void setup() throws IOException {
+        bag = Files.createTempDirectory("bagit-verifier");
+        Files.createDirectories(bag.resolve(PAYLOAD).getParent());
+        write(PAYLOAD, "hello");
+        write(PROPERTIES, "bagType=AIP");
+        write("bagit.txt", "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n");
+        write("bag-info.txt", "Payload-Oxum: 16.2\n");
+        write("manifest-md5.txt", PAYLOAD_MD5 + "  " + PAYLOAD + "\n" + PROPERTIES_MD5 + "  " + PROPERTIES + "\n");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(bag.toFile());
+    }
+
+    @Test
+    public void testValid() throws IOException {
+        new BagItVerifier(2, true).verify(bag, null);
+    }
+
+    @Test(expected = IOException.class)
+    public void testChecksumMismatch() throws IOException {
+        write(PAYLOAD, "jello");
+        new BagItVerifier(2, false).verify(bag, null);
+    }
+
+    @Test(expected = IOException.class)
+    public void testPayloadOxumMismatch() throws IOException {
+        write(PAYLOAD, "hello world");
+        new BagItVerifier(2, true).verify(bag, null);
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnlistedPayload() throws IOException {
+        write("data/extra.txt", "extra");
+        new BagItVerifier(2, false).verify(bag, null);
+    }
+
+    @Test
+    public void testExtractionDigests() throws IOException {
+        final ExtractionDigests digests = new ExtractionDigests("MD5");
+        digests.extract(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), bag.resolve(PAYLOAD));
+        assertThat(digests.get(bag.resolve(PAYLOAD))).isEqualTo(PAYLOAD_MD5);
+        new BagItVerifier(1, true).verify(bag, digests);
+    }
+
+    private void write(final String name, final String content) throws IOException {
+        Files.write(bag.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
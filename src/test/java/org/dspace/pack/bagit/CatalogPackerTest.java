@@ -9,14 +9,20 @@ package org.dspace.pack.bagit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import com.google.common.collect.ImmutableList;
 import org.dspace.core.Context;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
 import org.junit.Test;
 import org.mockito.Mockito;
 
@@ -27,6 +33,12 @@ import org.mockito.Mockito;
  */
 public class CatalogPackerTest extends BagItPackerTest {
 
+    @After
+    public void teardown() {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(CatalogPacker.CATALOG_FORMAT_KEY, "bag");
+    }
+
     @Test
     public void testPack() throws Exception {
         // get the output location
@@ -62,4 +74,51 @@ public class CatalogPackerTest extends BagItPackerTest {
         assertThat(packer.getMembers()).contains("admin", "test-user");
         assertThat(packer.getOwnerId()).isEqualTo("123456789/1");
     }
+
+    @Test
+    public void testPackLineFormat() throws Exception {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(CatalogPacker.CATALOG_FORMAT_KEY, CatalogPacker.LINE_FORMAT);
+
+        final URL resources = CollectionPackerTest.class.getClassLoader().getResource("");
+        assertNotNull(resources);
+        final Path output = Paths.get(resources.toURI().resolve("catalog-packer-line-test"));
+
+        final CatalogPacker packer = new CatalogPacker(mockContext, "123456789/2", "123456789/1",
+            ImmutableList.of("123456789/3", "123456789/4"));
+        final File packedOutput = packer.pack(output.toFile());
+
+        assertThat(packedOutput).exists();
+        assertThat(packedOutput.getName()).isEqualTo("catalog-packer-line-test." + DeletionCatalog.EXTENSION);
+        assertThat(DeletionCatalog.isCatalog(packedOutput.toPath())).isTrue();
+
+        final CatalogPacker unpacker = new CatalogPacker(mockContext, "123456789/2");
+        unpacker.unpack(packedOutput);
+        assertThat(unpacker.getOwnerId()).isEqualTo("123456789/1");
+        assertThat(unpacker.getMembers()).containsExactly("123456789/3", "123456789/4");
+
+        packedOutput.delete();
+    }
+
+    @Test
+    public void testUnpackLineFormatChecksumMismatch() throws Exception {
+        final URL resources = CollectionPackerTest.class.getClassLoader().getResource("");
+        assertNotNull(resources);
+        final Path catalog = Paths.get(resources.toURI().resolve("catalog-packer-corrupt." +
+                                                                 DeletionCatalog.EXTENSION));
+
+        new DeletionCatalog("123456789/2", "123456789/1", 0L, ImmutableList.of("123456789/3")).write(catalog);
+        final String content = new String(Files.readAllBytes(catalog), StandardCharsets.UTF_8);
+        Files.write(catalog, content.replace("123456789/3", "123456789/5").getBytes(StandardCharsets.UTF_8));
+
+        final CatalogPacker packer = new CatalogPacker(mockContext, "123456789/2");
+        try {
+            packer.unpack(catalog.toFile());
+            fail("Unpacking a modified catalog should fail");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("checksum");
+        } finally {
+            Files.delete(catalog);
+        }
+    }
 }
@@ -24,17 +24,26 @@ import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import org.assertj.core.util.Files;
 import org.dspace.authorize.ResourcePolicy;
@@ -58,6 +67,8 @@ import org.dspace.eperson.factory.EPersonServiceFactory;
 import org.dspace.eperson.service.EPersonService;
 import org.dspace.eperson.service.GroupService;
 import org.dspace.handle.Handle;
+import org.dspace.services.factory.DSpaceServicesFactory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -120,6 +131,12 @@ public class ItemPackerTest extends BagItPackerTest {
         bitstreamService = ContentServiceFactory.getInstance().getBitstreamService();
     }
 
+    @After
+    public void teardown() {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(ItemPacker.RESTORE_STREAMING_KEY, false);
+    }
+
     @Test
     public void testPack() throws Exception {
         final String bitstreamTitle = "title";
@@ -340,4 +357,157 @@ public class ItemPackerTest extends BagItPackerTest {
         assertThat(openArchive).doesNotExist();
     }
 
+
+    @Test
+    public void testUnpackStreaming() throws Exception {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(ItemPacker.RESTORE_STREAMING_KEY, true);
+
+        final String license = LICENSE_NAME.toUpperCase();
+        final String original = "ORIGINAL";
+        final URL resources = CollectionPackerTest.class.getClassLoader().getResource("unpack");
+        assertNotNull(resources);
+
+        final Path archive = Paths.get(resources.toURI()).resolve("ITEM@123456789-3.zip");
+        final Path openArchive = Paths.get(resources.toURI()).resolve("ITEM@123456789-3");
+
+        final Item item = initDSO(Item.class);
+        final Bundle licenseBundle = initDSO(Bundle.class);
+        final Bundle originalBundle = initDSO(Bundle.class);
+        final Bitstream licenseBitstream = initDSO(Bitstream.class);
+        final Bitstream originalBitstream = initDSO(Bitstream.class);
+
+        when(bundleService.create(any(Context.class), eq(item), eq(license))).thenReturn(licenseBundle);
+        when(bundleService.create(any(Context.class), eq(item), eq(original))).thenReturn(originalBundle);
+        when(bitstreamService.create(any(Context.class), eq(licenseBundle), any(InputStream.class)))
+            .thenReturn(licenseBitstream);
+        when(bitstreamService.create(any(Context.class), eq(originalBundle), any(InputStream.class)))
+            .thenReturn(originalBitstream);
+
+        final ItemPacker packer = new ItemPacker(mockContext, item, archFmt);
+        packer.unpack(archive.toFile());
+
+        verify(itemService, times(8)).addMetadata(any(Context.class), eq(item), nullable(String.class),
+                                                  nullable(String.class), nullable(String.class),
+                                                  nullable(String.class), nullable(String.class));
+        verify(bitstreamService, times(1)).create(any(Context.class), eq(licenseBundle), any(InputStream.class));
+        verify(bitstreamService, times(1)).create(any(Context.class), eq(originalBundle), any(InputStream.class));
+        verify(bitstreamService, times(1)).update(any(Context.class), eq(licenseBitstream));
+        verify(bitstreamService, times(1)).update(any(Context.class), eq(originalBitstream));
+        verify(bundleService, never()).removeBitstream(any(Context.class), any(Bundle.class), any(Bitstream.class));
+
+        // nothing is extracted when streaming
+        assertThat(openArchive).doesNotExist();
+    }
+
+    @Test
+    public void testUnpackStreamingRollback() throws Exception {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(ItemPacker.RESTORE_STREAMING_KEY, true);
+
+        final String original = "ORIGINAL";
+        final URL resources = CollectionPackerTest.class.getClassLoader().getResource("unpack");
+        assertNotNull(resources);
+        final Path archive = Paths.get(resources.toURI()).resolve("ITEM@123456789-3.zip");
+
+        // copy the aip with a bitstream changed, so it no longer matches the manifest
+        final File corrupt = copyAip(archive, (name, content) ->
+            name.endsWith("data/ORIGINAL/bitstream_b13f3f11-df9d-43d3-8c33-866a56ee54ef.xml") ?
+            "corrupt".getBytes() : content);
+
+        final Item item = initDSO(Item.class);
+        final Bundle originalBundle = initDSO(Bundle.class);
+        final Bitstream originalBitstream = initDSO(Bitstream.class);
+        when(bundleService.create(any(Context.class), eq(item), anyString())).thenReturn(originalBundle);
+        when(bitstreamService.create(any(Context.class), eq(originalBundle), any(InputStream.class)))
+            .thenReturn(originalBitstream);
+
+        final ItemPacker packer = new ItemPacker(mockContext, item, archFmt);
+        try {
+            packer.unpack(corrupt);
+            fail("Unpacking a corrupt aip should fail");
+        } catch (IOException expected) {
+            // the bitstreams which were created are removed
+            verify(bundleService, times(2)).removeBitstream(any(Context.class), eq(originalBundle),
+                                                            eq(originalBitstream));
+            // as is the bundle which was created for them
+            verify(itemService, times(1)).removeBundle(any(Context.class), eq(item), eq(originalBundle));
+            verify(itemService, never()).addMetadata(any(Context.class), eq(item), nullable(String.class),
+                                                     nullable(String.class), nullable(String.class),
+                                                     nullable(String.class), nullable(String.class));
+        } finally {
+            Files.delete(corrupt.getParentFile());
+        }
+    }
+
+    @Test
+    public void testUnpackStreamingRollbackAfterVerify() throws Exception {
+        DSpaceServicesFactory.getInstance().getConfigurationService()
+                             .setProperty(ItemPacker.RESTORE_STREAMING_KEY, true);
+
+        final URL resources = CollectionPackerTest.class.getClassLoader().getResource("unpack");
+        assertNotNull(resources);
+        final Path archive = Paths.get(resources.toURI()).resolve("ITEM@123456789-3.zip");
+
+        // copy the aip without the metadata of a bitstream, and without it in the manifests, so it still verifies
+        final String missing = "data/ORIGINAL/bitstream_b13f3f11-df9d-43d3-8c33-866a56ee54ef-metadata.xml";
+        final File incomplete = copyAip(archive, (name, content) -> {
+            if (name.endsWith(missing) || name.endsWith("tagmanifest-md5.txt")) {
+                return null;
+            } else if (name.endsWith("manifest-md5.txt")) {
+                return new String(content, StandardCharsets.UTF_8).lines()
+                                                                  .filter(line -> !line.endsWith(missing))
+                                                                  .map(line -> line + "\n")
+                                                                  .collect(Collectors.joining())
+                                                                  .getBytes(StandardCharsets.UTF_8);
+            }
+            return content;
+        });
+
+        final Item item = initDSO(Item.class);
+        final Bundle originalBundle = initDSO(Bundle.class);
+        final Bitstream originalBitstream = initDSO(Bitstream.class);
+        when(bundleService.create(any(Context.class), eq(item), anyString())).thenReturn(originalBundle);
+        when(bitstreamService.create(any(Context.class), eq(originalBundle), any(InputStream.class)))
+            .thenReturn(originalBitstream);
+
+        final ItemPacker packer = new ItemPacker(mockContext, item, archFmt);
+        try {
+            packer.unpack(incomplete);
+            fail("Unpacking an aip without the metadata of a bitstream should fail");
+        } catch (IOException expected) {
+            // the failure comes after the aip is verified, but the bitstreams and bundle are still removed
+            verify(bundleService, times(2)).removeBitstream(any(Context.class), eq(originalBundle),
+                                                            eq(originalBitstream));
+            verify(itemService, times(1)).removeBundle(any(Context.class), eq(item), eq(originalBundle));
+        } finally {
+            Files.delete(incomplete.getParentFile());
+        }
+    }
+
+    /**
+     * Copy an aip into a temporary folder, changing its entries
+     *
+     * @param archive the aip to copy
+     * @param change given the name and content of each entry, returns the content to copy, or null to drop it
+     * @return the copy
+     * @throws IOException if the aip cannot be copied
+     */
+    private File copyAip(Path archive, BiFunction<String, byte[], byte[]> change) throws IOException {
+        final File copy = new File(Files.newTemporaryFolder(), archive.getFileName().toString());
+        try (ZipFile zipFile = new ZipFile(archive.toFile());
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(copy))) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final byte[] content = change.apply(entry.getName(), zipFile.getInputStream(entry).readAllBytes());
+                if (content != null) {
+                    out.putNextEntry(new ZipEntry(entry.getName()));
+                    out.write(content);
+                    out.closeEntry();
+                }
+            }
+        }
+        return copy;
+    }
 }
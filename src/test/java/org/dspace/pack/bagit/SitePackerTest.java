@@ -9,6 +9,7 @@ package org.dspace.pack.bagit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
 import static org.mockito.Mockito.times;
@@ -73,8 +74,10 @@ public class SitePackerTest extends BagItPackerTest {
 
         final GroupService groupService = EPersonServiceFactory.getInstance().getGroupService();
         final EPersonService ePersonService = EPersonServiceFactory.getInstance().getEPersonService();
-        when(groupService.findAll(any(Context.class), isNull(List.class))).thenReturn(ImmutableList.<Group>of());
-        when(ePersonService.findAll(any(Context.class), eq(EPerson.EMAIL))).thenReturn(ImmutableList.<EPerson>of());
+        when(groupService.findAll(any(Context.class), isNull(List.class), anyInt(), eq(0)))
+            .thenReturn(ImmutableList.<Group>of());
+        when(ePersonService.findAll(any(Context.class), eq(EPerson.EMAIL), anyInt(), eq(0)))
+            .thenReturn(ImmutableList.<EPerson>of());
 
         // pack + verify
         final SitePacker packer = new SitePacker(mockContext, site, archFmt);
@@ -86,11 +89,16 @@ public class SitePackerTest extends BagItPackerTest {
         // pack does not store the members, so they should be absent
         assertThat(packer.getMembers()).isEqualTo(Optional.absent());
 
+        // but they are written to the aip
+        final BagItAipReader reader = new BagItAipReader(packedSite.toPath());
+        assertThat(reader.readFile("members")).containsExactly(handleAStr, handleBStr);
+        reader.clean();
+
         packedSite.deleteOnExit();
 
         verify(communityService, times(1)).findAllTop(any(Context.class));
-        verify(groupService, times(1)).findAll(any(Context.class), isNull(List.class));
-        verify(ePersonService, times(1)).findAll(any(Context.class), eq(EPerson.EMAIL));
+        verify(groupService, times(1)).findAll(any(Context.class), isNull(List.class), anyInt(), eq(0));
+        verify(ePersonService, times(1)).findAll(any(Context.class), eq(EPerson.EMAIL), anyInt(), eq(0));
         verifyNoMoreInteractions(communityService, groupService, ePersonService);
     }
 
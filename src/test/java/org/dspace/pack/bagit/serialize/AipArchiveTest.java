@@ -0,0 +1,176 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for reading files from serialized bags with the {@link ZipAipArchive} and {@link TarAipArchive}
+ *
+ * @author agent
+ */
+public class AipArchiveTest {
+
+    private static final String BAG_NAME = "ITEM@123456789-3";
+    private static final String PROPERTIES = "data/object.properties";
+    private static final String PAYLOAD = "data/ORIGINAL/bitstream_b13f3f11-df9d-43d3-8c33-866a56ee54ef.txt";
+    private static final String SMALL_PAYLOAD = "data/ORIGINAL/bitstream_3c1d9a2e-5f0b-4e27-9a51-0d6f8e2b7c44.txt";
+
+    private Path workDir;
+    private Path bag;
+    private byte[] payload;
+
+    @Before
+    public void setup() throws IOException {
+        workDir = Files.createTempDirectory("aip-archive");
+        bag = workDir.resolve(BAG_NAME);
+        Files.createDirectories(bag.resolve(PAYLOAD).getParent());
+        Files.write(bag.resolve("bagit.txt"), "BagIt-Version: 1.0".getBytes(StandardCharsets.UTF_8));
+        Files.write(bag.resolve(PROPERTIES), "bagType=AIP".getBytes(StandardCharsets.UTF_8));
+
+        // large enough that the tar archive does not keep it in memory
+        payload = new byte[TarAipArchive.MAX_CACHED_SIZE + 1];
+        new Random(1).nextBytes(payload);
+        Files.write(bag.resolve(PAYLOAD), payload);
+        Files.write(bag.resolve(SMALL_PAYLOAD), "small".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        final Path archive = new ZipAipSerializer(Deflater.DEFAULT_COMPRESSION, Collections.emptySet()).serialize(bag);
+        FileUtils.deleteDirectory(bag.toFile());
+
+        try (AipArchive aipArchive = new ZipAipArchive(archive)) {
+            assertArchive(aipArchive);
+        }
+        assertThat(Files.exists(bag)).isFalse();
+    }
+
+    @Test
+    public void testTgz() throws IOException {
+        final Path archive = new TarAipSerializer("tgz", out -> new ParallelGzipOutputStream(out, 2)).serialize(bag);
+        FileUtils.deleteDirectory(bag.toFile());
+
+        try (AipArchive aipArchive = new TarAipArchive(archive, GzipCompressorInputStream::new)) {
+            assertArchive(aipArchive);
+        }
+        assertThat(Files.exists(bag)).isFalse();
+    }
+
+    @Test
+    public void testTgzDoesNotKeepBitstreams() throws IOException {
+        final Path archive = new TarAipSerializer("tgz", out -> new ParallelGzipOutputStream(out, 2)).serialize(bag);
+        FileUtils.deleteDirectory(bag.toFile());
+
+        try (TarAipArchive aipArchive = new TarAipArchive(archive, GzipCompressorInputStream::new)) {
+            // only the tag files are passed over to find object.properties
+            assertThat(aipArchive.exists(PROPERTIES)).isTrue();
+            assertThat(aipArchive.cachedBytes()).isEqualTo("BagIt-Version: 1.0".length() + "bagType=AIP".length());
+            try (InputStream is = aipArchive.open(SMALL_PAYLOAD)) {
+                assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("small");
+            }
+        }
+    }
+
+    @Test
+    public void testTgzMetadataIsReadBeforePayload() throws IOException {
+        // a payload far larger than anything kept in memory
+        final byte[] large = new byte[8 * TarAipArchive.MAX_CACHED_SIZE];
+        new Random(2).nextBytes(large);
+        Files.write(bag.resolve(PAYLOAD), large);
+        final Path archive = new TarAipSerializer("tgz", out -> new ParallelGzipOutputStream(out, 2)).serialize(bag);
+
+        final AtomicLong read = new AtomicLong();
+        try (TarAipArchive aipArchive = new TarAipArchive(archive, in -> counting(new GzipCompressorInputStream(in),
+                                                                                   read))) {
+            try (InputStream is = aipArchive.open(PROPERTIES)) {
+                assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("bagType=AIP");
+            }
+        }
+        // the bitstreams are written after object.properties, so are not decompressed to find it
+        assertThat(read.get()).isLessThan(TarAipArchive.MAX_CACHED_SIZE);
+    }
+
+    /**
+     * Count the bytes read from a stream
+     */
+    private InputStream counting(final InputStream in, final AtomicLong read) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b != -1) {
+                    read.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int count = super.read(b, off, len);
+                if (count > 0) {
+                    read.addAndGet(count);
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                final long skipped = super.skip(n);
+                read.addAndGet(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    private void assertArchive(final AipArchive aipArchive) throws IOException {
+        assertThat(aipArchive.exists(PROPERTIES)).isTrue();
+        try (InputStream is = aipArchive.open(PROPERTIES)) {
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("bagType=AIP");
+        }
+        try (InputStream is = aipArchive.open(PAYLOAD)) {
+            assertThat(is.readAllBytes()).isEqualTo(payload);
+        }
+        // tag files which were passed over are still available
+        try (InputStream is = aipArchive.open("bagit.txt")) {
+            assertThat(new String(is.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("BagIt-Version: 1.0");
+        }
+
+        assertThat(aipArchive.exists("data/members")).isFalse();
+        try {
+            aipArchive.open("data/members");
+            throw new AssertionError("Expected NoSuchFileException");
+        } catch (NoSuchFileException expected) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ParallelGzipOutputStream}
+ *
+ * @author agent
+ */
+public class ParallelGzipOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    @Test
+    public void testMultipleBlocks() throws IOException {
+        final byte[] data = generate(BLOCK_SIZE * 10 + 17);
+        final byte[] compressed = compress(data, 4);
+
+        assertThat(compressed.length).isLessThan(data.length);
+        assertThat(gunzip(compressed)).isEqualTo(data);
+        assertThat(IOUtils.toByteArray(new GzipCompressorInputStream(new ByteArrayInputStream(compressed))))
+            .isEqualTo(data);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final byte[] compressed = compress(new byte[0], 2);
+        assertThat(gunzip(compressed)).isEmpty();
+    }
+
+    @Test
+    public void testDeterministic() throws IOException {
+        final byte[] data = generate(BLOCK_SIZE * 3);
+        assertThat(compress(data, 1)).isEqualTo(compress(data, 3));
+    }
+
+    private byte[] compress(final byte[] data, final int threads) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new ParallelGzipOutputStream(bytes, threads, Deflater.DEFAULT_COMPRESSION,
+                                                              BLOCK_SIZE)) {
+            // write a portion byte by byte in order to cross a block boundary
+            final int split = Math.min(data.length, BLOCK_SIZE + 1);
+            for (int i = 0; i < split; i++) {
+                gzip.write(data[i]);
+            }
+            gzip.write(data, split, data.length - split);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] gunzip(final byte[] compressed) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(gzip);
+        }
+    }
+
+    private byte[] generate(final int length) {
+        // somewhat compressible data
+        final Random random = new Random(length);
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+}
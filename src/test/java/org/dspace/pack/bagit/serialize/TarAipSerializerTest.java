@@ -0,0 +1,81 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.pack.bagit.serialize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Round trip tests for the {@link TarAipSerializer} and {@link TarAipDeserializer}
+ *
+ * @author agent
+ */
+public class TarAipSerializerTest {
+
+    private static final String BAG_NAME = "ITEM@123456789-3";
+    private static final String PAYLOAD = "data/ORIGINAL/bitstream_b13f3f11-df9d-43d3-8c33-866a56ee54ef.txt";
+
+    private Path workDir;
+    private Path bag;
+
+    @Before
+    public void setup() throws IOException {
+        workDir = Files.createTempDirectory("tar-aip");
+        bag = workDir.resolve(BAG_NAME);
+        Files.createDirectories(bag.resolve(PAYLOAD).getParent());
+        Files.write(bag.resolve("bagit.txt"), "BagIt-Version: 1.0".getBytes(StandardCharsets.UTF_8));
+        Files.write(bag.resolve(PAYLOAD), "hello".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        FileUtils.deleteDirectory(workDir.toFile());
+    }
+
+    @Test
+    public void testTgz() throws IOException {
+        final TarAipSerializer serializer = new TarAipSerializer("tgz", out -> new ParallelGzipOutputStream(out, 2));
+        final Path archive = serializer.serialize(bag);
+        assertThat(archive.getFileName().toString()).isEqualTo(BAG_NAME + ".tgz");
+
+        FileUtils.deleteDirectory(bag.toFile());
+        final Path deserialized = new TarAipDeserializer(GzipCompressorInputStream::new).deserialize(archive);
+        assertBag(deserialized);
+    }
+
+    @Test
+    public void testZstd() throws IOException {
+        final TarAipSerializer serializer = new TarAipSerializer("tar.zst",
+                                                                 out -> new ZstdOutputStream(out).setWorkers(2));
+        final Path archive = serializer.serialize(bag);
+        assertThat(archive.getFileName().toString()).isEqualTo(BAG_NAME + ".tar.zst");
+
+        FileUtils.deleteDirectory(bag.toFile());
+        final Path deserialized = new TarAipDeserializer(ZstdInputStream::new).deserialize(archive);
+        assertBag(deserialized);
+    }
+
+    private void assertBag(final Path deserialized) throws IOException {
+        assertThat(deserialized).isEqualTo(bag);
+        assertThat(deserialized.resolve("bagit.txt")).exists();
+        assertThat(deserialized.resolve(PAYLOAD)).hasContent("hello");
+    }
+
+}